@@ -27,13 +27,43 @@ public final class Config {
 
   // Local db settings.
   // TODO(#128): Reset version to 1 before releasing.
-  public static final int DB_VERSION = 84;
+  public static final int DB_VERSION = 88;
   public static final String DB_NAME = "gnd.db";
 
   // Firebase Cloud Firestore settings.
   public static final boolean FIRESTORE_PERSISTENCE_ENABLED = false;
   public static final boolean FIRESTORE_LOGGING_ENABLED = true;
 
+  // Map
+  /** Zoom level below which nearby map pins are grouped into clusters. */
+  public static final float MARKER_CLUSTERING_ZOOM_THRESHOLD = 14f;
+
+  // Data sync
+  /**
+   * Delay before local changes are synced, so that changes made in quick succession are sent
+   * together by a single worker rather than waking up the radio for each one.
+   */
+  public static final long SYNC_WINDOW_MILLIS = 30 * 1000;
+
+  /** Maximum number of mutations written to the remote data store in a single batch. */
+  public static final int MAX_MUTATIONS_PER_BATCH = 500;
+
+  /** Maximum number of mutation batches being committed to the remote data store at once. */
+  public static final int MAX_CONCURRENT_MUTATION_BATCHES = 4;
+
+  /** Delay before a mutation which failed to sync is first retried. Doubles on each attempt. */
+  public static final long MUTATION_RETRY_INITIAL_DELAY_MILLIS = 30 * 1000;
+
+  /** Maximum delay between attempts to sync a mutation which keeps failing. */
+  public static final long MUTATION_RETRY_MAX_DELAY_MILLIS = 60 * 60 * 1000;
+
+  /** Number of times a mutation can be rejected by the remote data store before quarantine. */
+  public static final int MAX_MUTATION_ATTEMPTS = 5;
+
+  // Offline base maps
+  /** Maximum number of tile source files downloaded at once. */
+  public static final int MAX_CONCURRENT_TILE_SOURCE_DOWNLOADS = 4;
+
   // Photos
   public static final String PHOTO_EXT = ".jpg";
 }
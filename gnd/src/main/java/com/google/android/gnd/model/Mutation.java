@@ -71,6 +71,12 @@ public abstract class Mutation<B extends Mutation.Builder> {
   @Nullable
   public abstract String getLastError();
 
+  /**
+   * Returns the time in milliseconds since the epoch before which this mutation shouldn't be sent
+   * to the remote data store again after a failed attempt, or 0 if it may be sent right away.
+   */
+  public abstract long getNextAttemptTimestamp();
+
   @Override
   public String toString() {
     return getClass().getSimpleName() + " type=" + getType() + " id=" + getId();
@@ -98,6 +104,8 @@ public abstract class Mutation<B extends Mutation.Builder> {
 
     public abstract T setLastError(@Nullable String lastError);
 
+    public abstract T setNextAttemptTimestamp(long newNextAttemptTimestamp);
+
     public abstract Mutation build();
   }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.model.basemap;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Estimated storage needed to download the tile sources intersecting an offline area. Estimates
+ * are refined as the sizes of individual tile sources become known.
+ */
+@AutoValue
+public abstract class OfflineBaseMapSizeEstimate {
+
+  /** Returns the number of tile sources intersecting the area. */
+  public abstract int getTileSourceCount();
+
+  /** Returns the number of tile sources whose sizes are included in this estimate. */
+  public abstract int getSizedTileSourceCount();
+
+  /** Returns the total size of tile sources whose sizes are known, in bytes. */
+  public abstract long getTotalBytes();
+
+  /**
+   * Returns the size of tile sources already downloaded for other areas, in bytes. These are shared
+   * with the new area rather than downloaded again.
+   */
+  public abstract long getDownloadedBytes();
+
+  public abstract Builder toBuilder();
+
+  /** Returns the number of bytes which remain to be downloaded. */
+  public long getBytesToDownload() {
+    return getTotalBytes() - getDownloadedBytes();
+  }
+
+  /** Returns true iff the sizes of all tile sources are included in this estimate. */
+  public boolean isComplete() {
+    return getSizedTileSourceCount() == getTileSourceCount();
+  }
+
+  /** Returns a copy of this estimate including a tile source of the specified size. */
+  public OfflineBaseMapSizeEstimate addTileSource(long bytes, boolean downloaded) {
+    return toBuilder()
+        .setSizedTileSourceCount(getSizedTileSourceCount() + 1)
+        .setTotalBytes(getTotalBytes() + bytes)
+        .setDownloadedBytes(getDownloadedBytes() + (downloaded ? bytes : 0))
+        .build();
+  }
+
+  public static Builder newBuilder() {
+    return new AutoValue_OfflineBaseMapSizeEstimate.Builder()
+        .setSizedTileSourceCount(0)
+        .setTotalBytes(0)
+        .setDownloadedBytes(0);
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setTileSourceCount(int count);
+
+    public abstract Builder setSizedTileSourceCount(int count);
+
+    public abstract Builder setTotalBytes(long bytes);
+
+    public abstract Builder setDownloadedBytes(long bytes);
+
+    public abstract OfflineBaseMapSizeEstimate build();
+  }
+}
@@ -49,8 +49,11 @@ public abstract class TileSource {
 
   public abstract int getBasemapReferenceCount();
 
+  /** Returns the size of the downloaded tile source file in bytes, or 0 if not yet downloaded. */
+  public abstract long getSizeBytes();
+
   public static Builder newBuilder() {
-    return new AutoValue_TileSource.Builder();
+    return new AutoValue_TileSource.Builder().setSizeBytes(0);
   }
 
   public static String pathFromId(String tileSourceId) {
@@ -79,6 +82,8 @@ public abstract class TileSource {
 
     public abstract Builder setBasemapReferenceCount(int areaCount);
 
+    public abstract Builder setSizeBytes(long sizeBytes);
+
     public abstract TileSource build();
   }
 }
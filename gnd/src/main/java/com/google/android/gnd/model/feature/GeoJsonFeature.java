@@ -16,8 +16,16 @@
 
 package com.google.android.gnd.model.feature;
 
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.auto.value.AutoValue;
 import com.google.auto.value.extension.memoized.Memoized;
+import java.util.Iterator;
+import java8.util.Optional;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import timber.log.Timber;
 
 /** User-defined map feature consisting of a set of geometries defined in GeoJson format. */
 @AutoValue
@@ -29,6 +37,56 @@ public abstract class GeoJsonFeature extends Feature<GeoJsonFeature.Builder> {
 
   public abstract String getGeoJsonString();
 
+  /**
+   * Returns the smallest bounds containing all coordinates in this feature's geometry, or empty if
+   * the GeoJSON is invalid or contains no coordinates.
+   */
+  @Memoized
+  public Optional<LatLngBounds> getBounds() {
+    try {
+      LatLngBounds.Builder builder = LatLngBounds.builder();
+      if (includeCoordinates(new JSONObject(getGeoJsonString()), builder)) {
+        return Optional.of(builder.build());
+      }
+    } catch (JSONException e) {
+      Timber.e(e, "Invalid GeoJSON in feature %s", getId());
+    }
+    return Optional.empty();
+  }
+
+  /** Adds all positions nested in the object to the builder, returning true iff any were found. */
+  private static boolean includeCoordinates(JSONObject object, LatLngBounds.Builder builder) {
+    boolean found = false;
+    Iterator<String> keys = object.keys();
+    while (keys.hasNext()) {
+      Object value = object.opt(keys.next());
+      if (value instanceof JSONObject) {
+        found |= includeCoordinates((JSONObject) value, builder);
+      } else if (value instanceof JSONArray) {
+        found |= includeCoordinates((JSONArray) value, builder);
+      }
+    }
+    return found;
+  }
+
+  private static boolean includeCoordinates(JSONArray array, LatLngBounds.Builder builder) {
+    if (array.length() >= 2 && array.opt(0) instanceof Number && array.opt(1) instanceof Number) {
+      // GeoJSON positions are ordered longitude, latitude.
+      builder.include(new LatLng(array.optDouble(1), array.optDouble(0)));
+      return true;
+    }
+    boolean found = false;
+    for (int i = 0; i < array.length(); i++) {
+      Object value = array.opt(i);
+      if (value instanceof JSONObject) {
+        found |= includeCoordinates((JSONObject) value, builder);
+      } else if (value instanceof JSONArray) {
+        found |= includeCoordinates((JSONArray) value, builder);
+      }
+    }
+    return found;
+  }
+
   @Memoized
   @Override
   public abstract int hashCode();
@@ -71,7 +71,7 @@ public abstract class ObservationMutation extends Mutation<ObservationMutation.B
   // Boilerplate generated using Android Studio AutoValue plugin:
 
   public static Builder builder() {
-    return new AutoValue_ObservationMutation.Builder().setRetryCount(0);
+    return new AutoValue_ObservationMutation.Builder().setRetryCount(0).setNextAttemptTimestamp(0);
   }
 
   @AutoValue.Builder
@@ -16,6 +16,8 @@
 
 package com.google.android.gnd.persistence.local;
 
+import androidx.annotation.Nullable;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.Mutation;
 import com.google.android.gnd.model.Project;
 import com.google.android.gnd.model.User;
@@ -26,6 +28,8 @@ import com.google.android.gnd.model.feature.FeatureMutation;
 import com.google.android.gnd.model.observation.Observation;
 import com.google.android.gnd.model.observation.ObservationMutation;
 import com.google.android.gnd.persistence.local.room.LocalDataStoreException;
+import com.google.android.gnd.util.ChangeSet;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import io.reactivex.Completable;
@@ -90,6 +94,21 @@ public interface LocalDataStore {
    */
   Flowable<ImmutableSet<Feature>> getFeaturesOnceAndStream(Project project);
 
+  /**
+   * Returns a long-lived stream that emits a snapshot of the features in a project on subscribe,
+   * and subsequently only the features added, changed or removed each time the feature table
+   * changes. Only new or changed rows are converted into {@link Feature} instances.
+   */
+  Flowable<ChangeSet<Feature>> getFeatureChangesOnceAndStream(Project project);
+
+  /**
+   * Same as {@link #getFeatureChangesOnceAndStream(Project)}, but limited to features whose
+   * bounding boxes intersect the specified bounds. Only the rows needed for the specified bounds
+   * are read.
+   */
+  Flowable<ChangeSet<Feature>> getFeatureChangesInBoundsOnceAndStream(
+      Project project, LatLngBounds bounds);
+
   /**
    * Returns the list of observations which are not marked for deletion for the specified feature
    * and form.
@@ -114,9 +133,51 @@ public interface LocalDataStore {
    */
   Single<ImmutableList<Mutation>> getPendingMutations(String featureId);
 
+  /**
+   * Returns up to {@code limit} feature and observation mutations in the local mutation queue,
+   * across all features and projects, which follow the specified mutation in the order in which
+   * they were made on the client. If {@code after} is null, the page starts at the head of the
+   * queue. Passing the last mutation of each page as {@code after} pages through the whole queue.
+   */
+  Single<ImmutableList<Mutation>> getPendingMutationsPage(@Nullable Mutation after, int limit);
+
+  /**
+   * Returns the mutations in the local mutation queue which were quarantined after being repeatedly
+   * rejected by the remote data store. These are never returned by {@link
+   * #getPendingMutationsPage}.
+   */
+  Single<ImmutableList<Mutation>> getQuarantinedMutations();
+
+  /**
+   * Updates the provided mutations and moves them to the dead-letter queue in a single transaction,
+   * so that they're skipped by future syncs.
+   */
+  Completable quarantineMutations(ImmutableList<Mutation> mutations);
+
+  /**
+   * Moves the provided quarantined mutations back to the local mutation queue with their retry
+   * counts reset, so that they're sent again by the next sync.
+   */
+  Completable retryQuarantinedMutations(ImmutableList<Mutation> mutations);
+
+  /**
+   * Removes the provided quarantined mutations from the local mutation queue without applying
+   * them. Local features and observations are left as is until they're next refreshed from the
+   * remote data store.
+   */
+  Completable discardQuarantinedMutations(ImmutableList<Mutation> mutations);
+
   /** Updates the provided list of mutations. */
   Completable updateMutations(ImmutableList<Mutation> mutations);
 
+  /**
+   * Writes back the specified updated mutations and removes the specified mutations from the local
+   * queue in a single transaction. Features and observations whose removed mutations include a
+   * DELETE are removed from the local db, as when finalizing mutations.
+   */
+  Completable updateAndRemoveMutations(
+      ImmutableList<Mutation> updated, ImmutableList<Mutation> removed);
+
   /**
    * Removes pending mutations and if the mutation is of type DELETE, then removes the corresponding
    * observation or feature.
@@ -133,6 +194,13 @@ public interface LocalDataStore {
   /** Deletes feature from local database. */
   Completable deleteFeature(String featureId);
 
+  /**
+   * Merges the provided features into the local data store as per {@link #mergeFeature(Feature)},
+   * and deletes features with the specified ids, all in a single transaction.
+   */
+  Completable mergeAndDeleteFeatures(
+      ImmutableCollection<Feature> features, ImmutableCollection<String> deletedFeatureIds);
+
   /**
    * Merges the provided observation with pending unsynced local mutations, and inserts it into the
    * local data store. If a observation with the same id already exists, it will be overwritten with
@@ -149,12 +217,43 @@ public interface LocalDataStore {
    */
   Completable insertOrUpdateTileSource(TileSource tileSource);
 
+  /**
+   * Attempts to update the specified tiles in the local data store, inserting those which don't
+   * exist yet. All tiles are written in a single batch.
+   */
+  Completable insertOrUpdateTileSources(ImmutableCollection<TileSource> tileSources);
+
+  /**
+   * Updates the state of the tile sources with the specified URLs, leaving other fields unchanged.
+   * All tile sources are updated in a single transaction.
+   */
+  Completable updateTileSourceStates(ImmutableCollection<String> urls, TileSource.State state);
+
+  /**
+   * Updates the state and size of each of the specified tile sources, identified by URL, leaving
+   * other fields unchanged. Sizes of tile sources which aren't {@code DOWNLOADED} are left as is.
+   * All tile sources are updated in a single transaction.
+   */
+  Completable updateTileSourceStatesAndSizes(ImmutableCollection<TileSource> tileSources);
+
   /** Returns the tile with the specified URL from the local data store, if found. */
   Maybe<TileSource> getTileSource(String tileUrl);
 
-  /** Returns all pending tiles from the local data store. */
+  /** Returns the tiles with the specified URLs which exist in the local data store. */
+  Single<ImmutableList<TileSource>> getTileSources(ImmutableCollection<String> urls);
+
+  /**
+   * Returns all pending tiles from the local data store, including those left in progress by
+   * downloads which were interrupted.
+   */
   Single<ImmutableList<TileSource>> getPendingTileSources();
 
+  /**
+   * Returns a long-lived stream that emits the total size in bytes of downloaded tile sources with
+   * the specified URLs on subscribe, and again each time it changes.
+   */
+  Flowable<Long> getDownloadedTileSourcesSizeOnceAndStream(ImmutableCollection<String> urls);
+
   /**
    * Attempts to update an offline area in the local data store. If the area doesn't exist, inserts
    * the area into the local data store.
@@ -18,6 +18,7 @@ package com.google.android.gnd.persistence.local;
 
 import com.google.android.gnd.persistence.local.room.LocalDatabase;
 import com.google.android.gnd.persistence.local.room.RoomLocalDataStore;
+import com.google.android.gnd.persistence.local.room.dao.DeadLetterMutationDao;
 import com.google.android.gnd.persistence.local.room.dao.FeatureDao;
 import com.google.android.gnd.persistence.local.room.dao.FeatureMutationDao;
 import com.google.android.gnd.persistence.local.room.dao.FieldDao;
@@ -83,6 +84,11 @@ public abstract class LocalDataStoreModule {
     return localDatabase.projectDao();
   }
 
+  @Provides
+  static DeadLetterMutationDao deadLetterMutationDao(LocalDatabase localDatabase) {
+    return localDatabase.deadLetterMutationDao();
+  }
+
   @Provides
   static ObservationDao observationDao(LocalDatabase localDatabase) {
     return localDatabase.observationDao();
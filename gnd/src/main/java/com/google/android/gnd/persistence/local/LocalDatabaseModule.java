@@ -20,6 +20,7 @@ import android.content.Context;
 import androidx.room.Room;
 import com.google.android.gnd.Config;
 import com.google.android.gnd.persistence.local.room.LocalDatabase;
+import com.google.android.gnd.persistence.local.room.LocalDatabaseMigrations;
 import dagger.Module;
 import dagger.Provides;
 import dagger.hilt.InstallIn;
@@ -35,6 +36,11 @@ public abstract class LocalDatabaseModule {
   @Singleton
   static LocalDatabase localDatabase(@ApplicationContext Context context) {
     return Room.databaseBuilder(context, LocalDatabase.class, Config.DB_NAME)
+      .addMigrations(
+          LocalDatabaseMigrations.MIGRATION_84_85,
+          LocalDatabaseMigrations.MIGRATION_85_86,
+          LocalDatabaseMigrations.MIGRATION_86_87,
+          LocalDatabaseMigrations.MIGRATION_87_88)
       // TODO(#128): Disable before official release.
       .fallbackToDestructiveMigration()
       .build();
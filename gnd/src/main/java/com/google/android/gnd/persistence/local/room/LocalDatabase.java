@@ -23,6 +23,7 @@ import com.google.android.gnd.Config;
 import com.google.android.gnd.persistence.local.room.converter.JsonArrayTypeConverter;
 import com.google.android.gnd.persistence.local.room.converter.JsonObjectTypeConverter;
 import com.google.android.gnd.persistence.local.room.converter.StyleTypeConverter;
+import com.google.android.gnd.persistence.local.room.dao.DeadLetterMutationDao;
 import com.google.android.gnd.persistence.local.room.dao.FeatureDao;
 import com.google.android.gnd.persistence.local.room.dao.FeatureMutationDao;
 import com.google.android.gnd.persistence.local.room.dao.FieldDao;
@@ -37,6 +38,7 @@ import com.google.android.gnd.persistence.local.room.dao.OptionDao;
 import com.google.android.gnd.persistence.local.room.dao.ProjectDao;
 import com.google.android.gnd.persistence.local.room.dao.TileSourceDao;
 import com.google.android.gnd.persistence.local.room.dao.UserDao;
+import com.google.android.gnd.persistence.local.room.entity.DeadLetterMutationEntity;
 import com.google.android.gnd.persistence.local.room.entity.FeatureEntity;
 import com.google.android.gnd.persistence.local.room.entity.FeatureMutationEntity;
 import com.google.android.gnd.persistence.local.room.entity.FieldEntity;
@@ -68,6 +70,7 @@ import com.google.android.gnd.persistence.local.room.models.TileEntityState;
  */
 @Database(
     entities = {
+      DeadLetterMutationEntity.class,
       FeatureEntity.class,
       FeatureMutationEntity.class,
       FieldEntity.class,
@@ -99,6 +102,8 @@ import com.google.android.gnd.persistence.local.room.models.TileEntityState;
 })
 public abstract class LocalDatabase extends RoomDatabase {
 
+  public abstract DeadLetterMutationDao deadLetterMutationDao();
+
   public abstract FeatureDao featureDao();
 
   public abstract FeatureMutationDao featureMutationDao();
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.local.room;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * Schema migrations applied to the local db on upgrade. Upgrades from versions without a migration
+ * path still fall back to recreating the db.
+ */
+public final class LocalDatabaseMigrations {
+
+  /**
+   * Adds bounding box columns and a composite index to the feature table. Point features are
+   * backfilled from their location. GeoJSON geometries can't be parsed in SQL, so those features
+   * get a world-wide bounding box until the next remote sync replaces it with the exact one.
+   */
+  public static final Migration MIGRATION_84_85 =
+      new Migration(84, 85) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+          db.execSQL("ALTER TABLE feature ADD COLUMN min_lat REAL");
+          db.execSQL("ALTER TABLE feature ADD COLUMN max_lat REAL");
+          db.execSQL("ALTER TABLE feature ADD COLUMN min_lng REAL");
+          db.execSQL("ALTER TABLE feature ADD COLUMN max_lng REAL");
+          db.execSQL(
+              "UPDATE feature SET min_lat = lat, max_lat = lat, min_lng = lng, max_lng = lng"
+                  + " WHERE geo_json IS NULL AND lat IS NOT NULL AND lng IS NOT NULL");
+          db.execSQL(
+              "UPDATE feature SET min_lat = -90, max_lat = 90, min_lng = -180, max_lng = 180"
+                  + " WHERE geo_json IS NOT NULL");
+          db.execSQL("DROP INDEX IF EXISTS index_feature_project_id");
+          db.execSQL(
+              "CREATE INDEX IF NOT EXISTS index_feature_project_id_state_min_lat_max_lat_min_lng"
+                  + "_max_lng ON feature (project_id, state, min_lat, max_lat, min_lng, max_lng)");
+        }
+      };
+
+  /**
+   * Adds the size of downloaded files to the tile source table. Sizes of files downloaded before
+   * the migration are filled in the next time the download worker checks them.
+   */
+  public static final Migration MIGRATION_85_86 =
+      new Migration(85, 86) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+          db.execSQL("ALTER TABLE tile_sources ADD COLUMN size_bytes INTEGER NOT NULL DEFAULT 0");
+        }
+      };
+
+  /**
+   * Indexes the mutation tables by client timestamp and id, the order in which pending mutations
+   * are paged through when syncing.
+   */
+  public static final Migration MIGRATION_86_87 =
+      new Migration(86, 87) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+          db.execSQL(
+              "CREATE INDEX IF NOT EXISTS index_feature_mutation_client_timestamp_id"
+                  + " ON feature_mutation (client_timestamp, id)");
+          db.execSQL(
+              "CREATE INDEX IF NOT EXISTS index_observation_mutation_client_timestamp_id"
+                  + " ON observation_mutation (client_timestamp, id)");
+        }
+      };
+
+  /**
+   * Adds the time after which failed mutations may be retried, and a table of quarantined mutations
+   * skipped by data sync.
+   */
+  public static final Migration MIGRATION_87_88 =
+      new Migration(87, 88) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+          db.execSQL(
+              "ALTER TABLE feature_mutation"
+                  + " ADD COLUMN next_attempt_timestamp INTEGER NOT NULL DEFAULT 0");
+          db.execSQL(
+              "ALTER TABLE observation_mutation"
+                  + " ADD COLUMN next_attempt_timestamp INTEGER NOT NULL DEFAULT 0");
+          db.execSQL(
+              "CREATE TABLE IF NOT EXISTS dead_letter_mutation ("
+                  + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                  + "feature_mutation_id INTEGER, "
+                  + "observation_mutation_id INTEGER, "
+                  + "timestamp INTEGER NOT NULL, "
+                  + "FOREIGN KEY(feature_mutation_id) REFERENCES feature_mutation(id)"
+                  + " ON UPDATE NO ACTION ON DELETE CASCADE, "
+                  + "FOREIGN KEY(observation_mutation_id) REFERENCES observation_mutation(id)"
+                  + " ON UPDATE NO ACTION ON DELETE CASCADE)");
+          db.execSQL(
+              "CREATE UNIQUE INDEX IF NOT EXISTS index_dead_letter_mutation_feature_mutation_id"
+                  + " ON dead_letter_mutation (feature_mutation_id)");
+          db.execSQL(
+              "CREATE UNIQUE INDEX IF NOT EXISTS index_dead_letter_mutation_observation_mutation_id"
+                  + " ON dead_letter_mutation (observation_mutation_id)");
+        }
+      };
+
+  private LocalDatabaseMigrations() {}
+}
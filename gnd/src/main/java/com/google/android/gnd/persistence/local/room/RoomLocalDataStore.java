@@ -24,6 +24,7 @@ import static java8.util.stream.StreamSupport.stream;
 
 import androidx.annotation.Nullable;
 import androidx.room.Transaction;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.AuditInfo;
 import com.google.android.gnd.model.Mutation;
 import com.google.android.gnd.model.Mutation.Type;
@@ -43,9 +44,11 @@ import com.google.android.gnd.model.observation.Observation;
 import com.google.android.gnd.model.observation.ObservationMutation;
 import com.google.android.gnd.model.observation.ResponseMap;
 import com.google.android.gnd.model.observation.ResponseMap.Builder;
+import com.google.android.gnd.persistence.local.LocalDataConsistencyException;
 import com.google.android.gnd.persistence.local.LocalDataStore;
 import com.google.android.gnd.persistence.local.room.converter.ResponseDeltasConverter;
 import com.google.android.gnd.persistence.local.room.converter.ResponseMapConverter;
+import com.google.android.gnd.persistence.local.room.dao.DeadLetterMutationDao;
 import com.google.android.gnd.persistence.local.room.dao.FeatureDao;
 import com.google.android.gnd.persistence.local.room.dao.FeatureMutationDao;
 import com.google.android.gnd.persistence.local.room.dao.FieldDao;
@@ -61,12 +64,14 @@ import com.google.android.gnd.persistence.local.room.dao.ProjectDao;
 import com.google.android.gnd.persistence.local.room.dao.TileSourceDao;
 import com.google.android.gnd.persistence.local.room.dao.UserDao;
 import com.google.android.gnd.persistence.local.room.entity.AuditInfoEntity;
+import com.google.android.gnd.persistence.local.room.entity.DeadLetterMutationEntity;
 import com.google.android.gnd.persistence.local.room.entity.FeatureEntity;
 import com.google.android.gnd.persistence.local.room.entity.FeatureMutationEntity;
 import com.google.android.gnd.persistence.local.room.entity.FieldEntity;
 import com.google.android.gnd.persistence.local.room.entity.FormEntity;
 import com.google.android.gnd.persistence.local.room.entity.LayerEntity;
 import com.google.android.gnd.persistence.local.room.entity.MultipleChoiceEntity;
+import com.google.android.gnd.persistence.local.room.entity.MutationEntity;
 import com.google.android.gnd.persistence.local.room.entity.ObservationEntity;
 import com.google.android.gnd.persistence.local.room.entity.ObservationMutationEntity;
 import com.google.android.gnd.persistence.local.room.entity.OfflineBaseMapEntity;
@@ -80,8 +85,12 @@ import com.google.android.gnd.persistence.local.room.models.TileEntityState;
 import com.google.android.gnd.persistence.local.room.models.UserDetails;
 import com.google.android.gnd.rx.Schedulers;
 import com.google.android.gnd.ui.util.FileUtil;
+import com.google.android.gnd.util.ChangeSet;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.reactivex.Maybe;
@@ -91,6 +100,7 @@ import io.reactivex.SingleSource;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import timber.log.Timber;
@@ -104,12 +114,16 @@ import timber.log.Timber;
 @Singleton
 public class RoomLocalDataStore implements LocalDataStore {
 
+  /** Maximum number of parameters bound to a single query, below SQLite's limit of 999. */
+  private static final int MAX_QUERY_PARAMETERS = 500;
+
   @Inject OptionDao optionDao;
   @Inject MultipleChoiceDao multipleChoiceDao;
   @Inject FieldDao fieldDao;
   @Inject FormDao formDao;
   @Inject LayerDao layerDao;
   @Inject ProjectDao projectDao;
+  @Inject DeadLetterMutationDao deadLetterMutationDao;
   @Inject FeatureDao featureDao;
   @Inject FeatureMutationDao featureMutationDao;
   @Inject ObservationDao observationDao;
@@ -118,97 +132,72 @@ public class RoomLocalDataStore implements LocalDataStore {
   @Inject UserDao userDao;
   @Inject OfflineBaseMapDao offlineBaseMapDao;
   @Inject OfflineBaseMapSourceDao offlineBaseMapSourceDao;
+  @Inject LocalDatabase localDatabase;
   @Inject Schedulers schedulers;
   @Inject FileUtil fileUtil;
 
   @Inject
   RoomLocalDataStore() {}
 
-  private Completable insertOrUpdateOption(String fieldId, Option option) {
-    return optionDao
-        .insertOrUpdate(OptionEntity.fromOption(fieldId, option))
-        .subscribeOn(schedulers.io());
-  }
-
-  private Completable insertOrUpdateOptions(String fieldId, ImmutableList<Option> options) {
-    return Observable.fromIterable(options)
-        .flatMapCompletable(option -> insertOrUpdateOption(fieldId, option))
-        .subscribeOn(schedulers.io());
-  }
-
-  private Completable insertOrUpdateMultipleChoice(String fieldId, MultipleChoice multipleChoice) {
-    return multipleChoiceDao
-        .insertOrUpdate(MultipleChoiceEntity.fromMultipleChoice(fieldId, multipleChoice))
-        .andThen(insertOrUpdateOptions(fieldId, multipleChoice.getOptions()))
-        .subscribeOn(schedulers.io());
-  }
-
-  private Completable insertOrUpdateField(String formId, Element.Type elementType, Field field) {
-    return fieldDao
-        .insertOrUpdate(FieldEntity.fromField(formId, elementType, field))
-        .andThen(
-            Observable.just(field)
-                .filter(__ -> field.getMultipleChoice() != null)
-                .flatMapCompletable(
-                    __ ->
-                        insertOrUpdateMultipleChoice(
-                            field.getId(), checkNotNull(field.getMultipleChoice()))))
-        .subscribeOn(schedulers.io());
-  }
-
-  private Completable insertOrUpdateElements(String formId, ImmutableList<Element> elements) {
-    return Observable.fromIterable(elements)
-        .filter(element -> element.getType() == Element.Type.FIELD)
-        .flatMapCompletable(
-            element -> insertOrUpdateField(formId, element.getType(), element.getField()));
-  }
-
-  private Completable insertOrUpdateForm(String layerId, Form form) {
-    return formDao
-        .insertOrUpdate(FormEntity.fromForm(layerId, form))
-        .andThen(insertOrUpdateElements(form.getId(), form.getElements()))
-        .subscribeOn(schedulers.io());
-  }
-
-  private Completable insertOrUpdateForms(String layerId, List<Form> forms) {
-    return Observable.fromIterable(forms)
-        .flatMapCompletable(form -> insertOrUpdateForm(layerId, form));
-  }
-
-  private Completable insertOrUpdateLayer(String projectId, Layer layer) {
-    return layerDao
-        .insertOrUpdate(LayerEntity.fromLayer(projectId, layer))
-        .andThen(
-            insertOrUpdateForms(
-                layer.getId(), layer.getForm().map(Arrays::asList).orElseGet(ArrayList::new)))
-        .subscribeOn(schedulers.io());
-  }
-
-  private Completable insertOrUpdateLayers(String projectId, List<Layer> layers) {
-    return Observable.fromIterable(layers)
-        .flatMapCompletable(layer -> insertOrUpdateLayer(projectId, layer));
-  }
-
-  private Completable insertOfflineBaseMapSources(Project project) {
-    return Observable.fromIterable(project.getOfflineBaseMapSources())
-        .flatMapCompletable(
-            source ->
-                offlineBaseMapSourceDao.insert(
-                    OfflineBaseMapSourceEntity.fromModel(project.getId(), source)));
-  }
-
-  @Transaction
   @Override
   public Completable insertOrUpdateProject(Project project) {
-    return projectDao
-        .insertOrUpdate(ProjectEntity.fromProject(project))
-        .andThen(layerDao.deleteByProjectId(project.getId()))
-        .andThen(insertOrUpdateLayers(project.getId(), project.getLayers()))
-        .andThen(offlineBaseMapSourceDao.deleteByProjectId(project.getId()))
-        .andThen(insertOfflineBaseMapSources(project))
+    return Completable.fromAction(
+            () -> localDatabase.runInTransaction(() -> insertOrUpdateProjectBlocking(project)))
         .subscribeOn(schedulers.io());
   }
 
+  /**
+   * Converts the project and its layers, forms, fields, multiple choices, options and offline base
+   * map sources into entities, writing each type of entity in a single batch. Must be called inside
+   * a transaction.
+   */
+  private void insertOrUpdateProjectBlocking(Project project) {
+    String projectId = project.getId();
+    List<LayerEntity> layers = new ArrayList<>();
+    List<FormEntity> forms = new ArrayList<>();
+    List<FieldEntity> fields = new ArrayList<>();
+    List<MultipleChoiceEntity> multipleChoices = new ArrayList<>();
+    List<OptionEntity> options = new ArrayList<>();
+    for (Layer layer : project.getLayers()) {
+      layers.add(LayerEntity.fromLayer(projectId, layer));
+      if (!layer.getForm().isPresent()) {
+        continue;
+      }
+      Form form = layer.getForm().get();
+      forms.add(FormEntity.fromForm(layer.getId(), form));
+      for (Element element : form.getElements()) {
+        if (element.getType() != Element.Type.FIELD) {
+          continue;
+        }
+        Field field = element.getField();
+        fields.add(FieldEntity.fromField(form.getId(), element.getType(), field));
+        MultipleChoice multipleChoice = field.getMultipleChoice();
+        if (multipleChoice == null) {
+          continue;
+        }
+        multipleChoices.add(MultipleChoiceEntity.fromMultipleChoice(field.getId(), multipleChoice));
+        for (Option option : multipleChoice.getOptions()) {
+          options.add(OptionEntity.fromOption(field.getId(), option));
+        }
+      }
+    }
+    List<OfflineBaseMapSourceEntity> offlineBaseMapSources =
+        stream(project.getOfflineBaseMapSources())
+            .map(source -> OfflineBaseMapSourceEntity.fromModel(projectId, source))
+            .collect(toImmutableList());
+    projectDao.upsertAllBlocking(ImmutableList.of(ProjectEntity.fromProject(project)));
+    // Deleting layers cascades to their forms, fields, multiple choices and options, so none of
+    // the rows below exist yet and can be inserted without first attempting updates.
+    layerDao.deleteByProjectId(projectId);
+    layerDao.insertAll(layers);
+    formDao.insertAll(forms);
+    fieldDao.insertAll(fields);
+    multipleChoiceDao.insertAll(multipleChoices);
+    optionDao.insertAll(options);
+    offlineBaseMapSourceDao.deleteByProjectId(projectId);
+    offlineBaseMapSourceDao.insertAll(offlineBaseMapSources);
+  }
+
   @Override
   public Completable insertOrUpdateUser(User user) {
     return userDao.insertOrUpdate(UserEntity.fromUser(user)).subscribeOn(schedulers.io());
@@ -261,6 +250,73 @@ public class RoomLocalDataStore implements LocalDataStore {
         .subscribeOn(schedulers.io());
   }
 
+  @Override
+  public Flowable<ChangeSet<Feature>> getFeatureChangesOnceAndStream(Project project) {
+    return featureDao
+        .findOnceAndStream(project.getId(), EntityState.DEFAULT)
+        .compose(ChangeSet.diffs(FeatureEntity::getId))
+        .map(changes -> toFeatureChanges(project, changes))
+        .subscribeOn(schedulers.io());
+  }
+
+  @Override
+  public Flowable<ChangeSet<Feature>> getFeatureChangesInBoundsOnceAndStream(
+      Project project, LatLngBounds bounds) {
+    return findFeaturesInBoundsOnceAndStream(project, bounds)
+        .compose(ChangeSet.diffs(FeatureEntity::getId))
+        .map(changes -> toFeatureChanges(project, changes))
+        .subscribeOn(schedulers.io());
+  }
+
+  private Flowable<List<FeatureEntity>> findFeaturesInBoundsOnceAndStream(
+      Project project, LatLngBounds bounds) {
+    double west = bounds.southwest.longitude;
+    double east = bounds.northeast.longitude;
+    if (west > east) {
+      // Bounds cross the antimeridian; fall back to querying all longitudes.
+      west = -180;
+      east = 180;
+    }
+    return featureDao.findInBoundsOnceAndStream(
+        project.getId(),
+        EntityState.DEFAULT,
+        bounds.southwest.latitude,
+        west,
+        bounds.northeast.latitude,
+        east);
+  }
+
+  /**
+   * Converts the added and modified entities in the specified change set into features. Modified
+   * entities which can no longer be converted are reported as removed.
+   */
+  private ChangeSet<Feature> toFeatureChanges(Project project, ChangeSet<FeatureEntity> changes) {
+    ImmutableSet.Builder<String> removed = ImmutableSet.builder();
+    removed.addAll(changes.getRemoved());
+    ImmutableMap<String, Feature> added = toFeatureMap(project, changes.getAdded(), removed);
+    ImmutableMap<String, Feature> modified = toFeatureMap(project, changes.getModified(), removed);
+    if (changes.isSnapshot()) {
+      return ChangeSet.snapshot(added);
+    }
+    return ChangeSet.create(added, modified, removed.build());
+  }
+
+  private ImmutableMap<String, Feature> toFeatureMap(
+      Project project,
+      ImmutableMap<String, FeatureEntity> entities,
+      ImmutableSet.Builder<String> invalidIds) {
+    ImmutableMap.Builder<String, Feature> features = ImmutableMap.builder();
+    for (Map.Entry<String, FeatureEntity> entry : entities.entrySet()) {
+      try {
+        features.put(entry.getKey(), FeatureEntity.toFeature(entry.getValue(), project));
+      } catch (RuntimeException e) {
+        Timber.e(e);
+        invalidIds.add(entry.getKey());
+      }
+    }
+    return features.build();
+  }
+
   private ImmutableSet<Feature> toFeatures(Project project, List<FeatureEntity> featureEntities) {
     return stream(featureEntities)
         .flatMap(f -> logErrorsAndSkip(() -> FeatureEntity.toFeature(f, project)))
@@ -312,16 +368,172 @@ public class RoomLocalDataStore implements LocalDataStore {
 
   @Override
   public Single<ImmutableList<Mutation>> getPendingMutations(String featureId) {
-    return featureMutationDao
-        .findByFeatureId(featureId)
+    return toMutations(
+            featureMutationDao.findByFeatureId(featureId),
+            observationMutationDao.findByFeatureId(featureId))
+        .toList()
+        .map(ImmutableList::copyOf)
+        .subscribeOn(schedulers.io());
+  }
+
+  @Override
+  public Single<ImmutableList<Mutation>> getPendingMutationsPage(
+      @Nullable Mutation after, int limit) {
+    // Mutations with the same timestamp are ordered by type, with feature mutations first, and
+    // then by id, since ids of feature and observation mutations aren't comparable.
+    long afterTimestamp = after == null ? Long.MIN_VALUE : after.getClientTimestamp().getTime();
+    long afterFeatureMutationId = Long.MIN_VALUE;
+    long afterObservationMutationId = Long.MIN_VALUE;
+    if (after instanceof FeatureMutation) {
+      afterFeatureMutationId = after.getId();
+    } else if (after instanceof ObservationMutation) {
+      afterFeatureMutationId = Long.MAX_VALUE;
+      afterObservationMutationId = after.getId();
+    }
+    return Single.zip(
+            featureMutationDao.findPage(afterTimestamp, afterFeatureMutationId, limit),
+            observationMutationDao.findPage(afterTimestamp, afterObservationMutationId, limit),
+            (fms, oms) -> mergePages(fms, oms, limit))
+        .flatMap(this::toPendingMutations)
+        .subscribeOn(schedulers.io());
+  }
+
+  @Override
+  public Single<ImmutableList<Mutation>> getQuarantinedMutations() {
+    return Single.zip(
+            featureMutationDao.findQuarantined(),
+            observationMutationDao.findQuarantined(),
+            (fms, oms) -> mergePages(fms, oms, Integer.MAX_VALUE))
+        .flatMap(this::toPendingMutations)
+        .subscribeOn(schedulers.io());
+  }
+
+  @Override
+  public Completable quarantineMutations(ImmutableList<Mutation> mutations) {
+    return Completable.fromAction(
+            () -> localDatabase.runInTransaction(() -> quarantineMutationsBlocking(mutations)))
+        .subscribeOn(schedulers.io());
+  }
+
+  /** Must be called inside a transaction. */
+  private void quarantineMutationsBlocking(ImmutableList<Mutation> mutations) {
+    updateMutationsBlocking(mutations);
+    long timestamp = System.currentTimeMillis();
+    deadLetterMutationDao.insertOrReplaceAll(
+        stream(mutations)
+            .map(mutation -> DeadLetterMutationEntity.fromMutation(mutation, timestamp))
+            .collect(toImmutableList()));
+  }
+
+  @Override
+  public Completable retryQuarantinedMutations(ImmutableList<Mutation> mutations) {
+    return Completable.fromAction(
+            () ->
+                localDatabase.runInTransaction(() -> retryQuarantinedMutationsBlocking(mutations)))
+        .subscribeOn(schedulers.io());
+  }
+
+  /** Must be called inside a transaction. */
+  private void retryQuarantinedMutationsBlocking(ImmutableList<Mutation> mutations) {
+    ImmutableList.Builder<Mutation> reset = ImmutableList.builder();
+    for (Mutation mutation : mutations) {
+      reset.add(mutation.toBuilder().setRetryCount(0).setNextAttemptTimestamp(0).build());
+    }
+    updateMutationsBlocking(reset.build());
+    for (List<Long> ids : Lists.partition(FeatureMutation.ids(mutations), MAX_QUERY_PARAMETERS)) {
+      deadLetterMutationDao.deleteByFeatureMutationIds(ids);
+    }
+    for (List<Long> ids :
+        Lists.partition(ObservationMutation.ids(mutations), MAX_QUERY_PARAMETERS)) {
+      deadLetterMutationDao.deleteByObservationMutationIds(ids);
+    }
+  }
+
+  @Override
+  public Completable discardQuarantinedMutations(ImmutableList<Mutation> mutations) {
+    // Dead-letter rows are deleted along with the mutations they refer to.
+    return removePending(mutations);
+  }
+
+  /** Must be called inside a transaction. */
+  private void updateMutationsBlocking(ImmutableList<Mutation> mutations) {
+    featureMutationDao.updateAllBlocking(toFeatureMutationEntities(mutations));
+    observationMutationDao.updateAllBlocking(toObservationMutationEntities(mutations));
+  }
+
+  /** Merges two pages of mutations sorted by client timestamp, keeping the first {@code limit}. */
+  private static List<MutationEntity> mergePages(
+      List<FeatureMutationEntity> featureMutations,
+      List<ObservationMutationEntity> observationMutations,
+      int limit) {
+    List<MutationEntity> page = new ArrayList<>();
+    int i = 0;
+    int j = 0;
+    while (page.size() < limit) {
+      boolean hasFeatureMutation = i < featureMutations.size();
+      boolean hasObservationMutation = j < observationMutations.size();
+      if (!hasFeatureMutation && !hasObservationMutation) {
+        break;
+      }
+      if (!hasObservationMutation
+          || (hasFeatureMutation
+              && featureMutations.get(i).getClientTimestamp()
+                  <= observationMutations.get(j).getClientTimestamp())) {
+        page.add(featureMutations.get(i++));
+      } else {
+        page.add(observationMutations.get(j++));
+      }
+    }
+    return page;
+  }
+
+  /**
+   * Converts mutation entities to mutations, loading each project referred to by observation
+   * mutations only once. Observation mutations whose project or layer no longer exist are skipped.
+   */
+  private Single<ImmutableList<Mutation>> toPendingMutations(List<MutationEntity> entities) {
+    return Observable.fromIterable(entities)
+        .ofType(ObservationMutationEntity.class)
+        .map(ObservationMutationEntity::getProjectId)
+        .distinct()
+        .concatMapMaybe(this::getProjectById)
+        .toMap(Project::getId)
+        .map(projectsById -> toPendingMutations(entities, projectsById));
+  }
+
+  private static ImmutableList<Mutation> toPendingMutations(
+      List<MutationEntity> entities, Map<String, Project> projectsById) {
+    ImmutableList.Builder<Mutation> mutations = ImmutableList.builder();
+    for (MutationEntity entity : entities) {
+      if (entity instanceof FeatureMutationEntity) {
+        mutations.add(((FeatureMutationEntity) entity).toMutation());
+        continue;
+      }
+      Project project = projectsById.get(entity.getProjectId());
+      if (project == null) {
+        Timber.e("Observation mutation skipped, project %s not found", entity.getProjectId());
+        continue;
+      }
+      try {
+        mutations.add(((ObservationMutationEntity) entity).toMutation(project));
+      } catch (LocalDataConsistencyException e) {
+        Timber.e(e, "Observation mutation skipped");
+      }
+    }
+    return mutations.build();
+  }
+
+  private Observable<Mutation> toMutations(
+      Single<List<FeatureMutationEntity>> featureMutationEntities,
+      Single<List<ObservationMutationEntity>> observationMutationEntities) {
+    return featureMutationEntities
         .flattenAsObservable(fms -> fms)
         .map(FeatureMutationEntity::toMutation)
         .cast(Mutation.class)
         .mergeWith(
-            observationMutationDao
-                .findByFeatureId(featureId)
+            observationMutationEntities
                 .flattenAsObservable(oms -> oms)
-                .flatMap(
+                .concatMap(
                     ome ->
                         getProjectById(ome.getProjectId())
                             .toSingle()
@@ -329,10 +541,7 @@ public class RoomLocalDataStore implements LocalDataStore {
                             .toObservable()
                             .doOnError(e -> Timber.e(e, "Observation mutation skipped"))
                             .onErrorResumeNext(Observable.empty()))
-                .cast(Mutation.class))
-        .toList()
-        .map(ImmutableList::copyOf)
-        .subscribeOn(schedulers.io());
+                .cast(Mutation.class));
   }
 
   @Transaction
@@ -347,6 +556,42 @@ public class RoomLocalDataStore implements LocalDataStore {
         .subscribeOn(schedulers.io());
   }
 
+  @Override
+  public Completable updateAndRemoveMutations(
+      ImmutableList<Mutation> updated, ImmutableList<Mutation> removed) {
+    return Completable.fromAction(
+            () ->
+                localDatabase.runInTransaction(
+                    () -> updateAndRemoveMutationsBlocking(updated, removed)))
+        .subscribeOn(schedulers.io());
+  }
+
+  /** Must be called inside a transaction. */
+  private void updateAndRemoveMutationsBlocking(
+      ImmutableList<Mutation> updated, ImmutableList<Mutation> removed) {
+    updateMutationsBlocking(updated);
+    removeMutationsBlocking(removed);
+    List<String> deletedFeatureIds = new ArrayList<>();
+    List<String> deletedObservationIds = new ArrayList<>();
+    for (Mutation mutation : removed) {
+      if (mutation.getType() != Type.DELETE) {
+        continue;
+      }
+      if (mutation instanceof ObservationMutation) {
+        deletedObservationIds.add(((ObservationMutation) mutation).getObservationId());
+      } else {
+        deletedFeatureIds.add(mutation.getFeatureId());
+      }
+    }
+    for (List<String> ids : Lists.partition(deletedObservationIds, MAX_QUERY_PARAMETERS)) {
+      observationDao.deleteAllById(ids);
+    }
+    // Deleting features also cascades to their observations and pending mutations.
+    for (List<String> ids : Lists.partition(deletedFeatureIds, MAX_QUERY_PARAMETERS)) {
+      featureDao.deleteAllById(ids);
+    }
+  }
+
   private ImmutableList<ObservationMutationEntity> toObservationMutationEntities(
       ImmutableList<Mutation> mutations) {
     return stream(ObservationMutation.filter(mutations))
@@ -383,15 +628,23 @@ public class RoomLocalDataStore implements LocalDataStore {
   }
 
   private Completable removePending(ImmutableList<Mutation> mutations) {
-    return featureMutationDao
-        .deleteAll(FeatureMutation.ids(mutations))
-        .andThen(
-            observationMutationDao
-                .deleteAll(ObservationMutation.ids(mutations))
-                .subscribeOn(schedulers.io()))
+    return Completable.fromAction(
+            () -> localDatabase.runInTransaction(() -> removeMutationsBlocking(mutations)))
         .subscribeOn(schedulers.io());
   }
 
+  /** Must be called inside a transaction. */
+  private void removeMutationsBlocking(ImmutableList<Mutation> mutations) {
+    // Delete in chunks to stay within SQLite's limit on the number of query parameters.
+    for (List<Long> ids : Lists.partition(FeatureMutation.ids(mutations), MAX_QUERY_PARAMETERS)) {
+      featureMutationDao.deleteAll(ids);
+    }
+    for (List<Long> ids :
+        Lists.partition(ObservationMutation.ids(mutations), MAX_QUERY_PARAMETERS)) {
+      observationMutationDao.deleteAll(ids);
+    }
+  }
+
   @Transaction
   @Override
   public Completable mergeFeature(Feature feature) {
@@ -497,6 +750,24 @@ public class RoomLocalDataStore implements LocalDataStore {
         .subscribeOn(schedulers.io());
   }
 
+  @Override
+  public Completable mergeAndDeleteFeatures(
+      ImmutableCollection<Feature> features, ImmutableCollection<String> deletedFeatureIds) {
+    // TODO(#706): Apply pending local mutations before saving.
+    return Completable.fromAction(
+            () ->
+                featureDao.upsertAllAndDeleteById(
+                    stream(features).map(FeatureEntity::fromFeature).collect(toImmutableList()),
+                    deletedFeatureIds))
+        .doOnSubscribe(
+            __ ->
+                Timber.d(
+                    "Merging %d and deleting %d local features",
+                    features.size(),
+                    deletedFeatureIds.size()))
+        .subscribeOn(schedulers.io());
+  }
+
   private Completable enqueue(FeatureMutation mutation) {
     return featureMutationDao
         .insert(FeatureMutationEntity.fromMutation(mutation))
@@ -598,6 +869,55 @@ public class RoomLocalDataStore implements LocalDataStore {
         .subscribeOn(schedulers.io());
   }
 
+  @Override
+  public Completable insertOrUpdateTileSources(ImmutableCollection<TileSource> tileSources) {
+    // Room inserts all entities in a single transaction.
+    return Completable.fromAction(
+            () ->
+                tileSourceDao.insertOrReplaceAll(
+                    stream(tileSources).map(TileSourceEntity::fromTile).collect(toImmutableList())))
+        .subscribeOn(schedulers.io());
+  }
+
+  @Override
+  public Completable updateTileSourceStates(
+      ImmutableCollection<String> urls, TileSource.State state) {
+    return Completable.fromAction(
+            () -> localDatabase.runInTransaction(() -> updateTileSourceStatesBlocking(urls, state)))
+        .subscribeOn(schedulers.io());
+  }
+
+  /** Must be called inside a transaction. */
+  private void updateTileSourceStatesBlocking(
+      ImmutableCollection<String> urls, TileSource.State state) {
+    int entityState = TileSourceEntity.toEntityState(state).intValue();
+    // Update in chunks to stay within SQLite's limit on the number of query parameters.
+    for (List<String> chunk : Lists.partition(urls.asList(), MAX_QUERY_PARAMETERS)) {
+      tileSourceDao.updateStates(chunk, entityState);
+    }
+  }
+
+  @Override
+  public Completable updateTileSourceStatesAndSizes(ImmutableCollection<TileSource> tileSources) {
+    return Completable.fromAction(
+            () ->
+                localDatabase.runInTransaction(
+                    () -> updateTileSourceStatesAndSizesBlocking(tileSources)))
+        .subscribeOn(schedulers.io());
+  }
+
+  /** Must be called inside a transaction. */
+  private void updateTileSourceStatesAndSizesBlocking(ImmutableCollection<TileSource> tileSources) {
+    for (TileSource tileSource : tileSources) {
+      int state = TileSourceEntity.toEntityState(tileSource.getState()).intValue();
+      if (tileSource.getState() == TileSource.State.DOWNLOADED) {
+        tileSourceDao.updateStateAndSize(tileSource.getUrl(), state, tileSource.getSizeBytes());
+      } else {
+        tileSourceDao.updateState(tileSource.getUrl(), state);
+      }
+    }
+  }
+
   @Override
   public Maybe<TileSource> getTileSource(String tileUrl) {
     return tileSourceDao
@@ -606,14 +926,59 @@ public class RoomLocalDataStore implements LocalDataStore {
         .subscribeOn(schedulers.io());
   }
 
+  @Override
+  public Single<ImmutableList<TileSource>> getTileSources(ImmutableCollection<String> urls) {
+    return Single.fromCallable(() -> localDatabase.runInTransaction(() -> findTileSources(urls)))
+        .subscribeOn(schedulers.io());
+  }
+
+  /** Must be called inside a transaction. */
+  private ImmutableList<TileSource> findTileSources(ImmutableCollection<String> urls) {
+    ImmutableList.Builder<TileSource> tileSources = ImmutableList.builder();
+    // Query in chunks to stay within SQLite's limit on the number of query parameters.
+    for (List<String> chunk : Lists.partition(urls.asList(), MAX_QUERY_PARAMETERS)) {
+      for (TileSourceEntity entity : tileSourceDao.findByUrls(chunk)) {
+        tileSources.add(TileSourceEntity.toTileSource(entity));
+      }
+    }
+    return tileSources.build();
+  }
+
   @Override
   public Single<ImmutableList<TileSource>> getPendingTileSources() {
     return tileSourceDao
-        .findByState(TileEntityState.PENDING.intValue())
+        .findByStates(
+            Arrays.asList(
+                TileEntityState.PENDING.intValue(), TileEntityState.IN_PROGRESS.intValue()))
         .map(ts -> stream(ts).map(TileSourceEntity::toTileSource).collect(toImmutableList()))
         .subscribeOn(schedulers.io());
   }
 
+  @Override
+  public Flowable<Long> getDownloadedTileSourcesSizeOnceAndStream(
+      ImmutableCollection<String> urls) {
+    if (urls.isEmpty()) {
+      return Flowable.just(0L);
+    }
+    // Sum in chunks to stay within SQLite's limit on the number of query parameters.
+    List<Flowable<Long>> chunkSizes = new ArrayList<>();
+    for (List<String> chunk : Lists.partition(urls.asList(), MAX_QUERY_PARAMETERS)) {
+      chunkSizes.add(
+          tileSourceDao.getTotalSizeOnceAndStream(TileEntityState.DOWNLOADED.intValue(), chunk));
+    }
+    return Flowable.combineLatest(
+            chunkSizes,
+            sizes -> {
+              long total = 0;
+              for (Object size : sizes) {
+                total += (Long) size;
+              }
+              return total;
+            })
+        .distinctUntilChanged()
+        .subscribeOn(schedulers.io());
+  }
+
   @Override
   public Completable insertOrUpdateOfflineArea(OfflineBaseMap area) {
     return offlineBaseMapDao
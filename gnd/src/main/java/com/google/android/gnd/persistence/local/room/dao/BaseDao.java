@@ -18,9 +18,12 @@ package com.google.android.gnd.persistence.local.room.dao;
 
 import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Update;
 import io.reactivex.Completable;
 import io.reactivex.Single;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -42,6 +45,42 @@ public interface BaseDao<E> {
   @Delete
   Completable delete(E entity);
 
+  /** Inserts the specified entities, failing if any constraint is violated. */
+  @Insert
+  void insertAll(List<E> entities);
+
+  /**
+   * Inserts the specified entities, replacing existing rows with the same primary key or unique
+   * index values in a single statement per row. Replaced rows are deleted first, which cascades to
+   * rows referencing them, so this must only be used for tables no other table references.
+   */
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  void insertOrReplaceAll(List<E> entities);
+
+  /** Updates the specified entities which exist, returning the number of rows updated. */
+  @Update
+  int updateAllBlocking(List<E> entities);
+
+  /**
+   * Updates the specified entities, and creates those which don't yet exist. Existing rows are
+   * updated in place rather than replaced, so deletes aren't cascaded to rows referencing them;
+   * tables no other table references should use {@link #insertOrReplaceAll(List)} instead. Only
+   * rows which weren't updated are inserted, so constraint violations are raised rather than
+   * silently ignored. Writes of more than one entity should be made inside a transaction. Must not
+   * be called on the main thread.
+   */
+  default void upsertAllBlocking(List<E> entities) {
+    List<E> absent = new ArrayList<>();
+    for (E entity : entities) {
+      if (updateAllBlocking(Collections.singletonList(entity)) == 0) {
+        absent.add(entity);
+      }
+    }
+    if (!absent.isEmpty()) {
+      insertAll(absent);
+    }
+  }
+
   /** Try to update the specified entity, and if it doesn't yet exist, create it. */
   default Completable insertOrUpdate(E entity) {
     return update(entity).filter(n -> n == 0).flatMapCompletable(__ -> insert(entity));
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.local.room.dao;
+
+import androidx.room.Dao;
+import androidx.room.Query;
+import com.google.android.gnd.persistence.local.room.entity.DeadLetterMutationEntity;
+import java.util.List;
+
+/**
+ * Provides low-level read/write operations of {@link DeadLetterMutationEntity} to/from the local
+ * db.
+ */
+@Dao
+public interface DeadLetterMutationDao extends BaseDao<DeadLetterMutationEntity> {
+
+  /** Deletes rows of the specified feature mutations, of which there may be up to 999. */
+  @Query("DELETE FROM dead_letter_mutation WHERE feature_mutation_id IN (:ids)")
+  void deleteByFeatureMutationIds(List<Long> ids);
+
+  /** Deletes rows of the specified observation mutations, of which there may be up to 999. */
+  @Query("DELETE FROM dead_letter_mutation WHERE observation_mutation_id IN (:ids)")
+  void deleteByObservationMutationIds(List<Long> ids);
+}
@@ -18,10 +18,12 @@ package com.google.android.gnd.persistence.local.room.dao;
 
 import androidx.room.Dao;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import com.google.android.gnd.persistence.local.room.entity.FeatureEntity;
 import com.google.android.gnd.persistence.local.room.models.EntityState;
 import io.reactivex.Flowable;
 import io.reactivex.Maybe;
+import java.util.Collection;
 import java.util.List;
 
 /** Provides low-level read/write operations of {@link FeatureEntity} to/from the local db. */
@@ -30,6 +32,32 @@ public interface FeatureDao extends BaseDao<FeatureEntity> {
   @Query("SELECT * FROM feature WHERE project_id = :projectId AND state = :state")
   Flowable<List<FeatureEntity>> findOnceAndStream(String projectId, EntityState state);
 
+  /**
+   * Returns features whose bounding boxes intersect the specified bounds. Bounds crossing the
+   * antimeridian aren't supported; callers should pass -180 and 180 as the west and east bounds
+   * instead.
+   */
+  @Query(
+      "SELECT * FROM feature WHERE project_id = :projectId AND state = :state"
+          + " AND min_lat <= :north AND max_lat >= :south"
+          + " AND min_lng <= :east AND max_lng >= :west")
+  Flowable<List<FeatureEntity>> findInBoundsOnceAndStream(
+      String projectId, EntityState state, double south, double west, double north, double east);
+
   @Query("SELECT * FROM feature WHERE id = :id")
   Maybe<FeatureEntity> findById(String id);
+
+  @Query("DELETE FROM feature WHERE id IN (:ids)")
+  void deleteAllById(Collection<String> ids);
+
+  /**
+   * Inserts or updates the specified features and deletes features with the specified ids in a
+   * single transaction, so that observers are only notified once. Existing rows are updated in
+   * place rather than replaced, since replacing them would cascade deletes to their observations.
+   */
+  @Transaction
+  default void upsertAllAndDeleteById(List<FeatureEntity> entities, Collection<String> ids) {
+    upsertAllBlocking(entities);
+    deleteAllById(ids);
+  }
 }
@@ -19,7 +19,6 @@ package com.google.android.gnd.persistence.local.room.dao;
 import androidx.room.Dao;
 import androidx.room.Query;
 import com.google.android.gnd.persistence.local.room.entity.FeatureMutationEntity;
-import io.reactivex.Completable;
 import io.reactivex.Single;
 import java.util.List;
 
@@ -29,8 +28,27 @@ import java.util.List;
 @Dao
 public interface FeatureMutationDao extends BaseDao<FeatureMutationEntity> {
 
+  /** Deletes mutations with the specified ids, of which there may be up to 999. */
   @Query("DELETE FROM feature_mutation WHERE id IN (:ids)")
-  Completable deleteAll(List<Long> ids);
+  void deleteAll(List<Long> ids);
+
+  /**
+   * Returns up to {@code limit} mutations following the specified client timestamp and id, ordered
+   * by client timestamp and id. Quarantined mutations are skipped.
+   */
+  @Query(
+      "SELECT * FROM feature_mutation WHERE client_timestamp >= :afterTimestamp"
+          + " AND (client_timestamp > :afterTimestamp OR id > :afterId)"
+          + " AND id NOT IN (SELECT feature_mutation_id FROM dead_letter_mutation"
+          + " WHERE feature_mutation_id IS NOT NULL)"
+          + " ORDER BY client_timestamp, id LIMIT :limit")
+  Single<List<FeatureMutationEntity>> findPage(long afterTimestamp, long afterId, int limit);
+
+  @Query(
+      "SELECT * FROM feature_mutation"
+          + " WHERE id IN (SELECT feature_mutation_id FROM dead_letter_mutation)"
+          + " ORDER BY client_timestamp, id")
+  Single<List<FeatureMutationEntity>> findQuarantined();
 
   @Query("SELECT * FROM feature_mutation WHERE feature_id = :featureId")
   Single<List<FeatureMutationEntity>> findByFeatureId(String featureId);
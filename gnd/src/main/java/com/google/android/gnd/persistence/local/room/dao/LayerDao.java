@@ -19,11 +19,10 @@ package com.google.android.gnd.persistence.local.room.dao;
 import androidx.room.Dao;
 import androidx.room.Query;
 import com.google.android.gnd.persistence.local.room.entity.LayerEntity;
-import io.reactivex.Completable;
 
 @Dao
 public interface LayerDao extends BaseDao<LayerEntity> {
 
   @Query("DELETE FROM layer WHERE project_id = :projectId")
-  Completable deleteByProjectId(String projectId);
+  void deleteByProjectId(String projectId);
 }
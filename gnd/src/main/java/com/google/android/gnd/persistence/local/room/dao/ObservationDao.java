@@ -22,6 +22,7 @@ import com.google.android.gnd.persistence.local.room.entity.ObservationEntity;
 import com.google.android.gnd.persistence.local.room.models.EntityState;
 import io.reactivex.Maybe;
 import io.reactivex.Single;
+import java.util.Collection;
 import java.util.List;
 
 @Dao
@@ -30,6 +31,9 @@ public interface ObservationDao extends BaseDao<ObservationEntity> {
   @Query("SELECT * FROM observation WHERE id = :observationId")
   Maybe<ObservationEntity> findById(String observationId);
 
+  @Query("DELETE FROM observation WHERE id IN (:ids)")
+  void deleteAllById(Collection<String> ids);
+
   /** Returns the list observations associated with the specified feature, form and state. */
   @Query(
       "SELECT * FROM observation "
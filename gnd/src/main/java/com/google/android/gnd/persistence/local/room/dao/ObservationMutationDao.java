@@ -19,7 +19,6 @@ package com.google.android.gnd.persistence.local.room.dao;
 import androidx.room.Dao;
 import androidx.room.Query;
 import com.google.android.gnd.persistence.local.room.entity.ObservationMutationEntity;
-import io.reactivex.Completable;
 import io.reactivex.Single;
 import java.util.List;
 
@@ -27,8 +26,27 @@ import java.util.List;
 @Dao
 public interface ObservationMutationDao extends BaseDao<ObservationMutationEntity> {
 
+  /** Deletes mutations with the specified ids, of which there may be up to 999. */
   @Query("DELETE FROM observation_mutation WHERE id IN (:ids)")
-  Completable deleteAll(List<Long> ids);
+  void deleteAll(List<Long> ids);
+
+  /**
+   * Returns up to {@code limit} mutations following the specified client timestamp and id, ordered
+   * by client timestamp and id. Quarantined mutations are skipped.
+   */
+  @Query(
+      "SELECT * FROM observation_mutation WHERE client_timestamp >= :afterTimestamp"
+          + " AND (client_timestamp > :afterTimestamp OR id > :afterId)"
+          + " AND id NOT IN (SELECT observation_mutation_id FROM dead_letter_mutation"
+          + " WHERE observation_mutation_id IS NOT NULL)"
+          + " ORDER BY client_timestamp, id LIMIT :limit")
+  Single<List<ObservationMutationEntity>> findPage(long afterTimestamp, long afterId, int limit);
+
+  @Query(
+      "SELECT * FROM observation_mutation"
+          + " WHERE id IN (SELECT observation_mutation_id FROM dead_letter_mutation)"
+          + " ORDER BY client_timestamp, id")
+  Single<List<ObservationMutationEntity>> findQuarantined();
 
   @Query("SELECT * FROM observation_mutation WHERE feature_id = :featureId")
   Single<List<ObservationMutationEntity>> findByFeatureId(String featureId);
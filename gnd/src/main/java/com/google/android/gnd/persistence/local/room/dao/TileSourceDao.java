@@ -30,8 +30,8 @@ public interface TileSourceDao extends BaseDao<TileSourceEntity> {
   @Query("SELECT * FROM tile_sources")
   Flowable<List<TileSourceEntity>> findAllOnceAndStream();
 
-  @Query("SELECT * FROM tile_sources WHERE state = :state")
-  Single<List<TileSourceEntity>> findByState(int state);
+  @Query("SELECT * FROM tile_sources WHERE state IN (:states)")
+  Single<List<TileSourceEntity>> findByStates(List<Integer> states);
 
   @Query("SELECT * FROM tile_sources WHERE id = :id")
   Maybe<TileSourceEntity> findById(String id);
@@ -39,9 +39,32 @@ public interface TileSourceDao extends BaseDao<TileSourceEntity> {
   @Query("SELECT * FROM tile_sources WHERE url = :url")
   Maybe<TileSourceEntity> findByUrl(String url);
 
+  /** Returns tile sources with the specified URLs, of which there may be up to 999. */
+  @Query("SELECT * FROM tile_sources WHERE url IN (:urls)")
+  List<TileSourceEntity> findByUrls(List<String> urls);
+
   @Query("SELECT * FROM tile_sources WHERE path = :path")
   Maybe<TileSourceEntity> findByPath(String path);
 
+  /**
+   * Returns the total size in bytes of tile sources in the specified state with the specified URLs.
+   * SQLite limits the number of URLs per query to 999.
+   */
+  @Query(
+      "SELECT COALESCE(SUM(size_bytes), 0) FROM tile_sources"
+          + " WHERE state = :state AND url IN (:urls)")
+  Flowable<Long> getTotalSizeOnceAndStream(int state, List<String> urls);
+
+  @Query("UPDATE tile_sources SET state = :state WHERE url = :url")
+  int updateState(String url, int state);
+
+  /** Updates the state of tile sources with the specified URLs, of which there may be up to 999. */
+  @Query("UPDATE tile_sources SET state = :state WHERE url IN (:urls)")
+  int updateStates(List<String> urls, int state);
+
+  @Query("UPDATE tile_sources SET state = :state, size_bytes = :sizeBytes WHERE url = :url")
+  int updateStateAndSize(String url, int state, long sizeBytes);
+
   @Query("UPDATE tile_sources SET basemap_count=:newCount WHERE url = :url")
   Single<Integer> updateBasemapReferenceCount(int newCount, String url);
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.local.room.entity;
+
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import com.google.android.gnd.model.Mutation;
+import com.google.android.gnd.model.feature.FeatureMutation;
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.AutoValue.CopyAnnotations;
+
+/**
+ * Marks a feature or observation mutation as quarantined after the remote data store repeatedly
+ * rejected it. Quarantined mutations are kept in their original tables so that local changes are
+ * preserved, but are skipped by data sync. Exactly one of the mutation id columns is non-null.
+ */
+@AutoValue
+@Entity(
+    tableName = "dead_letter_mutation",
+    foreignKeys = {
+      @ForeignKey(
+          entity = FeatureMutationEntity.class,
+          parentColumns = "id",
+          childColumns = "feature_mutation_id",
+          onDelete = ForeignKey.CASCADE),
+      @ForeignKey(
+          entity = ObservationMutationEntity.class,
+          parentColumns = "id",
+          childColumns = "observation_mutation_id",
+          onDelete = ForeignKey.CASCADE)
+    },
+    indices = {
+      @Index(value = "feature_mutation_id", unique = true),
+      @Index(value = "observation_mutation_id", unique = true)
+    })
+public abstract class DeadLetterMutationEntity {
+
+  @CopyAnnotations
+  @PrimaryKey(autoGenerate = true)
+  @ColumnInfo(name = "id")
+  @Nullable
+  public abstract Long getId();
+
+  @CopyAnnotations
+  @Nullable
+  @ColumnInfo(name = "feature_mutation_id")
+  public abstract Long getFeatureMutationId();
+
+  @CopyAnnotations
+  @Nullable
+  @ColumnInfo(name = "observation_mutation_id")
+  public abstract Long getObservationMutationId();
+
+  /** Returns the time in milliseconds since the epoch at which the mutation was quarantined. */
+  @CopyAnnotations
+  @ColumnInfo(name = "timestamp")
+  public abstract long getTimestamp();
+
+  public static DeadLetterMutationEntity fromMutation(Mutation mutation, long timestamp) {
+    Builder builder = builder().setTimestamp(timestamp);
+    if (mutation instanceof FeatureMutation) {
+      builder.setFeatureMutationId(mutation.getId());
+    } else {
+      builder.setObservationMutationId(mutation.getId());
+    }
+    return builder.build();
+  }
+
+  public static DeadLetterMutationEntity create(
+      @Nullable Long id,
+      @Nullable Long featureMutationId,
+      @Nullable Long observationMutationId,
+      long timestamp) {
+    return builder()
+        .setId(id)
+        .setFeatureMutationId(featureMutationId)
+        .setObservationMutationId(observationMutationId)
+        .setTimestamp(timestamp)
+        .build();
+  }
+
+  public static Builder builder() {
+    return new AutoValue_DeadLetterMutationEntity.Builder();
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setId(@Nullable Long newId);
+
+    public abstract Builder setFeatureMutationId(@Nullable Long newFeatureMutationId);
+
+    public abstract Builder setObservationMutationId(@Nullable Long newObservationMutationId);
+
+    public abstract Builder setTimestamp(long newTimestamp);
+
+    public abstract DeadLetterMutationEntity build();
+  }
+}
@@ -23,6 +23,8 @@ import androidx.room.Embedded;
 import androidx.room.Entity;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.AuditInfo;
 import com.google.android.gnd.model.Project;
 import com.google.android.gnd.model.feature.Feature;
@@ -43,8 +45,11 @@ import com.google.auto.value.AutoValue.CopyAnnotations;
 @AutoValue
 @Entity(
     tableName = "feature",
-    indices = {@Index("project_id")})
+    indices = {@Index({"project_id", "state", "min_lat", "max_lat", "min_lng", "max_lng"})})
 public abstract class FeatureEntity {
+  private static final LatLngBounds WORLD_BOUNDS =
+      new LatLngBounds(new LatLng(-90, -180), new LatLng(90, 180));
+
   @CopyAnnotations
   @NonNull
   @PrimaryKey
@@ -77,6 +82,31 @@ public abstract class FeatureEntity {
   @Embedded
   public abstract Coordinates getLocation();
 
+  /**
+   * Southern edge of the feature's bounding box, used together with the other bounding box columns
+   * to query features in the current viewport. Features whose geometry couldn't be parsed span the
+   * whole world.
+   */
+  @CopyAnnotations
+  @Nullable
+  @ColumnInfo(name = "min_lat")
+  public abstract Double getMinLat();
+
+  @CopyAnnotations
+  @Nullable
+  @ColumnInfo(name = "max_lat")
+  public abstract Double getMaxLat();
+
+  @CopyAnnotations
+  @Nullable
+  @ColumnInfo(name = "min_lng")
+  public abstract Double getMinLng();
+
+  @CopyAnnotations
+  @Nullable
+  @ColumnInfo(name = "max_lng")
+  public abstract Double getMaxLng();
+
   @CopyAnnotations
   @NonNull
   @Embedded(prefix = "created_")
@@ -98,7 +128,10 @@ public abstract class FeatureEntity {
             .setState(EntityState.DEFAULT)
             .setCreated(authInfo)
             .setLastModified(authInfo);
-    mutation.getNewLocation().map(Coordinates::fromPoint).ifPresent(entity::setLocation);
+    mutation
+        .getNewLocation()
+        .map(Coordinates::fromPoint)
+        .ifPresent(location -> setPointLocation(entity, location));
     return entity.build();
   }
 
@@ -112,13 +145,32 @@ public abstract class FeatureEntity {
             .setCreated(AuditInfoEntity.fromObject(feature.getCreated()))
             .setLastModified(AuditInfoEntity.fromObject(feature.getLastModified()));
     if (feature instanceof PointFeature) {
-      entity.setLocation(Coordinates.fromPoint(((PointFeature) feature).getPoint()));
+      setPointLocation(entity, Coordinates.fromPoint(((PointFeature) feature).getPoint()));
     } else if (feature instanceof GeoJsonFeature) {
-      entity.setGeoJson(((GeoJsonFeature) feature).getGeoJsonString());
+      GeoJsonFeature geoJsonFeature = (GeoJsonFeature) feature;
+      entity.setGeoJson(geoJsonFeature.getGeoJsonString());
+      // Features whose geometry can't be parsed span the whole world so that bounds queries still
+      // return them.
+      LatLngBounds b = geoJsonFeature.getBounds().orElse(WORLD_BOUNDS);
+      boolean crossesAntimeridian = b.southwest.longitude > b.northeast.longitude;
+      entity
+          .setMinLat(b.southwest.latitude)
+          .setMaxLat(b.northeast.latitude)
+          .setMinLng(crossesAntimeridian ? -180.0 : b.southwest.longitude)
+          .setMaxLng(crossesAntimeridian ? 180.0 : b.northeast.longitude);
     }
     return entity.build();
   }
 
+  private static void setPointLocation(FeatureEntity.Builder entity, Coordinates location) {
+    entity
+        .setLocation(location)
+        .setMinLat(location.getLatitude())
+        .setMaxLat(location.getLatitude())
+        .setMinLng(location.getLongitude())
+        .setMaxLng(location.getLongitude());
+  }
+
   public static Feature toFeature(FeatureEntity featureEntity, Project project) {
     if (featureEntity.getGeoJson() != null) {
       GeoJsonFeature.Builder builder =
@@ -168,6 +220,10 @@ public abstract class FeatureEntity {
       String geoJson,
       EntityState state,
       Coordinates location,
+      Double minLat,
+      Double maxLat,
+      Double minLng,
+      Double maxLng,
       AuditInfoEntity created,
       AuditInfoEntity lastModified) {
     return builder()
@@ -177,6 +233,10 @@ public abstract class FeatureEntity {
         .setGeoJson(geoJson)
         .setState(state)
         .setLocation(location)
+        .setMinLat(minLat)
+        .setMaxLat(maxLat)
+        .setMinLng(minLng)
+        .setMaxLng(maxLng)
         .setCreated(created)
         .setLastModified(lastModified)
         .build();
@@ -201,6 +261,14 @@ public abstract class FeatureEntity {
 
     public abstract Builder setLocation(@Nullable Coordinates newLocation);
 
+    public abstract Builder setMinLat(@Nullable Double newMinLat);
+
+    public abstract Builder setMaxLat(@Nullable Double newMaxLat);
+
+    public abstract Builder setMinLng(@Nullable Double newMinLng);
+
+    public abstract Builder setMaxLng(@Nullable Double newMaxLng);
+
     public abstract Builder setCreated(AuditInfoEntity newCreated);
 
     public abstract Builder setLastModified(AuditInfoEntity newLastModified);
@@ -47,7 +47,7 @@ import java8.util.Optional;
             parentColumns = "id",
             childColumns = "feature_id",
             onDelete = CASCADE),
-    indices = {@Index("feature_id")})
+    indices = {@Index("feature_id"), @Index({"client_timestamp", "id"})})
 public abstract class FeatureMutationEntity extends MutationEntity {
 
   @CopyAnnotations
@@ -76,6 +76,7 @@ public abstract class FeatureMutationEntity extends MutationEntity {
         .setType(MutationEntityType.fromMutationType(m.getType()))
         .setRetryCount(m.getRetryCount())
         .setLastError(m.getLastError())
+        .setNextAttemptTimestamp(m.getNextAttemptTimestamp())
         .setUserId(m.getUserId())
         .setClientTimestamp(m.getClientTimestamp().getTime())
         .build();
@@ -91,6 +92,7 @@ public abstract class FeatureMutationEntity extends MutationEntity {
         .setType(getType().toMutationType())
         .setRetryCount(getRetryCount())
         .setLastError(getLastError())
+        .setNextAttemptTimestamp(getNextAttemptTimestamp())
         .setUserId(getUserId())
         .setClientTimestamp(new Date(getClientTimestamp()))
         .build();
@@ -107,6 +109,7 @@ public abstract class FeatureMutationEntity extends MutationEntity {
       Coordinates newLocation,
       long retryCount,
       @Nullable String lastError,
+      long nextAttemptTimestamp,
       String userId,
       long clientTimestamp) {
     return builder()
@@ -118,6 +121,7 @@ public abstract class FeatureMutationEntity extends MutationEntity {
         .setNewLocation(newLocation)
         .setRetryCount(retryCount)
         .setLastError(lastError)
+        .setNextAttemptTimestamp(nextAttemptTimestamp)
         .setUserId(userId)
         .setClientTimestamp(clientTimestamp)
         .build();
@@ -47,6 +47,10 @@ public abstract class MutationEntity {
   @Nullable
   public abstract String getLastError();
 
+  @CopyAnnotations
+  @ColumnInfo(name = "next_attempt_timestamp", defaultValue = "0")
+  public abstract long getNextAttemptTimestamp();
+
   @CopyAnnotations
   @ColumnInfo(name = "user_id")
   public abstract String getUserId();
@@ -67,6 +71,8 @@ public abstract class MutationEntity {
 
     public abstract T setLastError(@Nullable String newLastError);
 
+    public abstract T setNextAttemptTimestamp(long newNextAttemptTimestamp);
+
     public abstract T setUserId(String newUserId);
 
     public abstract T setClientTimestamp(long newClientTimestamp);
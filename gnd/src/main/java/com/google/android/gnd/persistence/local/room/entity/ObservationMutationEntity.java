@@ -51,7 +51,11 @@ import org.json.JSONObject;
           childColumns = "observation_id",
           onDelete = CASCADE)
     },
-    indices = {@Index("feature_id"), @Index("observation_id")})
+    indices = {
+      @Index("feature_id"),
+      @Index("observation_id"),
+      @Index({"client_timestamp", "id"})
+    })
 public abstract class ObservationMutationEntity extends MutationEntity {
   @CopyAnnotations
   @ColumnInfo(name = "form_id")
@@ -92,6 +96,7 @@ public abstract class ObservationMutationEntity extends MutationEntity {
       String responseDeltas,
       long retryCount,
       @Nullable String lastError,
+      long nextAttemptTimestamp,
       @Nullable String userId,
       long clientTimestamp) {
     return builder()
@@ -105,6 +110,7 @@ public abstract class ObservationMutationEntity extends MutationEntity {
         .setResponseDeltas(responseDeltas)
         .setRetryCount(retryCount)
         .setLastError(lastError)
+        .setNextAttemptTimestamp(nextAttemptTimestamp)
         .setUserId(userId)
         .setClientTimestamp(clientTimestamp)
         .build();
@@ -122,6 +128,7 @@ public abstract class ObservationMutationEntity extends MutationEntity {
         .setResponseDeltas(ResponseDeltasConverter.toString(m.getResponseDeltas()))
         .setRetryCount(m.getRetryCount())
         .setLastError(m.getLastError())
+        .setNextAttemptTimestamp(m.getNextAttemptTimestamp())
         .setUserId(m.getUserId())
         .setClientTimestamp(m.getClientTimestamp().getTime())
         .build();
@@ -153,6 +160,7 @@ public abstract class ObservationMutationEntity extends MutationEntity {
         .setResponseDeltas(ResponseDeltasConverter.fromString(form, getResponseDeltas()))
         .setRetryCount(getRetryCount())
         .setLastError(getLastError())
+        .setNextAttemptTimestamp(getNextAttemptTimestamp())
         .setUserId(getUserId())
         .setClientTimestamp(new Date(getClientTimestamp()))
         .build();
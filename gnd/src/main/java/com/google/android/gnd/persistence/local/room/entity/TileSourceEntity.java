@@ -54,6 +54,10 @@ public abstract class TileSourceEntity {
   @ColumnInfo(name = "basemap_count")
   public abstract int getBasemapReferenceCount();
 
+  @CopyAnnotations
+  @ColumnInfo(name = "size_bytes", defaultValue = "0")
+  public abstract long getSizeBytes();
+
   public static TileSource toTileSource(TileSourceEntity tileSourceEntity) {
     TileSource.Builder tile =
         TileSource.newBuilder()
@@ -61,7 +65,8 @@ public abstract class TileSourceEntity {
             .setPath(tileSourceEntity.getPath())
             .setState(toTileState(tileSourceEntity.getState()))
             .setUrl(tileSourceEntity.getUrl())
-            .setBasemapReferenceCount(tileSourceEntity.getBasemapReferenceCount());
+            .setBasemapReferenceCount(tileSourceEntity.getBasemapReferenceCount())
+            .setSizeBytes(tileSourceEntity.getSizeBytes());
     return tile.build();
   }
 
@@ -87,11 +92,12 @@ public abstract class TileSourceEntity {
             .setPath(tileSource.getPath())
             .setState(toEntityState(tileSource.getState()))
             .setUrl(tileSource.getUrl())
-            .setBasemapReferenceCount(tileSource.getBasemapReferenceCount());
+            .setBasemapReferenceCount(tileSource.getBasemapReferenceCount())
+            .setSizeBytes(tileSource.getSizeBytes());
     return entity.build();
   }
 
-  private static TileEntityState toEntityState(TileSource.State state) {
+  public static TileEntityState toEntityState(TileSource.State state) {
     switch (state) {
       case PENDING:
         return TileEntityState.PENDING;
@@ -107,13 +113,19 @@ public abstract class TileSourceEntity {
   }
 
   public static TileSourceEntity create(
-      String id, String path, TileEntityState state, String url, int basemapReferenceCount) {
+      String id,
+      String path,
+      TileEntityState state,
+      String url,
+      int basemapReferenceCount,
+      long sizeBytes) {
     return builder()
         .setId(id)
         .setState(state)
         .setPath(path)
         .setUrl(url)
         .setBasemapReferenceCount(basemapReferenceCount)
+        .setSizeBytes(sizeBytes)
         .build();
   }
 
@@ -133,6 +145,8 @@ public abstract class TileSourceEntity {
 
     public abstract Builder setBasemapReferenceCount(int basemapReferenceCount);
 
+    public abstract Builder setSizeBytes(long sizeBytes);
+
     public abstract TileSourceEntity build();
   }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.mbtiles;
+
+import static com.google.android.gnd.persistence.mbtiles.TileSetSource.EAST;
+import static com.google.android.gnd.persistence.mbtiles.TileSetSource.NORTH;
+import static com.google.android.gnd.persistence.mbtiles.TileSetSource.SOUTH;
+import static com.google.android.gnd.persistence.mbtiles.TileSetSource.WEST;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gnd.util.SpatialIndex;
+import com.google.common.collect.ImmutableList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable spatial index of the tile set sources described in a footprint file, used to find the
+ * sources intersecting an area without re-reading the file.
+ *
+ * <p>The index is fully built on construction and never modified afterwards, so it may be queried
+ * from multiple threads.
+ */
+class FootprintIndex {
+  private final ImmutableList<TileSetSource> sources;
+  private final SpatialIndex<Integer> index = new SpatialIndex<>();
+
+  FootprintIndex(ImmutableList<TileSetSource> sources) {
+    this.sources = sources;
+    for (int i = 0; i < sources.size(); i++) {
+      double[] bounds = sources.get(i).getBounds();
+      index.put(i, bounds[SOUTH], bounds[WEST], bounds[NORTH], bounds[EAST]);
+    }
+  }
+
+  int size() {
+    return sources.size();
+  }
+
+  /**
+   * Returns the sources whose footprints intersect the specified bounds, in the order in which they
+   * appear in the footprint file. Candidates are found by bounding box before their footprints are
+   * tested exactly.
+   */
+  ImmutableList<TileSetSource> query(LatLngBounds bounds) {
+    List<Integer> indices = index.query(bounds);
+    // Bounds crossing the antimeridian are queried in two parts, which may both match an entry.
+    Collections.sort(indices);
+    ImmutableList.Builder<TileSetSource> results = ImmutableList.builder();
+    int previous = -1;
+    for (int i : indices) {
+      if (i != previous && sources.get(i).intersects(bounds)) {
+        results.add(sources.get(i));
+      }
+      previous = i;
+    }
+    return results.build();
+  }
+}
@@ -16,107 +16,279 @@
 
 package com.google.android.gnd.persistence.mbtiles;
 
+import static com.google.android.gnd.persistence.mbtiles.TileSetSource.EAST;
+import static com.google.android.gnd.persistence.mbtiles.TileSetSource.NORTH;
+import static com.google.android.gnd.persistence.mbtiles.TileSetSource.SOUTH;
+import static com.google.android.gnd.persistence.mbtiles.TileSetSource.WEST;
 import static com.google.android.gnd.util.ImmutableListCollector.toImmutableList;
 import static java8.util.stream.StreamSupport.stream;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.basemap.tile.TileSource;
 import com.google.android.gnd.model.basemap.tile.TileSource.State;
 import com.google.android.gnd.persistence.uuid.OfflineUuidGenerator;
 import com.google.common.collect.ImmutableList;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
-import org.apache.commons.io.FileUtils;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import javax.inject.Singleton;
 import timber.log.Timber;
 
+/**
+ * Reads MBTiles footprint files, GeoJSON feature collections whose features describe the extents
+ * and source URL of individual tile sets.
+ *
+ * <p>Files are read incrementally, keeping only the id, URL, bounding box and exterior rings of
+ * each feature. The resulting index is retained until the file is modified, so repeated area
+ * queries against the same file don't need to read it again.
+ */
+@Singleton
 public class MbtilesFootprintParser {
 
   private static final String FEATURES_KEY = "features";
+  private static final String GEOMETRY_KEY = "geometry";
+  private static final String COORDINATES_KEY = "coordinates";
+  private static final String ID_KEY = "id";
+  private static final String PROPERTIES_KEY = "properties";
+  private static final String URL_KEY = "url";
   private static final String JSON_SOURCE_CHARSET = "UTF-8";
 
   private final OfflineUuidGenerator uuidGenerator;
 
+  @Nullable private File indexedFile;
+  private long indexedFileLastModified;
+  private long indexedFileLength;
+  @Nullable private FootprintIndex index;
+
   @Inject
   MbtilesFootprintParser(OfflineUuidGenerator uuidGenerator) {
     this.uuidGenerator = uuidGenerator;
   }
 
   /**
-   * Returns the immutable list of tiles specified in {@param geojson} that intersect {@param
-   * bounds}.
+   * Returns the immutable list of tiles specified in {@param file} that intersect {@param bounds}.
    */
   public ImmutableList<TileSource> intersectingTiles(LatLngBounds bounds, File file) {
     try {
-      String fileContents = FileUtils.readFileToString(file, Charset.forName(JSON_SOURCE_CHARSET));
-      // TODO: Separate parsing and intersection checks, make asyc (single, completable).
-      JSONObject geoJson = new JSONObject(fileContents);
-      // TODO: Make features constant.
-      JSONArray features = geoJson.getJSONArray(FEATURES_KEY);
-
-      return stream(toArrayList(features))
-          .map(TileSetSource::new)
-          .filter(tile -> tile.boundsIntersect(bounds))
-          .map(this::jsonToTileSource)
+      return stream(getIndex(file).query(bounds))
+          .map(this::toTileSource)
           .map(TileSource::incrementAreaCount)
           .collect(toImmutableList());
-
-    } catch (JSONException | IOException e) {
+    } catch (IOException | RuntimeException e) {
+      // JsonReader reports unexpected token types with IllegalStateException.
       Timber.e(e, "Unable to parse JSON");
     }
 
     return ImmutableList.of();
   }
 
+  /** Returns the index of {@param file}, reading it only if it changed since it was last read. */
+  private synchronized FootprintIndex getIndex(File file) throws IOException {
+    long lastModified = file.lastModified();
+    long length = file.length();
+    if (index != null
+        && file.equals(indexedFile)
+        && lastModified == indexedFileLastModified
+        && length == indexedFileLength) {
+      return index;
+    }
+    FootprintIndex newIndex = new FootprintIndex(parse(file));
+    Timber.d("Indexed %d tile set sources in %s", newIndex.size(), file);
+    indexedFile = file;
+    indexedFileLastModified = lastModified;
+    indexedFileLength = length;
+    index = newIndex;
+    return newIndex;
+  }
+
+  private static ImmutableList<TileSetSource> parse(File file) throws IOException {
+    try (JsonReader reader =
+        new JsonReader(
+            new InputStreamReader(
+                new BufferedInputStream(new FileInputStream(file)), JSON_SOURCE_CHARSET))) {
+      ImmutableList.Builder<TileSetSource> sources = ImmutableList.builder();
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (reader.nextName().equals(FEATURES_KEY)) {
+          readFeatures(reader, sources);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return sources.build();
+    }
+  }
+
+  private static void readFeatures(
+      JsonReader reader, ImmutableList.Builder<TileSetSource> sources) throws IOException {
+    reader.beginArray();
+    while (reader.hasNext()) {
+      TileSetSource source = readFeature(reader);
+      if (source != null) {
+        sources.add(source);
+      }
+    }
+    reader.endArray();
+  }
+
+  /** Reads a single feature, returning null if it has no geometry. */
+  @Nullable
+  private static TileSetSource readFeature(JsonReader reader) throws IOException {
+    String id = "";
+    String url = "";
+    Geometry geometry = new Geometry();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case ID_KEY:
+          id = nextStringOrEmpty(reader);
+          break;
+        case PROPERTIES_KEY:
+          url = readUrl(reader);
+          break;
+        case GEOMETRY_KEY:
+          readGeometry(reader, geometry);
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    if (geometry.isEmpty()) {
+      Timber.w("Ignoring tile set source %s with no coordinates", id);
+      return null;
+    }
+    return new TileSetSource(id, url, geometry.bounds, geometry.rings.build());
+  }
+
+  private static String readUrl(JsonReader reader) throws IOException {
+    String url = "";
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return url;
+    }
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName().equals(URL_KEY)) {
+        url = nextStringOrEmpty(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return url;
+  }
+
+  private static void readGeometry(JsonReader reader, Geometry geometry) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return;
+    }
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName().equals(COORDINATES_KEY)) {
+        readCoordinates(reader, geometry);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
+
   /**
-   * Converts a JSONArray to an array of JSONObjects. Provided for compatibility with java8 streams.
-   * JSONArray itself only inherits from Object, and is not convertible to a stream.
+   * Reads the GeoJSON coordinates array at the current position of {@param reader} into {@param
+   * geometry}, returning its depth; 0 for a single position, 1 for a ring of positions, and so on.
+   * The bounding box includes all positions, but only the first ring of each polygon, its exterior
+   * ring, is retained.
    */
-  private static List<JSONObject> toArrayList(JSONArray arr) {
-    List<JSONObject> result = new ArrayList<>();
-
-    for (int i = 0; i < arr.length(); i++) {
-      try {
-        result.add(arr.getJSONObject(i));
-      } catch (JSONException e) {
-        Timber.e(e, "Ignoring error in JSON array");
+  private static int readCoordinates(JsonReader reader, Geometry geometry) throws IOException {
+    reader.beginArray();
+    if (reader.hasNext() && reader.peek() == JsonToken.NUMBER) {
+      // Positions are [lng, lat] optionally followed by altitude.
+      double lng = reader.nextDouble();
+      double lat = reader.nextDouble();
+      while (reader.hasNext()) {
+        reader.skipValue();
       }
+      reader.endArray();
+      geometry.addPosition(lng, lat);
+      return 0;
     }
-
-    return result;
+    geometry.startRing();
+    int depth = 1;
+    for (int i = 0; reader.hasNext(); i++) {
+      int childDepth = readCoordinates(reader, geometry);
+      if (childDepth == 1 && i == 0) {
+        geometry.finishRing();
+      }
+      depth = childDepth + 1;
+    }
+    reader.endArray();
+    return depth;
   }
 
-  private static List<JSONObject> getFeaturesArray(String jsonString) {
-    try {
-      // TODO: Separate parsing and intersection checks, make asyc (single, completable).
-      JSONObject geoJson = new JSONObject(jsonString);
-      // TODO: Make features constant.
-      return toArrayList(geoJson.getJSONArray(FEATURES_KEY));
-    } catch (JSONException e) {
-      Timber.e(e, "Unable to parse JSON");
+  private static String nextStringOrEmpty(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return "";
     }
-    return ImmutableList.of();
+    // Also accepts numeric ids.
+    return reader.nextString();
   }
 
-  public ImmutableList<TileSetSource> getGeoJsonTiles(String jsonString) {
-    return stream(getFeaturesArray(jsonString)).map(TileSetSource::new).collect(toImmutableList());
+  /** Bounding box and exterior rings of a feature's geometry, accumulated while reading. */
+  private static class Geometry {
+    private final double[] bounds = {
+      Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE
+    };
+    private final ImmutableList.Builder<double[]> rings = ImmutableList.builder();
+    private double[] ring = new double[32];
+    private int ringLength;
+
+    boolean isEmpty() {
+      return bounds[SOUTH] > bounds[NORTH];
+    }
+
+    void addPosition(double lng, double lat) {
+      bounds[SOUTH] = Math.min(bounds[SOUTH], lat);
+      bounds[WEST] = Math.min(bounds[WEST], lng);
+      bounds[NORTH] = Math.max(bounds[NORTH], lat);
+      bounds[EAST] = Math.max(bounds[EAST], lng);
+      if (ringLength + 2 > ring.length) {
+        ring = Arrays.copyOf(ring, ring.length * 2);
+      }
+      ring[ringLength++] = lng;
+      ring[ringLength++] = lat;
+    }
+
+    void startRing() {
+      ringLength = 0;
+    }
+
+    /** Retains the positions added since the last call to {@link #startRing()} as a ring. */
+    void finishRing() {
+      rings.add(Arrays.copyOf(ring, ringLength));
+    }
   }
 
-  /** Returns the {@link TileSource} specified by {@param json}. */
-  private TileSource jsonToTileSource(TileSetSource json) {
+  /** Returns the {@link TileSource} specified by {@param source}. */
+  private TileSource toTileSource(TileSetSource source) {
     // TODO: Instead of returning tiles with invalid state (empty URL/ID values)
     // Throw an exception here and handle it downstream.
     return TileSource.newBuilder()
         .setId(uuidGenerator.generateUuid())
-        .setUrl(json.getUrl().orElse(""))
+        .setUrl(source.getUrl())
         .setState(State.PENDING)
-        .setPath(TileSource.pathFromId(json.getId().orElse("")))
+        .setPath(TileSource.pathFromId(source.getId()))
         .setBasemapReferenceCount(0)
         .build();
   }
@@ -16,88 +16,185 @@
 
 package com.google.android.gnd.persistence.mbtiles;
 
-import static com.google.android.gnd.util.ImmutableListCollector.toImmutableList;
-import static java8.util.stream.StreamSupport.stream;
-
-import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.common.collect.ImmutableList;
-import java.util.ArrayList;
-import java.util.List;
-import java8.util.Optional;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
-/** Describes a tile set source, including its id, extents, and source URL. */
+/**
+ * Describes a tile set source, including its id, extents, and source URL.
+ *
+ * <p>Instances are built by {@link MbtilesFootprintParser} from GeoJSON features, retaining only
+ * the id, the tile URL found in the feature's properties, the bounding box of the feature's
+ * geometry, and the exterior rings of its polygons. Rings are stored as flat arrays of alternating
+ * longitudes and latitudes. Interior rings, which describe holes in the polygon, are ignored.
+ */
 class TileSetSource {
 
-  private static final String GEOMETRY_KEY = "geometry";
-  private static final String VERTICES_JSON_KEY = "coordinates";
+  /** Indices of the bounding box edges in {@link #getBounds()}. */
+  static final int SOUTH = 0;
 
-  private static final String ID_KEY = "id";
-  private static final String PROPERTIES_KEY = "properties";
-  private static final String URL_KEY = "url";
+  static final int WEST = 1;
+  static final int NORTH = 2;
+  static final int EAST = 3;
 
-  private final JSONObject json;
+  private final String id;
+  private final String url;
+  private final double[] bounds;
+  private final ImmutableList<double[]> rings;
 
   /**
-   * Constructs a TileSetSource based on the contents of {@param jsonObject}.
-   *
-   * <p>A valid tile has the following information:
-   *
-   * <p>- a geometry describing a polygon. - an id specifying cartesian coordinates. - a URL
-   * specifying a source for the tile imagery.
-   *
-   * <p>GeoJSON Polygons are described using coordinate arrays that form a linear ring. The first
-   * and last value in a linear ring are equivalent. We assume coordinates are ordered, S/W, S/E,
-   * N/E, N/W, (S/W again, closing the ring).
-   *
-   * <p>Interior rings, which describe holes in the polygon, are ignored.
+   * Constructs a source with the specified bounding box, given as {south, west, north, east}, and
+   * exterior rings, given as {lng0, lat0, lng1, lat1, ...}. Sources without rings are treated as
+   * covering their whole bounding box.
    */
-  TileSetSource(JSONObject jsonObject) {
-    this.json = jsonObject;
+  TileSetSource(String id, String url, double[] bounds, ImmutableList<double[]> rings) {
+    this.id = id;
+    this.url = url;
+    this.bounds = bounds;
+    this.rings = rings;
   }
 
-  private ImmutableList<LatLng> getVertices() {
-    Optional<JSONArray> exteriorRing =
-        Optional.ofNullable(json.optJSONObject(GEOMETRY_KEY))
-            .flatMap(j -> Optional.ofNullable(j.optJSONArray(VERTICES_JSON_KEY)))
-            .map(j -> j.optJSONArray(0));
-
-    return ringCoordinatesToLatLngs(exteriorRing.orElse(null));
+  String getId() {
+    return id;
   }
 
-  public Optional<String> getId() {
-    String s = json.optString(ID_KEY);
-    return s.isEmpty() ? Optional.empty() : Optional.of(s);
+  String getUrl() {
+    return url;
   }
 
-  public Optional<String> getUrl() {
-    return Optional.ofNullable(json.optJSONObject(PROPERTIES_KEY)).map(j -> j.optString(URL_KEY));
+  /** Returns the bounding box as {south, west, north, east}. The array must not be modified. */
+  double[] getBounds() {
+    return bounds;
   }
 
-  boolean boundsIntersect(LatLngBounds bounds) {
-    return stream(this.getVertices()).anyMatch(bounds::contains);
+  /**
+   * Returns true iff the footprint of this source intersects {@param area}, including when either
+   * one contains the other. Areas crossing the antimeridian are tested in two parts.
+   */
+  boolean intersects(LatLngBounds area) {
+    double south = area.southwest.latitude;
+    double west = area.southwest.longitude;
+    double north = area.northeast.latitude;
+    double east = area.northeast.longitude;
+    if (west <= east) {
+      return intersects(south, west, north, east);
+    }
+    return intersects(south, west, north, 180) || intersects(south, -180, north, east);
   }
 
-  private ImmutableList<LatLng> ringCoordinatesToLatLngs(JSONArray exteriorRing) {
-    if (exteriorRing == null) {
-      return ImmutableList.of();
+  private boolean intersects(double south, double west, double north, double east) {
+    if (bounds[SOUTH] > north
+        || bounds[NORTH] < south
+        || bounds[WEST] > east
+        || bounds[EAST] < west) {
+      return false;
     }
+    if (rings.isEmpty()) {
+      return true;
+    }
+    for (double[] ring : rings) {
+      if (ringIntersectsRectangle(ring, south, west, north, east)) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-    List<LatLng> coordinates = new ArrayList<>();
-
-    for (int i = 0; i < exteriorRing.length(); i++) {
-      JSONArray point = exteriorRing.optJSONArray(i);
-      double lat = point.optDouble(1, 0.0);
-      double lng = point.optDouble(0, 0.0);
+  /**
+   * Returns true iff the polygon bounded by {@param ring} and the rectangle intersect. This is the
+   * case when an edge of the polygon crosses or lies inside the rectangle, or otherwise when the
+   * rectangle lies entirely inside the polygon.
+   */
+  private static boolean ringIntersectsRectangle(
+      double[] ring, double south, double west, double north, double east) {
+    int n = ring.length / 2;
+    if (n == 0) {
+      return false;
+    }
+    for (int i = 0; i < n; i++) {
+      int j = (i + 1) % n;
+      if (segmentIntersectsRectangle(
+          ring[2 * i], ring[2 * i + 1], ring[2 * j], ring[2 * j + 1], south, west, north, east)) {
+        return true;
+      }
+    }
+    // No edge touches the rectangle, so either it's entirely inside or entirely outside.
+    return ringContains(ring, west, south);
+  }
 
-      // PMD complains about instantiating objects in loops, but here, we retain a reference to the
-      // object after the loop exits--the PMD recommendation here makes little sense, and is
-      // presumably intended to prevent short-lived allocations.
-      coordinates.add(new LatLng(lat, lng)); // NOPMD
+  /**
+   * Returns true iff the segment from (x0, y0) to (x1, y1) intersects the rectangle, using
+   * Liang-Barsky clipping.
+   */
+  private static boolean segmentIntersectsRectangle(
+      double x0,
+      double y0,
+      double x1,
+      double y1,
+      double south,
+      double west,
+      double north,
+      double east) {
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+    // Parametric range of the segment remaining after clipping against each edge in turn.
+    double t0 = 0;
+    double t1 = 1;
+    for (int edge = 0; edge < 4; edge++) {
+      double p;
+      double q;
+      switch (edge) {
+        case 0:
+          p = -dx;
+          q = x0 - west;
+          break;
+        case 1:
+          p = dx;
+          q = east - x0;
+          break;
+        case 2:
+          p = -dy;
+          q = y0 - south;
+          break;
+        default:
+          p = dy;
+          q = north - y0;
+          break;
+      }
+      if (p == 0) {
+        // Parallel to the edge, so outside if on the outer side of it.
+        if (q < 0) {
+          return false;
+        }
+      } else if (p < 0) {
+        double t = q / p;
+        if (t > t1) {
+          return false;
+        }
+        t0 = Math.max(t0, t);
+      } else {
+        double t = q / p;
+        if (t < t0) {
+          return false;
+        }
+        t1 = Math.min(t1, t);
+      }
     }
+    return true;
+  }
 
-    return stream(coordinates).collect(toImmutableList());
+  /** Returns true iff the point (x, y) lies inside {@param ring}, using the even-odd rule. */
+  private static boolean ringContains(double[] ring, double x, double y) {
+    int n = ring.length / 2;
+    boolean inside = false;
+    for (int i = 0, j = n - 1; i < n; j = i++) {
+      double xi = ring[2 * i];
+      double yi = ring[2 * i + 1];
+      double xj = ring[2 * j];
+      double yj = ring[2 * j + 1];
+      if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+        inside = !inside;
+      }
+    }
+    return inside;
   }
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.remote;
+
+/**
+ * Exception thrown when the remote data store refuses to apply mutations, for example because they
+ * are malformed or not permitted, as opposed to failing to reach the server. Retrying the same
+ * mutations is not expected to succeed.
+ */
+public class RejectedMutationException extends DataStoreException {
+
+  public RejectedMutationException(Throwable cause) {
+    super(cause.toString());
+    initCause(cause);
+  }
+}
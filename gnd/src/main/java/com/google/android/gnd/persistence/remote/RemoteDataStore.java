@@ -62,7 +62,8 @@ public interface RemoteDataStore {
 
   /**
    * Applies the provided mutations to the remote data store in a single batched transaction. If one
-   * update fails, none of the mutations will be applied.
+   * update fails, none of the mutations will be applied. Fails with {@link
+   * RejectedMutationException} if the remote data store refuses to apply the mutations.
    */
   @Cold
   Completable applyMutations(@Nullable ImmutableCollection<Mutation> mutations, User user);
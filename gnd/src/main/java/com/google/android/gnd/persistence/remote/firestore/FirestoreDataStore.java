@@ -26,6 +26,7 @@ import com.google.android.gnd.model.observation.Observation;
 import com.google.android.gnd.model.observation.ObservationMutation;
 import com.google.android.gnd.persistence.remote.DataStoreException;
 import com.google.android.gnd.persistence.remote.NotFoundException;
+import com.google.android.gnd.persistence.remote.RejectedMutationException;
 import com.google.android.gnd.persistence.remote.RemoteDataEvent;
 import com.google.android.gnd.persistence.remote.RemoteDataStore;
 import com.google.android.gnd.persistence.remote.firestore.schema.GroundFirestore;
@@ -35,6 +36,7 @@ import com.google.android.gnd.rx.ValueOrError;
 import com.google.android.gnd.rx.annotations.Cold;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.WriteBatch;
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
@@ -95,9 +97,37 @@ public class FirestoreDataStore implements RemoteDataStore {
   @Override
   public Completable applyMutations(ImmutableCollection<Mutation> mutations, User user) {
     return RxTask.toCompletable(() -> applyMutationsInternal(mutations, user))
+        .onErrorResumeNext(
+            e -> Completable.error(isRejection(e) ? new RejectedMutationException(e) : e))
         .subscribeOn(schedulers.io());
   }
 
+  /**
+   * Returns true if the error indicates the mutations themselves were refused, either by the client
+   * library while validating them or by the server, rather than that the server couldn't be reached
+   * or was temporarily unable to handle the request.
+   */
+  private static boolean isRejection(Throwable e) {
+    if (e instanceof IllegalArgumentException) {
+      return true;
+    }
+    if (!(e instanceof FirebaseFirestoreException)) {
+      return false;
+    }
+    switch (((FirebaseFirestoreException) e).getCode()) {
+      case INVALID_ARGUMENT:
+      case NOT_FOUND:
+      case ALREADY_EXISTS:
+      case PERMISSION_DENIED:
+      case FAILED_PRECONDITION:
+      case OUT_OF_RANGE:
+      case UNIMPLEMENTED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
   private Task<?> applyMutationsInternal(ImmutableCollection<Mutation> mutations, User user) {
     WriteBatch batch = db.batch();
     for (Mutation mutation : mutations) {
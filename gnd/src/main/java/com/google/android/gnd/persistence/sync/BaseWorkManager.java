@@ -32,7 +32,8 @@ import javax.inject.Provider;
  * Base class for creating a work manager for scheduling background tasks.
  *
  * <p>By default, the only constraint is availability of any type of internet connection, as it is
- * assumed that all background tasks need at least some sort of connectivity.
+ * assumed that all background tasks need at least some sort of connectivity. Subclasses which
+ * transfer large files may further restrict the type of connection and battery level required.
  *
  * <p>In case the required criteria are not met, the next attempt uses LINEAR backoff policy with a
  * backoff delay of 10 seconds.
@@ -66,7 +67,10 @@ public abstract class BaseWorkManager {
 
   /** A set of constraints that must be satisfied in order to start the scheduled job. */
   protected Constraints getWorkerConstraints() {
-    return new Constraints.Builder().setRequiredNetworkType(preferredNetworkType()).build();
+    return new Constraints.Builder()
+        .setRequiredNetworkType(preferredNetworkType())
+        .setRequiresBatteryNotLow(requiresBatteryNotLow())
+        .build();
   }
 
   /**
@@ -77,6 +81,14 @@ public abstract class BaseWorkManager {
     return DEFAULT_NETWORK_TYPE;
   }
 
+  /**
+   * Override this method if the worker transfers large amounts of data, and can therefore wait
+   * until the battery isn't low. By default, the worker runs regardless of battery level.
+   */
+  protected boolean requiresBatteryNotLow() {
+    return false;
+  }
+
   /** A class extending {@link BaseWorker} which gets scheduled for a request. */
   abstract Class<? extends BaseWorker> getWorkerClass();
 
@@ -90,10 +102,7 @@ public abstract class BaseWorkManager {
    * to the worker class.
    */
   protected OneTimeWorkRequest buildWorkerRequest(@Nullable Data inputData) {
-    Builder builder =
-        new Builder(getWorkerClass())
-            .setConstraints(getWorkerConstraints())
-            .setBackoffCriteria(BACKOFF_POLICY, BACKOFF_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    Builder builder = newWorkerRequestBuilder();
 
     if (inputData != null) {
       builder.setInputData(inputData);
@@ -101,4 +110,14 @@ public abstract class BaseWorkManager {
 
     return builder.build();
   }
+
+  /**
+   * Create a builder for non-repeating work with default constraints and backoff-criteria, which
+   * subclasses can use to further customize requests, e.g. to delay or tag work.
+   */
+  protected Builder newWorkerRequestBuilder() {
+    return new Builder(getWorkerClass())
+        .setConstraints(getWorkerConstraints())
+        .setBackoffCriteria(BACKOFF_POLICY, BACKOFF_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+  }
 }
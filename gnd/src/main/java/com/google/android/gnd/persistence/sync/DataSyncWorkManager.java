@@ -16,16 +16,29 @@
 
 package com.google.android.gnd.persistence.sync;
 
-import androidx.work.Data;
+import static java8.util.stream.StreamSupport.stream;
+
 import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkInfo.State;
 import androidx.work.WorkManager;
+import com.google.android.gnd.Config;
 import io.reactivex.Completable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import timber.log.Timber;
 
 /** Enqueues data sync work to be done in the background. */
 public class DataSyncWorkManager extends BaseWorkManager {
 
+  /** Tag of workers enqueued to retry mutations which previously failed to sync. */
+  private static final String RETRY_TAG = "retry";
+
   @Inject
   public DataSyncWorkManager(Provider<WorkManager> workManagerProvider) {
     super(workManagerProvider);
@@ -37,24 +50,78 @@ public class DataSyncWorkManager extends BaseWorkManager {
   }
 
   /**
-   * Enqueues a worker that sends changes made locally to the remote data store once a network
-   * connection is available. The returned {@code Completable} completes immediately as soon as the
-   * worker is added to the work queue (not once the sync job completes).
+   * Enqueues a worker that sends all changes made locally to the remote data store once a network
+   * connection is available. The worker waits for {@link Config#SYNC_WINDOW_MILLIS} before
+   * starting, so that changes made in the meantime are synced by the same worker. The returned
+   * {@code Completable} completes immediately as soon as the worker is added to the work queue (not
+   * once the sync job completes).
+   */
+  public Completable enqueueSyncWorker() {
+    return Completable.fromRunnable(this::enqueueSyncWorkerInternal);
+  }
+
+  /**
+   * Enqueues a worker that retries sending changes to the remote data store after the specified
+   * delay, unless another worker is already waiting to run. Used to retry mutations which failed
+   * to sync once their backoff delay has elapsed.
    */
-  public Completable enqueueSyncWorker(String featureId) {
-    return Completable.fromRunnable(() -> enqueueSyncWorkerInternal(featureId));
-  }
-
-  private void enqueueSyncWorkerInternal(String featureId) {
-    // Rather than having running workers monitor the queue for new mutations for their respective
-    // featureId, we instead queue a new worker on each new mutation. This simplifies the worker
-    // implementation and avoids race conditions in the rare event the worker finishes just when new
-    // mutations are added to the db.
-    Data inputData = LocalMutationSyncWorker.createInputData(featureId);
-    getWorkManager()
-        .enqueueUniqueWork(
-            LocalMutationSyncWorker.class.getName(),
-            ExistingWorkPolicy.APPEND,
-            buildWorkerRequest(inputData));
+  public Completable enqueueSyncWorker(long delayMillis) {
+    return Completable.fromRunnable(() -> enqueueDelayedSyncWorkerInternal(delayMillis));
+  }
+
+  private void enqueueSyncWorkerInternal() {
+    // Each worker drains the entire local mutation queue, so there's no need to enqueue another one
+    // while a worker is already waiting to start within the current sync window. If a worker is
+    // running, a new one is appended to the chain so that mutations added after it read the queue
+    // aren't left behind. Otherwise, any delayed retry is replaced by a worker which starts sooner.
+    String workName = LocalMutationSyncWorker.class.getName();
+    List<WorkInfo> workInfos = getWorkInfos(workName);
+    if (stream(workInfos).anyMatch(info -> isPending(info) && !isRetry(info))) {
+      return;
+    }
+    boolean running = stream(workInfos).anyMatch(info -> info.getState() == State.RUNNING);
+    ExistingWorkPolicy policy =
+        running ? ExistingWorkPolicy.APPEND_OR_REPLACE : ExistingWorkPolicy.REPLACE;
+    OneTimeWorkRequest request =
+        newWorkerRequestBuilder()
+            .setInitialDelay(Config.SYNC_WINDOW_MILLIS, TimeUnit.MILLISECONDS)
+            .build();
+    getWorkManager().enqueueUniqueWork(workName, policy, request);
+  }
+
+  private void enqueueDelayedSyncWorkerInternal(long delayMillis) {
+    // A worker which is already waiting to run will schedule its own retry if still needed.
+    String workName = LocalMutationSyncWorker.class.getName();
+    if (stream(getWorkInfos(workName)).anyMatch(DataSyncWorkManager::isPending)) {
+      return;
+    }
+    OneTimeWorkRequest request =
+        newWorkerRequestBuilder()
+            .setInitialDelay(delayMillis, TimeUnit.MILLISECONDS)
+            .addTag(RETRY_TAG)
+            .build();
+    getWorkManager().enqueueUniqueWork(workName, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+  }
+
+  /** Returns the state of all unique work with the specified name. */
+  private List<WorkInfo> getWorkInfos(String workName) {
+    try {
+      return getWorkManager().getWorkInfosForUniqueWork(workName).get();
+    } catch (ExecutionException e) {
+      Timber.e(e, "Unable to get state of %s", workName);
+      return Collections.emptyList();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Collections.emptyList();
+    }
+  }
+
+  /** Returns true iff the specified work is waiting to be started. */
+  private static boolean isPending(WorkInfo info) {
+    return info.getState() == State.ENQUEUED || info.getState() == State.BLOCKED;
+  }
+
+  private static boolean isRetry(WorkInfo info) {
+    return info.getTags().contains(RETRY_TAG);
   }
 }
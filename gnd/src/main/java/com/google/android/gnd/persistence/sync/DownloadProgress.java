@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.sync;
+
+import com.google.android.gnd.persistence.remote.TransferProgress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Combined progress of a batch of concurrent downloads, in bytes. Sizes of individual files become
+ * known only once their downloads start, so the total size of the batch is estimated from the
+ * sizes known so far. Instances are thread-safe.
+ */
+public class DownloadProgress {
+
+  private final AtomicLong bytesTransferred = new AtomicLong();
+
+  /** Number of files in the batch. Guarded by {@code this}. */
+  private int fileCount;
+
+  /** Number of files whose sizes are known. Guarded by {@code this}. */
+  private int sizedFileCount;
+
+  /** Combined size of files whose sizes are known. Guarded by {@code this}. */
+  private long sizedFileBytes;
+
+  public DownloadProgress(int fileCount) {
+    this.fileCount = fileCount;
+  }
+
+  /** Removes a file which doesn't need to be downloaded from the batch. */
+  public synchronized void skipFile() {
+    fileCount--;
+  }
+
+  /** Records the full size of one of the files in the batch, ignoring negative (unknown) sizes. */
+  public synchronized void addFileSize(long bytes) {
+    if (bytes >= 0) {
+      sizedFileCount++;
+      sizedFileBytes += bytes;
+    }
+  }
+
+  public void addBytesTransferred(long bytes) {
+    bytesTransferred.addAndGet(bytes);
+  }
+
+  public long getBytesTransferred() {
+    return bytesTransferred.get();
+  }
+
+  /**
+   * Returns the estimated combined size of all files in the batch, assuming files whose sizes
+   * aren't known yet are of average size.
+   */
+  public long getEstimatedTotalBytes() {
+    long estimate;
+    synchronized (this) {
+      if (sizedFileCount == 0) {
+        estimate = 0;
+      } else {
+        int unsizedFileCount = Math.max(0, fileCount - sizedFileCount);
+        estimate = sizedFileBytes + sizedFileBytes / sizedFileCount * unsizedFileCount;
+      }
+    }
+    return Math.max(estimate, getBytesTransferred());
+  }
+
+  /**
+   * Returns the current progress as a {@link TransferProgress}. Byte counts are scaled down as
+   * needed to fit in an {@code int}, preserving their ratio.
+   */
+  public TransferProgress toTransferProgress() {
+    long transferred = getBytesTransferred();
+    long total = getEstimatedTotalBytes();
+    int shift = 0;
+    while ((total >> shift) > Integer.MAX_VALUE) {
+      shift++;
+    }
+    return TransferProgress.inProgress((int) (total >> shift), (int) (transferred >> shift));
+  }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.sync;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java8.util.function.Predicate;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import timber.log.Timber;
+
+/**
+ * Downloads files over HTTP. Downloads may run concurrently on multiple threads; each copies its
+ * response to disk through a large buffer taken from a shared pool.
+ *
+ * <p>Data is first written to a temporary file next to the destination, which is only moved into
+ * place once the download is complete and verified, so that partially written or corrupt files are
+ * never read. Partial files are kept when a download fails midway so that the next attempt can
+ * resume where it left off, provided the server confirms that the file hasn't changed since.
+ *
+ * <p>Files which are fetched repeatedly can instead be refreshed with conditional requests, which
+ * only download the file again if it has changed on the server since it was last downloaded.
+ */
+@Singleton
+public class FileDownloader {
+
+  /** Size of buffers used to copy responses to disk, in bytes. */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Maximum number of idle buffers kept for reuse. */
+  private static final int MAX_POOLED_BUFFERS = 8;
+
+  /** Suffix of files containing data downloaded so far. */
+  static final String PART_FILE_SUFFIX = ".part";
+
+  /**
+   * Suffix of files containing the ETag or Last-Modified date of the response being written to the
+   * corresponding part file, used to resume downloads only if the file hasn't changed.
+   */
+  static final String VALIDATOR_FILE_SUFFIX = ".part.validator";
+
+  /**
+   * Suffix of files containing the ETag and Last-Modified date of a completed download, used to
+   * make conditional requests when refreshing it.
+   */
+  static final String CACHE_VALIDATORS_FILE_SUFFIX = ".validators";
+
+  // Not defined in HttpURLConnection.
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+  private static final Pattern CONTENT_RANGE_PATTERN =
+      Pattern.compile("bytes (?:(\\d+)-\\d+|\\*)/(\\d+|\\*)");
+
+  private final BlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  @Inject
+  public FileDownloader() {}
+
+  /**
+   * Downloads the file at the specified URL to {@code file}, blocking until the download completes.
+   * Bytes written are added to the specified progress as they're written.
+   *
+   * @param isValid checks the complete file before it's moved into place. Invalid files are deleted
+   *     rather than resumed.
+   * @return the number of bytes downloaded, excluding those downloaded by earlier attempts
+   * @throws IOException if the download fails or the downloaded file is invalid
+   */
+  public long download(String url, File file, DownloadProgress progress, Predicate<File> isValid)
+      throws IOException {
+    File partFile = new File(file.getPath() + PART_FILE_SUFFIX);
+    File validatorFile = new File(file.getPath() + VALIDATOR_FILE_SUFFIX);
+    long offset = partFile.length();
+    String validator = offset > 0 ? readValidator(validatorFile) : null;
+    if (validator == null) {
+      // Without a validator there's no way to know whether the partial file is still current.
+      offset = 0;
+    }
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      if (validator != null) {
+        // Request the remaining bytes, or the full file if it has changed since. See
+        // https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/If-Range
+        connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        connection.setRequestProperty("If-Range", validator);
+      }
+      int responseCode = connection.getResponseCode();
+      long bytesDownloaded = 0;
+      if (responseCode == HttpURLConnection.HTTP_OK) {
+        writeValidator(validatorFile, getValidator(connection));
+        bytesDownloaded = writeResponse(connection, partFile, 0, progress);
+      } else if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0) {
+        long[] contentRange = parseContentRange(connection);
+        if (contentRange[0] != offset) {
+          deleteAll(partFile, validatorFile);
+          throw new IOException("Unexpected Content-Range for " + url);
+        }
+        bytesDownloaded = writeResponse(connection, partFile, offset, progress);
+      } else if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+        // The previous attempt may have failed after receiving all data but before completing.
+        if (parseContentRange(connection)[1] != offset) {
+          deleteAll(partFile, validatorFile);
+          throw new IOException("Partial file is larger than " + url);
+        }
+        progress.addFileSize(offset);
+        progress.addBytesTransferred(offset);
+      } else {
+        throw new IOException("Unexpected response " + responseCode + " for " + url);
+      }
+      complete(partFile, validatorFile, file, isValid);
+      return bytesDownloaded;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Downloads the file at the specified URL to {@code file} unless the server reports that it
+   * hasn't changed since it was last downloaded by this method, blocking until done. Files must not
+   * be refreshed by more than one thread at a time.
+   *
+   * @return true if the file was downloaded, false if the existing file is still current
+   * @throws IOException if the request or download fails, in which case any existing file is left
+   *     as is
+   */
+  public boolean downloadIfModified(String url, File file) throws IOException {
+    File partFile = new File(file.getPath() + PART_FILE_SUFFIX);
+    File validatorsFile = new File(file.getPath() + CACHE_VALIDATORS_FILE_SUFFIX);
+    File parent = file.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Couldn't create " + parent);
+    }
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      if (file.exists()) {
+        List<String> validators = readCacheValidators(validatorsFile);
+        if (!validators.get(0).isEmpty()) {
+          connection.setRequestProperty("If-None-Match", validators.get(0));
+        }
+        if (!validators.get(1).isEmpty()) {
+          connection.setRequestProperty("If-Modified-Since", validators.get(1));
+        }
+      }
+      int responseCode = connection.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        return false;
+      }
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response " + responseCode + " for " + url);
+      }
+      writeResponse(connection, partFile, 0, new DownloadProgress(1));
+      // Validators are only written once the file is in place, so that they never describe an
+      // older or partially written file.
+      deleteAll(validatorsFile);
+      if (!partFile.renameTo(file)) {
+        throw new IOException("Couldn't move " + partFile + " to " + file);
+      }
+      writeCacheValidators(
+          validatorsFile,
+          connection.getHeaderField("ETag"),
+          connection.getHeaderField("Last-Modified"));
+      return true;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Returns the size of the file at the specified URL without downloading it, or -1 if the server
+   * doesn't report it.
+   */
+  public long fetchContentLength(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      connection.setRequestMethod("HEAD");
+      int responseCode = connection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response " + responseCode + " for " + url);
+      }
+      return getContentLength(connection);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Writes the response body to {@code partFile} starting at the specified offset, verifying that
+   * the complete body was received.
+   */
+  private long writeResponse(
+      HttpURLConnection connection, File partFile, long offset, DownloadProgress progress)
+      throws IOException {
+    long contentLength = getContentLength(connection);
+    progress.addFileSize(contentLength < 0 ? contentLength : offset + contentLength);
+    progress.addBytesTransferred(offset);
+    long bytesWritten;
+    try (InputStream in = connection.getInputStream();
+        OutputStream out = new FileOutputStream(partFile, offset > 0)) {
+      bytesWritten = copy(in, out, progress);
+    }
+    if (contentLength >= 0 && bytesWritten != contentLength) {
+      // Keep the partial file so that the download can be resumed.
+      throw new IOException(
+          "Received " + bytesWritten + " of " + contentLength + " bytes for " + partFile);
+    }
+    return bytesWritten;
+  }
+
+  private static void complete(
+      File partFile, File validatorFile, File file, Predicate<File> isValid) throws IOException {
+    if (!isValid.test(partFile)) {
+      deleteAll(partFile, validatorFile);
+      throw new IOException("Downloaded file is invalid: " + file);
+    }
+    if (!partFile.renameTo(file)) {
+      throw new IOException("Couldn't move " + partFile + " to " + file);
+    }
+    deleteAll(validatorFile);
+  }
+
+  private static void deleteAll(File... files) {
+    for (File file : files) {
+      if (file.exists() && !file.delete()) {
+        Timber.w("Couldn't delete %s", file);
+      }
+    }
+  }
+
+  /**
+   * Returns the strong ETag of the response if present, otherwise its Last-Modified date, for use
+   * in If-Range headers.
+   */
+  @Nullable
+  private static String getValidator(HttpURLConnection connection) {
+    String eTag = connection.getHeaderField("ETag");
+    // Weak ETags can't be used in If-Range headers.
+    if (eTag != null && !eTag.startsWith("W/")) {
+      return eTag;
+    }
+    return connection.getHeaderField("Last-Modified");
+  }
+
+  @Nullable
+  private static String readValidator(File validatorFile) {
+    if (!validatorFile.exists()) {
+      return null;
+    }
+    try {
+      String validator = Files.asCharSource(validatorFile, Charsets.UTF_8).read().trim();
+      return validator.isEmpty() ? null : validator;
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't read %s", validatorFile);
+      return null;
+    }
+  }
+
+  private static void writeValidator(File validatorFile, @Nullable String validator)
+      throws IOException {
+    if (validator == null) {
+      deleteAll(validatorFile);
+    } else {
+      Files.asCharSink(validatorFile, Charsets.UTF_8).write(validator);
+    }
+  }
+
+  /**
+   * Returns the ETag and Last-Modified date stored in {@code validatorsFile}, using empty strings
+   * for values which are missing.
+   */
+  private static List<String> readCacheValidators(File validatorsFile) {
+    List<String> validators = new ArrayList<>();
+    if (validatorsFile.exists()) {
+      try {
+        validators.addAll(Files.readLines(validatorsFile, Charsets.UTF_8));
+      } catch (IOException e) {
+        Timber.w(e, "Couldn't read %s", validatorsFile);
+      }
+    }
+    while (validators.size() < 2) {
+      validators.add("");
+    }
+    return validators;
+  }
+
+  private static void writeCacheValidators(
+      File validatorsFile, @Nullable String eTag, @Nullable String lastModified)
+      throws IOException {
+    if (eTag == null && lastModified == null) {
+      return;
+    }
+    Files.asCharSink(validatorsFile, Charsets.UTF_8)
+        .write(Strings.nullToEmpty(eTag) + "\n" + Strings.nullToEmpty(lastModified));
+  }
+
+  /**
+   * Returns the first byte position and complete length from the response's Content-Range header,
+   * using -1 for values which are missing or unknown.
+   */
+  private static long[] parseContentRange(HttpURLConnection connection) {
+    String value = connection.getHeaderField("Content-Range");
+    Matcher matcher = CONTENT_RANGE_PATTERN.matcher(value == null ? "" : value.trim());
+    if (!matcher.matches()) {
+      return new long[] {-1, -1};
+    }
+    return new long[] {parseLong(matcher.group(1)), parseLong(matcher.group(2))};
+  }
+
+  private static long parseLong(@Nullable String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** Returns the length of the response body, or -1 if unknown. */
+  private static long getContentLength(HttpURLConnection connection) {
+    // HttpURLConnection.getContentLength() overflows for files over 2 GB, and
+    // getContentLengthLong() isn't available on all supported API levels.
+    return parseLong(connection.getHeaderField("Content-Length"));
+  }
+
+  private long copy(InputStream in, OutputStream out, DownloadProgress progress)
+      throws IOException {
+    byte[] buffer = acquireBuffer();
+    try {
+      long total = 0;
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+        total += count;
+        progress.addBytesTransferred(count);
+      }
+      return total;
+    } finally {
+      bufferPool.offer(buffer);
+    }
+  }
+
+  private byte[] acquireBuffer() {
+    byte[] buffer = bufferPool.poll();
+    return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+  }
+}
@@ -22,39 +22,66 @@ import static java8.util.stream.StreamSupport.stream;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.hilt.Assisted;
 import androidx.hilt.work.WorkerInject;
-import androidx.work.Data;
 import androidx.work.WorkerParameters;
+import com.google.android.gnd.Config;
 import com.google.android.gnd.R;
 import com.google.android.gnd.model.Mutation;
 import com.google.android.gnd.model.User;
 import com.google.android.gnd.model.form.Field.Type;
 import com.google.android.gnd.model.observation.ObservationMutation;
 import com.google.android.gnd.persistence.local.LocalDataStore;
+import com.google.android.gnd.persistence.remote.RejectedMutationException;
 import com.google.android.gnd.persistence.remote.RemoteDataStore;
 import com.google.android.gnd.system.NotificationManager;
 import com.google.common.collect.ImmutableList;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
-import java8.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 import timber.log.Timber;
 
 /**
- * A worker that syncs local changes to the remote data store. Each instance handles mutations for a
- * specific map feature, whose id is provided in the {@link Data} object built by {@link
- * #createInputData} and provided to the worker request while being enqueued.
+ * A worker that syncs local changes to the remote data store. Each run drains all pending
+ * mutations in the local queue one page at a time, sending them to the remote data store in
+ * batches in the order in which they were made on the client.
+ *
+ * <p>Failures are tracked per mutation. When a batch is rejected, it's split until the rejected
+ * mutations are isolated, so that the rest can still be applied. Each failed mutation is retried
+ * with exponential backoff, stored in the mutation itself, and mutations rejected {@link
+ * Config#MAX_MUTATION_ATTEMPTS} times are quarantined. Later mutations of documents with failed or
+ * quarantined changes are held back so that changes to each document are applied in order.
+ * Quarantined mutations stay in the local db until they're retried or discarded via {@link
+ * LocalDataStore}.
  */
 public class LocalMutationSyncWorker extends BaseWorker {
 
-  private static final String FEATURE_ID_PARAM_KEY = "featureId";
+  /** Number of pending mutations read at once, enough to fill all batches in flight. */
+  private static final int PAGE_SIZE =
+      Config.MAX_MUTATIONS_PER_BATCH * Config.MAX_CONCURRENT_MUTATION_BATCHES;
 
   private final LocalDataStore localDataStore;
   private final RemoteDataStore remoteDataStore;
-  private final String featureId;
   private final PhotoSyncWorkManager photoSyncWorkManager;
+  private final DataSyncWorkManager dataSyncWorkManager;
+  private final Random random = new Random();
+
+  /** Documents whose pending changes must not be sent during this run. */
+  private final Set<String> blockedDocuments = Collections.synchronizedSet(new HashSet<>());
+
+  /** The earliest time at which a mutation held back during this run may be retried. */
+  private final AtomicLong nextAttemptTimestamp = new AtomicLong(Long.MAX_VALUE);
 
   @WorkerInject
   public LocalMutationSyncWorker(
@@ -63,67 +90,250 @@ public class LocalMutationSyncWorker extends BaseWorker {
       LocalDataStore localDataStore,
       RemoteDataStore remoteDataStore,
       NotificationManager notificationManager,
-      PhotoSyncWorkManager photoSyncWorkManager) {
+      PhotoSyncWorkManager photoSyncWorkManager,
+      DataSyncWorkManager dataSyncWorkManager) {
     super(context, params, notificationManager, LocalMutationSyncWorker.class.hashCode());
     this.localDataStore = localDataStore;
     this.remoteDataStore = remoteDataStore;
-    this.featureId = params.getInputData().getString(FEATURE_ID_PARAM_KEY);
     this.photoSyncWorkManager = photoSyncWorkManager;
-  }
-
-  /** Returns a new work {@link Data} object containing the specified feature id. */
-  public static Data createInputData(String featureId) {
-    return new Data.Builder().putString(FEATURE_ID_PARAM_KEY, featureId).build();
+    this.dataSyncWorkManager = dataSyncWorkManager;
   }
 
   @NonNull
   @Override
   public Result doWork() {
-    Timber.d("Connected. Syncing changes to feature %s", featureId);
-    ImmutableList<Mutation> mutations = localDataStore.getPendingMutations(featureId).blockingGet();
     try {
-      Timber.v("Mutations: %s", mutations);
-      processMutations(mutations).compose(this::notifyTransferState).blockingAwait();
+      ImmutableList<Mutation> firstPage =
+          localDataStore.getPendingMutationsPage(null, PAGE_SIZE).blockingGet();
+      if (firstPage.isEmpty()) {
+        Timber.d("No pending mutations to sync");
+        return Result.success();
+      }
+      Timber.d("Connected. Syncing pending mutations");
+      // Quarantined mutations of observations don't hold back changes to their features.
+      for (Mutation mutation : localDataStore.getQuarantinedMutations().blockingGet()) {
+        blockedDocuments.add(getDocumentKey(mutation));
+      }
+      Completable.fromAction(() -> syncPendingMutations(firstPage))
+          .compose(this::notifyTransferState)
+          .blockingAwait();
+      scheduleRetry();
       return Result.success();
     } catch (Throwable t) {
-      Timber.e(t, "Remote updates for feature %s failed", featureId);
-      localDataStore.updateMutations(incrementRetryCounts(mutations, t)).blockingAwait();
+      Timber.e(t, "Remote updates failed");
       return Result.retry();
     }
   }
 
   /**
-   * Groups mutations by user id, loads each user, applies mutations, and removes processed
-   * mutations.
+   * Pages through the local mutation queue starting with the specified page, uploading each page
+   * before reading the next so that memory use doesn't grow with the size of the queue.
+   */
+  private void syncPendingMutations(ImmutableList<Mutation> firstPage) {
+    ImmutableList<Mutation> page = firstPage;
+    while (!page.isEmpty()) {
+      ImmutableList<Mutation> mutations = withoutBlockedDocuments(holdBackNotDue(compact(page)));
+      processBatches(toBatches(mutations, Config.MAX_MUTATIONS_PER_BATCH)).blockingAwait();
+      Mutation last = page.get(page.size() - 1);
+      page = localDataStore.getPendingMutationsPage(last, PAGE_SIZE).blockingGet();
+    }
+  }
+
+  /** Enqueues another run for when the earliest mutation held back may be retried, if any. */
+  private void scheduleRetry() {
+    long nextAttempt = nextAttemptTimestamp.get();
+    if (nextAttempt == Long.MAX_VALUE) {
+      return;
+    }
+    long delayMillis = Math.max(0, nextAttempt - System.currentTimeMillis());
+    Timber.d("Retrying failed mutations in %d ms", delayMillis);
+    dataSyncWorkManager.enqueueSyncWorker(delayMillis).blockingAwait();
+  }
+
+  /**
+   * Returns the specified mutations, except those which can't be retried yet. The documents touched
+   * by those mutations are blocked until the next run.
+   */
+  private ImmutableList<Mutation> holdBackNotDue(ImmutableList<Mutation> mutations) {
+    long now = System.currentTimeMillis();
+    ImmutableList.Builder<Mutation> due = ImmutableList.builder();
+    for (Mutation mutation : mutations) {
+      if (mutation.getNextAttemptTimestamp() > now) {
+        blockedDocuments.addAll(getDocumentKeys(mutation));
+        updateNextAttemptTimestamp(mutation.getNextAttemptTimestamp());
+      } else {
+        due.add(mutation);
+      }
+    }
+    return due.build();
+  }
+
+  private void updateNextAttemptTimestamp(long timestamp) {
+    long current;
+    do {
+      current = nextAttemptTimestamp.get();
+    } while (timestamp < current && !nextAttemptTimestamp.compareAndSet(current, timestamp));
+  }
+
+  /** Returns the specified mutations, except those touching any blocked document. */
+  private ImmutableList<Mutation> withoutBlockedDocuments(ImmutableList<Mutation> mutations) {
+    if (blockedDocuments.isEmpty()) {
+      return mutations;
+    }
+    return stream(mutations)
+        .filter(mutation -> Collections.disjoint(getDocumentKeys(mutation), blockedDocuments))
+        .collect(toImmutableList());
+  }
+
+  /**
+   * Folds consecutive mutations of each feature and observation together, so that fewer writes are
+   * sent to the remote data store, and replaces the pending mutations in the local queue with the
+   * result.
+   */
+  private ImmutableList<Mutation> compact(ImmutableList<Mutation> pendingMutations) {
+    MutationCompaction compaction = MutationCompaction.of(pendingMutations);
+    if (compaction.hasChanges()) {
+      Timber.d(
+          "Compacted %d pending mutations into %d",
+          pendingMutations.size(), compaction.getMutations().size());
+      localDataStore
+          .updateAndRemoveMutations(compaction.getUpdated(), compaction.getRemoved())
+          .blockingAwait();
+    }
+    return compaction.getMutations();
+  }
+
+  /**
+   * Splits mutations into batches of at most {@code maxBatchSize} consecutive mutations made by the
+   * same user, preserving their original order.
+   */
+  @VisibleForTesting
+  static ImmutableList<ImmutableList<Mutation>> toBatches(
+      ImmutableList<Mutation> mutations, int maxBatchSize) {
+    ImmutableList.Builder<ImmutableList<Mutation>> batches = ImmutableList.builder();
+    List<Mutation> batch = new ArrayList<>();
+    for (Mutation mutation : mutations) {
+      if (batch.size() == maxBatchSize
+          || (!batch.isEmpty() && !batch.get(0).getUserId().equals(mutation.getUserId()))) {
+        batches.add(ImmutableList.copyOf(batch));
+        batch.clear();
+      }
+      batch.add(mutation);
+    }
+    if (!batch.isEmpty()) {
+      batches.add(ImmutableList.copyOf(batch));
+    }
+    return batches.build();
+  }
+
+  /**
+   * Commits up to {@link Config#MAX_CONCURRENT_MUTATION_BATCHES} batches at once. Batches which
+   * touch the same remote documents are always committed in order, so that later changes are never
+   * overwritten by earlier ones. Mutations of documents blocked by earlier failures are skipped.
+   */
+  private Completable processBatches(ImmutableList<ImmutableList<Mutation>> batches) {
+    Map<String, Completable> lastCommitByDocument = new HashMap<>();
+    List<Completable> commits = new ArrayList<>();
+    for (ImmutableList<Mutation> batch : batches) {
+      Set<String> documents = getDocumentKeys(batch);
+      Set<Completable> predecessors = new LinkedHashSet<>();
+      for (String document : documents) {
+        Completable predecessor = lastCommitByDocument.get(document);
+        if (predecessor != null) {
+          predecessors.add(predecessor);
+        }
+      }
+      Completable commit =
+          Completable.merge(predecessors)
+              .andThen(Completable.defer(() -> processBatch(withoutBlockedDocuments(batch))))
+              .cache();
+      for (String document : documents) {
+        lastCommitByDocument.put(document, commit);
+      }
+      commits.add(commit);
+    }
+    return Flowable.fromIterable(commits)
+        .flatMapCompletable(commit -> commit, true, Config.MAX_CONCURRENT_MUTATION_BATCHES);
+  }
+
+  /**
+   * Returns keys identifying the remote documents written by the specified mutations. Observation
+   * mutations are also considered to touch their parent feature, since deleting a feature also
+   * deletes its observations.
+   */
+  private static Set<String> getDocumentKeys(ImmutableList<Mutation> mutations) {
+    Set<String> keys = new HashSet<>();
+    for (Mutation mutation : mutations) {
+      keys.addAll(getDocumentKeys(mutation));
+    }
+    return keys;
+  }
+
+  private static Set<String> getDocumentKeys(Mutation mutation) {
+    Set<String> keys = new HashSet<>();
+    keys.add("features/" + mutation.getFeatureId());
+    keys.add(getDocumentKey(mutation));
+    return keys;
+  }
+
+  /** Returns a key identifying the remote document written by the specified mutation. */
+  private static String getDocumentKey(Mutation mutation) {
+    if (mutation instanceof ObservationMutation) {
+      return "observations/" + ((ObservationMutation) mutation).getObservationId();
+    } else {
+      return "features/" + mutation.getFeatureId();
+    }
+  }
+
+  /**
+   * Loads the user who made the mutations in the batch, applies the mutations, and removes them
+   * from the local queue. Failures to apply the batch are recorded in the failed mutations rather
+   * than propagated, so that they don't prevent unrelated batches from being applied.
    */
-  private Completable processMutations(ImmutableList<Mutation> pendingMutations) {
-    Map<String, ImmutableList<Mutation>> mutationsByUserId = groupByUserId(pendingMutations);
-    Set<String> userIds = mutationsByUserId.keySet();
-    return Observable.fromIterable(userIds)
-        .flatMapCompletable(userId -> {
-          ImmutableList<Mutation> mutations = mutationsByUserId.get(userId);
-          if (mutations == null) {
-            mutations = ImmutableList.of();
-          }
-          return processMutations(mutations, userId);
-        });
-  }
-
-  /** Loads each user with specified id, applies mutations, and removes processed mutations. */
-  private Completable processMutations(ImmutableList<Mutation> mutations, String userId) {
+  private Completable processBatch(ImmutableList<Mutation> mutations) {
+    if (mutations.isEmpty()) {
+      return Completable.complete();
+    }
     return localDataStore
-        .getUser(userId)
-        .flatMapCompletable(user -> processMutations(mutations, user))
+        .getUser(mutations.get(0).getUserId())
+        .toMaybe()
         .doOnError(__ -> Timber.d("User account removed before mutation processed"))
-        .onErrorComplete();
+        .onErrorComplete()
+        .flatMapCompletable(user -> processBatch(mutations, user));
+  }
+
+  /**
+   * Applies the mutations in the batch. If the remote data store rejects the batch, it's split in
+   * half and each half is applied separately, isolating the offending mutations in as few remote
+   * calls as possible. The second half is applied after the first so that it skips mutations of
+   * documents blocked by failures in the first half.
+   */
+  private Completable processBatch(ImmutableList<Mutation> mutations, User user) {
+    return processMutations(mutations, user)
+        .onErrorResumeNext(
+            t -> {
+              if (!(t instanceof RejectedMutationException) || mutations.size() == 1) {
+                return recordFailures(mutations, t);
+              }
+              int middle = mutations.size() / 2;
+              ImmutableList<Mutation> first = mutations.subList(0, middle);
+              ImmutableList<Mutation> second = mutations.subList(middle, mutations.size());
+              Timber.d("Batch of %d mutations rejected, retrying halves", mutations.size());
+              return processBatch(first, user)
+                  .andThen(
+                      Completable.defer(
+                          () -> processBatch(withoutBlockedDocuments(second), user)));
+            });
   }
 
   /** Applies mutations to remote data store. Once successful, removes them from the local db. */
   private Completable processMutations(ImmutableList<Mutation> mutations, User user) {
+    if (mutations.isEmpty()) {
+      return Completable.complete();
+    }
     return remoteDataStore
         .applyMutations(mutations, user)
         .andThen(processPhotoFieldMutations(mutations))
-        // TODO: If the remote sync fails, reset the state to DEFAULT.
         .andThen(localDataStore.finalizePendingMutations(mutations));
   }
 
@@ -142,23 +352,51 @@ public class LocalMutationSyncWorker extends BaseWorker {
                 Completable.fromRunnable(() -> photoSyncWorkManager.enqueueSyncWorker(remotePath)));
   }
 
-  private Map<String, ImmutableList<Mutation>> groupByUserId(
-      ImmutableList<Mutation> pendingMutations) {
-    return stream(pendingMutations)
-        .collect(Collectors.groupingBy(Mutation::getUserId, toImmutableList()));
-  }
-
-  private ImmutableList<Mutation> incrementRetryCounts(
-      ImmutableList<Mutation> mutations, Throwable error) {
-    return stream(mutations).map(m -> incrementRetryCount(m, error)).collect(toImmutableList());
+  /**
+   * Records a failed attempt to apply the specified mutations and blocks the documents they touch
+   * until the next run. Mutations are retried with exponential backoff, except those which have
+   * been rejected by the remote data store too many times, which are quarantined instead.
+   */
+  private Completable recordFailures(ImmutableList<Mutation> mutations, Throwable error) {
+    Timber.e(error, "Failed to apply %d mutations", mutations.size());
+    boolean rejected = error instanceof RejectedMutationException;
+    long now = System.currentTimeMillis();
+    ImmutableList.Builder<Mutation> retried = ImmutableList.builder();
+    ImmutableList.Builder<Mutation> quarantined = ImmutableList.builder();
+    for (Mutation mutation : mutations) {
+      long retryCount = mutation.getRetryCount() + 1;
+      Mutation failed =
+          mutation
+              .toBuilder()
+              .setRetryCount(retryCount)
+              .setLastError(error.toString())
+              .setNextAttemptTimestamp(now + getRetryDelayMillis(retryCount, random))
+              .build();
+      blockedDocuments.addAll(getDocumentKeys(failed));
+      if (rejected && retryCount >= Config.MAX_MUTATION_ATTEMPTS) {
+        quarantined.add(failed);
+      } else {
+        updateNextAttemptTimestamp(failed.getNextAttemptTimestamp());
+        retried.add(failed);
+      }
+    }
+    return localDataStore
+        .updateMutations(retried.build())
+        .andThen(localDataStore.quarantineMutations(quarantined.build()));
   }
 
-  private Mutation incrementRetryCount(Mutation mutation, Throwable error) {
-    return mutation
-        .toBuilder()
-        .setRetryCount(mutation.getRetryCount() + 1)
-        .setLastError(error.toString())
-        .build();
+  /**
+   * Returns the delay before the specified attempt, doubling on each attempt up to a maximum. Half
+   * of the delay is randomized so that retries of many clients failing at once are spread out.
+   */
+  @VisibleForTesting
+  static long getRetryDelayMillis(long retryCount, Random random) {
+    long delay = Config.MUTATION_RETRY_MAX_DELAY_MILLIS;
+    if (retryCount - 1 < Long.numberOfLeadingZeros(Config.MUTATION_RETRY_INITIAL_DELAY_MILLIS)) {
+      delay = Math.min(delay, Config.MUTATION_RETRY_INITIAL_DELAY_MILLIS << (retryCount - 1));
+    }
+    long half = delay / 2;
+    return half + (long) (random.nextDouble() * (delay - half));
   }
 
   @Override
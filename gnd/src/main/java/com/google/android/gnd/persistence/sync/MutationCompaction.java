@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.sync;
+
+import com.google.android.gnd.model.Mutation;
+import com.google.android.gnd.model.Mutation.Type;
+import com.google.android.gnd.model.feature.FeatureMutation;
+import com.google.android.gnd.model.observation.ObservationMutation;
+import com.google.android.gnd.model.observation.ResponseDelta;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of folding consecutive pending mutations of each feature and observation into as few
+ * mutations as possible before they're uploaded. Mutations made by the same user are folded as
+ * follows:
+ *
+ * <ul>
+ *   <li>CREATE or UPDATE followed by UPDATE becomes a single mutation of the first type, with
+ *       response changes merged so that the latest change to each field wins.
+ *   <li>CREATE followed by DELETE is dropped, along with pending changes to observations of a
+ *       dropped feature, since none of them ever need to reach the remote data store.
+ *   <li>UPDATE followed by DELETE becomes a single DELETE.
+ * </ul>
+ *
+ * <p>Folded mutations are stored in the local row of the first mutation they replace, so only rows
+ * returned by {@link #getUpdated()} need to be written back, and those returned by {@link
+ * #getRemoved()} deleted.
+ */
+final class MutationCompaction {
+
+  private final ImmutableList<Mutation> mutations;
+  private final ImmutableList<Mutation> updated;
+  private final ImmutableList<Mutation> removed;
+
+  private MutationCompaction(
+      ImmutableList<Mutation> mutations,
+      ImmutableList<Mutation> updated,
+      ImmutableList<Mutation> removed) {
+    this.mutations = mutations;
+    this.updated = updated;
+    this.removed = removed;
+  }
+
+  /** Compacts the specified mutations, which must be sorted in the order they were made. */
+  static MutationCompaction of(ImmutableList<Mutation> pendingMutations) {
+    // Slots are cleared rather than removed so that indices of later slots remain valid.
+    List<Mutation> slots = new ArrayList<>();
+    Map<String, Integer> lastSlotByEntity = new HashMap<>();
+    Set<String> droppedFeatureIds = new HashSet<>();
+    for (Mutation mutation : pendingMutations) {
+      String entity = getEntityKey(mutation);
+      Integer lastSlot = lastSlotByEntity.get(entity);
+      if (lastSlot == null || !canFold(slots.get(lastSlot), mutation)) {
+        lastSlotByEntity.put(entity, slots.size());
+        slots.add(mutation);
+        continue;
+      }
+      Mutation last = slots.get(lastSlot);
+      if (mutation.getType() == Type.UPDATE) {
+        slots.set(lastSlot, fold(last, mutation));
+      } else if (last.getType() == Type.CREATE) {
+        slots.set(lastSlot, null);
+        lastSlotByEntity.remove(entity);
+        if (mutation instanceof FeatureMutation) {
+          droppedFeatureIds.add(mutation.getFeatureId());
+        }
+      } else {
+        // Append rather than replace the UPDATE so that the DELETE stays after changes to other
+        // entities which preceded it.
+        slots.set(lastSlot, null);
+        lastSlotByEntity.put(entity, slots.size());
+        slots.add(mutation);
+      }
+    }
+    Map<String, Mutation> pendingByRow = new LinkedHashMap<>();
+    for (Mutation mutation : pendingMutations) {
+      pendingByRow.put(getRowKey(mutation), mutation);
+    }
+    ImmutableList.Builder<Mutation> compacted = ImmutableList.builder();
+    ImmutableList.Builder<Mutation> updated = ImmutableList.builder();
+    for (Mutation mutation : slots) {
+      if (mutation == null || droppedFeatureIds.contains(mutation.getFeatureId())) {
+        continue;
+      }
+      compacted.add(mutation);
+      Mutation original = pendingByRow.remove(getRowKey(mutation));
+      if (!mutation.equals(original)) {
+        updated.add(mutation);
+      }
+    }
+    return new MutationCompaction(
+        compacted.build(), updated.build(), ImmutableList.copyOf(pendingByRow.values()));
+  }
+
+  /**
+   * Returns a key identifying the local row of the specified mutation. Feature and observation
+   * mutations are stored in separate tables, so ids alone aren't unique.
+   */
+  private static String getRowKey(Mutation mutation) {
+    String table = mutation instanceof ObservationMutation ? "observation" : "feature";
+    return table + "_mutation:" + mutation.getId();
+  }
+
+  private static String getEntityKey(Mutation mutation) {
+    if (mutation instanceof ObservationMutation) {
+      return "observation:" + ((ObservationMutation) mutation).getObservationId();
+    } else {
+      return "feature:" + mutation.getFeatureId();
+    }
+  }
+
+  private static boolean canFold(Mutation last, Mutation next) {
+    return last.getUserId().equals(next.getUserId())
+        && last.getType() != Type.DELETE
+        && (next.getType() == Type.UPDATE || next.getType() == Type.DELETE);
+  }
+
+  /** Folds an UPDATE into the preceding CREATE or UPDATE of the same entity. */
+  private static Mutation fold(Mutation last, Mutation next) {
+    if (last instanceof ObservationMutation) {
+      return ((ObservationMutation) last)
+          .toBuilder()
+          .setResponseDeltas(
+              mergeResponseDeltas(
+                  ((ObservationMutation) last).getResponseDeltas(),
+                  ((ObservationMutation) next).getResponseDeltas()))
+          .setClientTimestamp(next.getClientTimestamp())
+          .build();
+    } else {
+      FeatureMutation nextFeatureMutation = (FeatureMutation) next;
+      FeatureMutation.Builder builder =
+          ((FeatureMutation) last).toBuilder().setClientTimestamp(next.getClientTimestamp());
+      if (nextFeatureMutation.getNewLocation().isPresent()) {
+        builder.setNewLocation(nextFeatureMutation.getNewLocation());
+      }
+      return builder.build();
+    }
+  }
+
+  private static ImmutableList<ResponseDelta> mergeResponseDeltas(
+      ImmutableList<ResponseDelta> first, ImmutableList<ResponseDelta> second) {
+    Map<String, ResponseDelta> deltasByFieldId = new LinkedHashMap<>();
+    for (ResponseDelta delta : first) {
+      deltasByFieldId.put(delta.getFieldId(), delta);
+    }
+    for (ResponseDelta delta : second) {
+      deltasByFieldId.put(delta.getFieldId(), delta);
+    }
+    return ImmutableList.copyOf(deltasByFieldId.values());
+  }
+
+  /** Returns the compacted mutations, in the order they should be uploaded. */
+  ImmutableList<Mutation> getMutations() {
+    return mutations;
+  }
+
+  /** Returns compacted mutations which differ from the pending mutation stored in the same row. */
+  ImmutableList<Mutation> getUpdated() {
+    return updated;
+  }
+
+  /** Returns pending mutations which were folded into others or dropped. */
+  ImmutableList<Mutation> getRemoved() {
+    return removed;
+  }
+
+  /** Returns true iff compaction changed any of the pending mutations. */
+  boolean hasChanges() {
+    return !updated.isEmpty() || !removed.isEmpty();
+  }
+}
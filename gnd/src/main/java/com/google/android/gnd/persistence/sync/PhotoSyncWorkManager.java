@@ -56,6 +56,12 @@ public class PhotoSyncWorkManager extends BaseWorkManager {
         : NetworkType.CONNECTED;
   }
 
+  /** Unlike data sync, photo uploads are deferred while the battery is low. */
+  @Override
+  protected boolean requiresBatteryNotLow() {
+    return true;
+  }
+
   /**
    * Enqueues a worker that uploads selected/captured photo to the remote FirestoreStorage once a
    * network connection is available. The returned {@code Completable} completes immediately as soon
@@ -47,6 +47,12 @@ public class TileSourceDownloadWorkManager extends BaseWorkManager {
         : NetworkType.CONNECTED;
   }
 
+  /** Tile sources can be very large, so avoid downloading them while the battery is low. */
+  @Override
+  protected boolean requiresBatteryNotLow() {
+    return true;
+  }
+
   /**
    * Enqueues a worker that downloads files when a network connection is available, returning a
    * completable upon enqueueing.
@@ -16,29 +16,42 @@
 
 package com.google.android.gnd.persistence.sync;
 
+import static com.google.android.gnd.util.ImmutableListCollector.toImmutableList;
+import static java8.util.stream.StreamSupport.stream;
+
 import android.content.Context;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.hilt.Assisted;
 import androidx.hilt.work.WorkerInject;
 import androidx.work.Data;
 import androidx.work.WorkerParameters;
+import com.google.android.gnd.Config;
 import com.google.android.gnd.R;
 import com.google.android.gnd.model.basemap.tile.TileSource;
 import com.google.android.gnd.model.basemap.tile.TileSource.State;
 import com.google.android.gnd.persistence.local.LocalDataStore;
-import com.google.android.gnd.persistence.remote.TransferProgress;
+import com.google.android.gnd.rx.Schedulers;
 import com.google.android.gnd.system.NotificationManager;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.subjects.CompletableSubject;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import timber.log.Timber;
 
 /**
@@ -47,135 +60,242 @@ import timber.log.Timber;
  * connection.
  */
 public class TileSourceDownloadWorker extends BaseWorker {
-  private static final int BUFFER_SIZE = 4096;
+  /** First bytes of all SQLite database files, including MBTiles files. */
+  private static final byte[] SQLITE_HEADER = "SQLite format 3\u0000".getBytes(Charsets.US_ASCII);
+
+  /** Interval at which combined download progress is reported, in milliseconds. */
+  private static final long PROGRESS_UPDATE_INTERVAL_MILLIS = 500;
+
+  /** Maximum time the outcomes of downloads are held before being written, in milliseconds. */
+  private static final long RESULT_BATCH_INTERVAL_MILLIS = 1000;
+
+  /** Maximum number of download outcomes written at once. */
+  private static final int RESULT_BATCH_SIZE = 50;
 
   private final Context context;
   private final LocalDataStore localDataStore;
+  private final FileDownloader fileDownloader;
+  private final Schedulers schedulers;
+
+  /** Completes when WorkManager stops this worker, e.g. when its constraints are no longer met. */
+  private final CompletableSubject stopped = CompletableSubject.create();
 
   @WorkerInject
   public TileSourceDownloadWorker(
       @Assisted @NonNull Context context,
       @Assisted @NonNull WorkerParameters params,
       LocalDataStore localDataStore,
+      FileDownloader fileDownloader,
+      Schedulers schedulers,
       NotificationManager notificationManager) {
     super(context, params, notificationManager, TileSourceDownloadWorker.class.hashCode());
     this.context = context;
     this.localDataStore = localDataStore;
+    this.fileDownloader = fileDownloader;
+    this.schedulers = schedulers;
   }
 
   /**
-   * Given a tile, downloads the given {@param tile}'s source file and saves it to the device's app
-   * storage. Optional HTTP request header {@param requestProperties} may be provided.
+   * Downloads the tile source file to the specified directory, returning the tile source updated
+   * with the outcome: {@code DOWNLOADED} with the size of the file, or {@code FAILED}.
    */
-  private void downloadTileFile(TileSource tileSource, Map<String, String> requestProperties)
-      throws TileSourceDownloadException {
+  private static Single<TileSource> downloadTileSource(
+      TileSource tileSource,
+      File directory,
+      FileDownloader fileDownloader,
+      DownloadProgress progress) {
+    // Downloads interrupted earlier are resumed by FileDownloader if possible.
+    File file = new File(directory, tileSource.getPath());
 
-    int mode = Context.MODE_PRIVATE;
+    return Single.fromCallable(
+            () -> {
+              fileDownloader.download(
+                  tileSource.getUrl(), file, progress, TileSourceDownloadWorker::isSqliteFile);
+              return tileSource.toBuilder()
+                  .setState(State.DOWNLOADED)
+                  .setSizeBytes(file.length())
+                  .build();
+            })
+        .onErrorReturn(
+            e -> {
+              Timber.d(e, "Failed to download tile: %s", tileSource);
+              return tileSource.toBuilder().setState(State.FAILED).build();
+            });
+  }
 
-    try {
-      URL url = new URL(tileSource.getUrl());
-      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-      if (!requestProperties.isEmpty()) {
-        for (Map.Entry<String, String> property : requestProperties.entrySet()) {
-          connection.setRequestProperty(property.getKey(), property.getValue());
-        }
-        mode = Context.MODE_APPEND;
-      }
+  /** Returns true iff the specified file begins with the SQLite database header. */
+  private static boolean isSqliteFile(File file) {
+    byte[] header = new byte[SQLITE_HEADER.length];
+    try (InputStream in = new FileInputStream(file)) {
+      return ByteStreams.read(in, header, 0, header.length) == header.length
+          && Arrays.equals(header, SQLITE_HEADER);
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't read %s", file);
+      return false;
+    }
+  }
 
-      connection.connect();
+  /**
+   * Verifies that {@param tile} marked as {@code Tile.State.DOWNLOADED} in the local database still
+   * exists in the app's storage. If the tile's source file isn't present, initiates a download of
+   * source file. Returns the tile source if it needs to be updated in the local database.
+   */
+  private static Maybe<TileSource> downloadIfNotFound(
+      TileSource tileSource,
+      File directory,
+      FileDownloader fileDownloader,
+      DownloadProgress progress) {
+    File file = new File(directory, tileSource.getPath());
 
-      try (InputStream is = connection.getInputStream();
-          FileOutputStream fos = context.openFileOutput(tileSource.getPath(), mode)) {
+    if (file.exists()) {
+      progress.skipFile();
+      if (tileSource.getSizeBytes() == 0) {
+        // Sizes weren't recorded for files downloaded by earlier versions.
+        return Maybe.just(tileSource.toBuilder().setSizeBytes(file.length()).build());
+      }
+      return Maybe.empty();
+    }
 
-        byte[] byteChunk = new byte[BUFFER_SIZE];
-        int n;
+    return downloadTileSource(tileSource, directory, fileDownloader, progress).toMaybe();
+  }
 
-        while ((n = is.read(byteChunk)) > 0) {
-          fos.write(byteChunk, 0, n);
-        }
-      }
-    } catch (IOException e) {
-      throw new TileSourceDownloadException("Failed to download tile", e);
+  /**
+   * Completes the download of a tile source left {@code IN_PROGRESS} by an interrupted run. Files
+   * are only moved into place once fully downloaded, so if the file exists, only the outcome needs
+   * to be recorded.
+   */
+  private static Maybe<TileSource> resumeDownload(
+      TileSource tileSource,
+      File directory,
+      FileDownloader fileDownloader,
+      DownloadProgress progress) {
+    File file = new File(directory, tileSource.getPath());
+
+    if (file.exists()) {
+      progress.skipFile();
+      return Maybe.just(
+          tileSource.toBuilder().setState(State.DOWNLOADED).setSizeBytes(file.length()).build());
     }
+
+    return downloadTileSource(tileSource, directory, fileDownloader, progress).toMaybe();
   }
 
-  /** Update a tile's state in the database and initiate a download of the tile source file. */
-  private Completable downloadTileSource(TileSource tileSource) {
-    Map<String, String> requestProperties = new HashMap<>();
-
-    // To resume a download for an in progress tile, we use the HTTP Range request property.
-    // The range property takes a range of bytes, the server returns the content of the resource
-    // that corresponds to the given byte range.
-    //
-    // To resume a download, we get the current length, in bytes, of the file on disk.
-    // appending '-' to the byte value tells the server to return the range of bytes from the given
-    // byte value to the end of the file, e.g. '500-' returns contents starting at byte 500 to EOF.
-    //
-    // Note that length returns 0 when the file does not exist, so this correctly handles an edge
-    // case whereby the local DB has a tile state of IN_PROGRESS but none of the file has been
-    // downloaded yet (since then we'll fetch the range '0-', the entire file).
-    //
-    // For more info see: https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Range
-    if (tileSource.getState() == State.IN_PROGRESS) {
-      File existingTileFile = new File(context.getFilesDir(), tileSource.getPath());
-      requestProperties.put("Range", "bytes=" + existingTileFile.length() + "-");
+  private static Maybe<TileSource> processTileSource(
+      TileSource tileSource,
+      File directory,
+      FileDownloader fileDownloader,
+      DownloadProgress progress) {
+    switch (tileSource.getState()) {
+      case DOWNLOADED:
+        return downloadIfNotFound(tileSource, directory, fileDownloader, progress);
+      case IN_PROGRESS:
+        return resumeDownload(tileSource, directory, fileDownloader, progress);
+      case PENDING:
+      case FAILED:
+      default:
+        return downloadTileSource(tileSource, directory, fileDownloader, progress).toMaybe();
     }
+  }
 
-    return localDataStore
-        .insertOrUpdateTileSource(
-            tileSource.toBuilder().setState(TileSource.State.IN_PROGRESS).build())
-        .andThen(
-            Completable.fromRunnable(
-                () -> {
-                  downloadTileFile(tileSource, requestProperties);
-                }))
-        .onErrorResumeNext(
-            e -> {
-              Timber.d(e, "Failed to download tile: %s", tileSource);
-              return localDataStore.insertOrUpdateTileSource(
-                  tileSource.toBuilder().setState(State.FAILED).build());
-            })
-        .andThen(
-            localDataStore.insertOrUpdateTileSource(
-                tileSource.toBuilder().setState(State.DOWNLOADED).build()));
+  /**
+   * Downloads the specified tile sources to {@code directory}, running up to {@code
+   * maxConcurrentDownloads} downloads at once on the specified scheduler. Emits each tile source
+   * which needs to be updated in the local db once its download completes or fails.
+   */
+  @VisibleForTesting
+  static Flowable<TileSource> downloadTileSources(
+      ImmutableList<TileSource> tileSources,
+      File directory,
+      FileDownloader fileDownloader,
+      DownloadProgress progress,
+      Scheduler scheduler,
+      int maxConcurrentDownloads) {
+    return Flowable.fromIterable(tileSources)
+        .flatMapMaybe(
+            tileSource ->
+                processTileSource(tileSource, directory, fileDownloader, progress)
+                    .subscribeOn(scheduler),
+            false,
+            maxConcurrentDownloads);
   }
 
   /**
-   * Verifies that {@param tile} marked as {@code Tile.State.DOWNLOADED} in the local database still
-   * exists in the app's storage. If the tile's source file isn't present, initiates a download of
-   * source file.
+   * Writes the tile sources emitted by {@code tileSources} to the local db in batches, so that
+   * observers of the tile source table re-read it once per batch rather than once per tile source.
+   * Tile sources not yet written when the returned {@link Completable} is disposed are written
+   * before disposal returns, so that downloads finished before a run is stopped aren't repeated.
    */
-  private Completable downloadIfNotFound(TileSource tileSource) {
-    File file = new File(context.getFilesDir(), tileSource.getPath());
+  @VisibleForTesting
+  static Completable saveTileSources(
+      Flowable<TileSource> tileSources, LocalDataStore localDataStore, Scheduler scheduler) {
+    return Completable.defer(
+        () -> {
+          Set<TileSource> unsaved = Collections.synchronizedSet(new LinkedHashSet<>());
+          return tileSources
+              .doOnNext(unsaved::add)
+              .buffer(
+                  RESULT_BATCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS, scheduler, RESULT_BATCH_SIZE)
+              .filter(batch -> !batch.isEmpty())
+              .concatMapCompletable(
+                  batch ->
+                      localDataStore
+                          .updateTileSourceStatesAndSizes(ImmutableList.copyOf(batch))
+                          .doOnComplete(() -> unsaved.removeAll(batch)))
+              .doOnDispose(() -> saveBlocking(unsaved, localDataStore));
+        });
+  }
 
-    if (file.exists()) {
-      return Completable.complete();
+  private static void saveBlocking(Set<TileSource> tileSources, LocalDataStore localDataStore) {
+    ImmutableList<TileSource> snapshot;
+    synchronized (tileSources) {
+      snapshot = ImmutableList.copyOf(tileSources);
+    }
+    if (snapshot.isEmpty()) {
+      return;
+    }
+    try {
+      localDataStore.updateTileSourceStatesAndSizes(snapshot).blockingAwait();
+    } catch (RuntimeException e) {
+      // Tile sources left IN_PROGRESS are checked for completed files on the next run.
+      Timber.e(e, "Failed to save tile sources: %s", snapshot);
     }
-
-    return downloadTileSource(tileSource);
   }
 
+  /**
+   * Downloads the specified tile sources, running up to {@link
+   * Config#MAX_CONCURRENT_TILE_SOURCE_DOWNLOADS} downloads at once and periodically reporting their
+   * combined progress in bytes.
+   *
+   * <p>Tile sources are all marked {@code IN_PROGRESS} with a single update. Those left in that
+   * state by an interrupted run are picked up again by the next one.
+   */
   private Completable processTileSources(ImmutableList<TileSource> pendingTileSources) {
-    return Observable.fromIterable(pendingTileSources)
-        .doOnNext(
-            tile ->
-                sendNotification(
-                    TransferProgress.inProgress(
-                        pendingTileSources.size(), pendingTileSources.indexOf(tile) + 1)))
-        .flatMapCompletable(
-            t -> {
-              switch (t.getState()) {
-                case DOWNLOADED:
-                  return downloadIfNotFound(t);
-                case PENDING:
-                case IN_PROGRESS:
-                case FAILED:
-                default:
-                  return downloadTileSource(t);
-              }
-            })
-        .compose(this::notifyTransferState);
+    DownloadProgress progress = new DownloadProgress(pendingTileSources.size());
+    ImmutableList<String> downloadUrls =
+        stream(pendingTileSources)
+            .filter(tileSource -> tileSource.getState() != State.DOWNLOADED)
+            .map(TileSource::getUrl)
+            .collect(toImmutableList());
+    Completable downloads =
+        localDataStore
+            .updateTileSourceStates(downloadUrls, State.IN_PROGRESS)
+            .andThen(
+                saveTileSources(
+                    downloadTileSources(
+                        pendingTileSources,
+                        context.getFilesDir(),
+                        fileDownloader,
+                        progress,
+                        schedulers.io(),
+                        Config.MAX_CONCURRENT_TILE_SOURCE_DOWNLOADS),
+                    localDataStore,
+                    schedulers.computation()));
+    Completable progressUpdates =
+        Observable.interval(PROGRESS_UPDATE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+            .doOnNext(__ -> sendNotification(progress.toTransferProgress()))
+            .ignoreElements();
+    // Progress updates never complete, so this terminates as soon as the downloads do.
+    return Completable.ambArray(downloads, progressUpdates).compose(this::notifyTransferState);
   }
 
   /**
@@ -199,7 +319,8 @@ public class TileSourceDownloadWorker extends BaseWorker {
     Timber.d("Downloading tiles: %s", pendingTileSources);
 
     try {
-      processTileSources(pendingTileSources).blockingAwait();
+      // Stopping the worker disposes the downloads, which saves those already finished.
+      processTileSources(pendingTileSources).takeUntil(stopped).blockingAwait();
       return Result.success();
     } catch (Throwable t) {
       Timber.d(t, "Downloads for tiles failed: %s", pendingTileSources);
@@ -208,13 +329,13 @@ public class TileSourceDownloadWorker extends BaseWorker {
   }
 
   @Override
-  public String getNotificationTitle() {
-    return getApplicationContext().getString(R.string.downloading_tiles);
+  public void onStopped() {
+    super.onStopped();
+    stopped.onComplete();
   }
 
-  static class TileSourceDownloadException extends RuntimeException {
-    TileSourceDownloadException(String msg, Throwable e) {
-      super(msg, e);
-    }
+  @Override
+  public String getNotificationTitle() {
+    return getApplicationContext().getString(R.string.downloading_tiles);
   }
 }
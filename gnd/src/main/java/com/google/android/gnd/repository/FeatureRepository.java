@@ -16,6 +16,7 @@
 
 package com.google.android.gnd.repository;
 
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.AuditInfo;
 import com.google.android.gnd.model.Mutation.Type;
 import com.google.android.gnd.model.Project;
@@ -33,12 +34,18 @@ import com.google.android.gnd.persistence.uuid.OfflineUuidGenerator;
 import com.google.android.gnd.rx.Loadable;
 import com.google.android.gnd.rx.annotations.Cold;
 import com.google.android.gnd.system.auth.AuthenticationManager;
-import com.google.common.collect.ImmutableSet;
+import com.google.android.gnd.ui.map.CameraPosition;
+import com.google.android.gnd.util.ChangeSet;
+import com.google.common.collect.ImmutableList;
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.reactivex.Maybe;
 import io.reactivex.Single;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java8.util.Optional;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -52,6 +59,18 @@ import timber.log.Timber;
 @Singleton
 public class FeatureRepository {
 
+  /**
+   * Number of zoom levels by which the window of features loaded from the local db is coarser than
+   * the viewport query bounds.
+   */
+  private static final int LOAD_WINDOW_ZOOM_OFFSET = 2;
+
+  /** Maximum time remote feature changes are buffered before being written to the local db. */
+  private static final long SYNC_BATCH_WINDOW_MILLIS = 250;
+
+  /** Maximum number of remote feature changes written to the local db in one transaction. */
+  private static final int SYNC_BATCH_MAX_SIZE = 500;
+
   private final LocalDataStore localDataStore;
   private final RemoteDataStore remoteDataStore;
   private final ProjectRepository projectRepository;
@@ -78,38 +97,120 @@ public class FeatureRepository {
   /**
    * Mirrors features in the specified project from the remote db into the local db when the network
    * is available. When invoked, will first attempt to resync all features from the remote db,
-   * subsequently syncing only remote changes. The returned stream never completes, and
-   * subscriptions will only terminate on disposal.
+   * subsequently syncing only remote changes. Remote changes are written to the local db in
+   * batches of up to {@link #SYNC_BATCH_MAX_SIZE} events received within {@link
+   * #SYNC_BATCH_WINDOW_MILLIS} of each other, each applied in a single transaction. The returned
+   * stream never completes, and subscriptions will only terminate on disposal.
    */
   @Cold
   public Completable syncFeatures(Project project) {
     return remoteDataStore
         .loadFeaturesOnceAndStreamChanges(project)
-        .flatMapCompletable(this::updateLocalFeature);
+        .buffer(SYNC_BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS, SYNC_BATCH_MAX_SIZE)
+        .filter(events -> !events.isEmpty())
+        .onBackpressureBuffer()
+        .concatMapCompletable(this::updateLocalFeatures);
   }
 
   // TODO: Remove "feature" qualifier from this and other repository method names.
   @Cold
-  private Completable updateLocalFeature(RemoteDataEvent<Feature> event) {
-    switch (event.getEventType()) {
-      case ENTITY_LOADED:
-      case ENTITY_MODIFIED:
-        return event.value().map(localDataStore::mergeFeature).orElse(Completable.complete());
-      case ENTITY_REMOVED:
-        return localDataStore.deleteFeature(event.getEntityId());
-      case ERROR:
-        event.error().ifPresent(e -> Timber.d(e, "Invalid features in remote db ignored"));
-        return Completable.complete();
-      default:
-        return Completable.error(
-            new UnsupportedOperationException("Event type: " + event.getEventType()));
+  private Completable updateLocalFeatures(List<RemoteDataEvent<Feature>> events) {
+    // Only the last event for each feature in the batch needs to be applied; features mapped to
+    // empty values were removed.
+    Map<String, Optional<Feature>> changes = new LinkedHashMap<>();
+    for (RemoteDataEvent<Feature> event : events) {
+      switch (event.getEventType()) {
+        case ENTITY_LOADED:
+        case ENTITY_MODIFIED:
+          event.value().ifPresent(f -> changes.put(event.getEntityId(), Optional.of(f)));
+          break;
+        case ENTITY_REMOVED:
+          changes.put(event.getEntityId(), Optional.empty());
+          break;
+        case ERROR:
+          event.error().ifPresent(e -> Timber.d(e, "Invalid features in remote db ignored"));
+          break;
+        default:
+          return Completable.error(
+              new UnsupportedOperationException("Event type: " + event.getEventType()));
+      }
+    }
+    ImmutableList.Builder<Feature> features = ImmutableList.builder();
+    ImmutableList.Builder<String> deletedIds = ImmutableList.builder();
+    for (Map.Entry<String, Optional<Feature>> change : changes.entrySet()) {
+      if (change.getValue().isPresent()) {
+        features.add(change.getValue().get());
+      } else {
+        deletedIds.add(change.getKey());
+      }
     }
+    return localDataStore.mergeAndDeleteFeatures(features.build(), deletedIds.build());
   }
 
-  // TODO: Only return feature fields needed to render features on map.
+  /**
+   * Returns a long-lived stream that emits changes to the set of features in the specified project
+   * which fall within the latest camera viewport (plus a margin), as returned by {@link
+   * InMemoryCache#getFeaturesInBounds}. The first change set is a snapshot of all features, which
+   * is narrowed down once a camera position with known bounds is received. Camera moves which don't
+   * change the padded query bounds are ignored.
+   *
+   * <p>Features are read from the local db in a window {@link #LOAD_WINDOW_ZOOM_OFFSET} zoom levels
+   * coarser than the query bounds, so the db is only re-queried after larger pans or zooms. Each
+   * subscription indexes its own window, so subscribers following different viewports don't
+   * replace each other's features.
+   */
   @Cold(terminates = false)
-  public Flowable<ImmutableSet<Feature>> getFeaturesOnceAndStream(Project project) {
-    return localDataStore.getFeaturesOnceAndStream(project);
+  public Flowable<ChangeSet<Feature>> getFeatureChangesInViewportOnceAndStream(
+      Project project, Flowable<CameraPosition> cameraPositions) {
+    Flowable<Optional<CameraPosition>> viewports =
+        cameraPositions
+            .filter(position -> position.getBounds().isPresent())
+            .distinctUntilChanged(FeatureRepository::isSameQueryBounds)
+            .map(Optional::of)
+            .startWith(Optional.empty());
+    return Flowable.defer(
+        () -> {
+          InMemoryCache windowFeatures = new InMemoryCache();
+          return viewports
+              .publish(
+                  shared ->
+                      Flowable.combineLatest(
+                          shared
+                              .map(FeatureRepository::toLoadWindow)
+                              .distinctUntilChanged()
+                              .switchMap(
+                                  window ->
+                                      getFeatureChangesInWindowOnceAndStream(project, window)
+                                          .doOnNext(windowFeatures::applyChanges)),
+                          shared,
+                          (__, viewport) ->
+                              viewport
+                                  .map(
+                                      v ->
+                                          windowFeatures.getFeaturesInBounds(
+                                              v.getBounds().get(), v.getZoomLevel()))
+                                  .orElseGet(windowFeatures::getFeatures)))
+              .compose(ChangeSet.diffs(Feature::getId));
+        });
+  }
+
+  private Flowable<ChangeSet<Feature>> getFeatureChangesInWindowOnceAndStream(
+      Project project, Optional<LatLngBounds> window) {
+    return window.isPresent()
+        ? localDataStore.getFeatureChangesInBoundsOnceAndStream(project, window.get())
+        : localDataStore.getFeatureChangesOnceAndStream(project);
+  }
+
+  private static Optional<LatLngBounds> toLoadWindow(Optional<CameraPosition> viewport) {
+    return viewport.map(
+        v ->
+            InMemoryCache.toQueryBounds(
+                v.getBounds().get(), v.getZoomLevel() - LOAD_WINDOW_ZOOM_OFFSET));
+  }
+
+  private static boolean isSameQueryBounds(CameraPosition a, CameraPosition b) {
+    return InMemoryCache.toQueryBounds(a.getBounds().get(), a.getZoomLevel())
+        .equals(InMemoryCache.toQueryBounds(b.getBounds().get(), b.getZoomLevel()));
   }
 
   // TODO: Replace with Single and treat missing feature as error.
@@ -180,7 +281,7 @@ public class FeatureRepository {
   @Cold
   private Completable applyAndEnqueue(Feature feature, Type type) {
     Completable localTransaction = localDataStore.applyAndEnqueue(fromFeature(feature, type));
-    Completable remoteSync = dataSyncWorkManager.enqueueSyncWorker(feature.getId());
+    Completable remoteSync = dataSyncWorkManager.enqueueSyncWorker();
     return localTransaction.andThen(remoteSync);
   }
 }
@@ -16,41 +16,170 @@
 
 package com.google.android.gnd.repository;
 
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.feature.Feature;
+import com.google.android.gnd.model.feature.GeoJsonFeature;
+import com.google.android.gnd.model.feature.Point;
+import com.google.android.gnd.model.feature.PointFeature;
+import com.google.android.gnd.util.ChangeSet;
+import com.google.android.gnd.util.SpatialIndex;
 import com.google.common.collect.ImmutableSet;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java8.util.Optional;
 import javax.inject.Inject;
+import timber.log.Timber;
 
 /** Ephemeral storage of application state. This can be destroyed without notice. */
 public class InMemoryCache {
+  /**
+   * Fraction of the viewport's height and width added to each side of the bounds passed to {@link
+   * #getFeaturesInBounds}, so that features just outside the viewport are already rendered when the
+   * user pans.
+   */
+  private static final double VIEWPORT_MARGIN = 0.5;
+
+  private static final double MAX_LONGITUDE = 179.999999;
+
   // TODO: Store map vector objects here instead of Feature objects.
   private final Map<String, Feature> features;
 
+  /** Bounding boxes of features in {@link #features}, keyed by feature id. */
+  private final SpatialIndex<String> featureIndex;
+
   @Inject
   public InMemoryCache() {
     this.features = new LinkedHashMap<>();
+    this.featureIndex = new SpatialIndex<>();
   }
 
   public synchronized void putFeature(Feature feature) {
     features.put(feature.getId(), feature);
+    indexFeature(feature);
   }
 
-  public void removeFeature(String id) {
+  public synchronized void removeFeature(String id) {
     features.remove(id);
+    featureIndex.remove(id);
+  }
+
+  /**
+   * Replaces the cached features with the specified set. Only features which were added, changed
+   * or removed since the last call are reindexed.
+   */
+  public synchronized void setFeatures(ImmutableSet<Feature> newFeatures) {
+    Set<String> removedIds = new HashSet<>(features.keySet());
+    for (Feature feature : newFeatures) {
+      removedIds.remove(feature.getId());
+      if (!feature.equals(features.get(feature.getId()))) {
+        putFeature(feature);
+      }
+    }
+    for (String id : removedIds) {
+      removeFeature(id);
+    }
+  }
+
+  /**
+   * Applies the specified changes to the cached features. Snapshots replace all cached features;
+   * otherwise, added and modified features are stored and removed features are evicted.
+   */
+  public synchronized void applyChanges(ChangeSet<Feature> changes) {
+    if (changes.isSnapshot()) {
+      setFeatures(ImmutableSet.copyOf(changes.getAdded().values()));
+      return;
+    }
+    for (Feature feature : changes.getAdded().values()) {
+      putFeature(feature);
+    }
+    for (Feature feature : changes.getModified().values()) {
+      putFeature(feature);
+    }
+    for (String id : changes.getRemoved()) {
+      removeFeature(id);
+    }
   }
 
   public synchronized ImmutableSet<Feature> getFeatures() {
     return ImmutableSet.copyOf(features.values());
   }
 
+  /**
+   * Returns the cached features whose geometries intersect the specified viewport, expanded by a
+   * margin on each side. The expanded bounds are snapped outward to a grid whose cell size halves
+   * with each zoom level, so that small pans return the same result.
+   */
+  public synchronized ImmutableSet<Feature> getFeaturesInBounds(LatLngBounds bounds, float zoom) {
+    ImmutableSet.Builder<Feature> results = ImmutableSet.builder();
+    for (String id : featureIndex.query(toQueryBounds(bounds, zoom))) {
+      Feature feature = features.get(id);
+      if (feature != null) {
+        results.add(feature);
+      }
+    }
+    return results.build();
+  }
+
   /** Clears the cache. */
-  public void clear() {
+  public synchronized void clear() {
     features.clear();
+    featureIndex.clear();
   }
 
-  public Optional<Feature> getFeature(String featureId) {
+  public synchronized Optional<Feature> getFeature(String featureId) {
     return Optional.ofNullable(features.get(featureId));
   }
+
+  private void indexFeature(Feature feature) {
+    if (feature instanceof PointFeature) {
+      Point point = ((PointFeature) feature).getPoint();
+      featureIndex.put(feature.getId(), point.getLatitude(), point.getLongitude());
+    } else if (feature instanceof GeoJsonFeature) {
+      Optional<LatLngBounds> bounds = ((GeoJsonFeature) feature).getBounds();
+      if (bounds.isPresent()) {
+        featureIndex.put(feature.getId(), bounds.get());
+      } else {
+        // Keep features whose extent is unknown visible in every viewport rather than dropping
+        // them from the map.
+        Timber.w("Bounds of feature %s unknown, indexing as whole world", feature.getId());
+        featureIndex.put(feature.getId(), -90, -180, 90, 180);
+      }
+    }
+  }
+
+  /** Expands and snaps the viewport bounds as described in {@link #getFeaturesInBounds}. */
+  static LatLngBounds toQueryBounds(LatLngBounds bounds, float zoom) {
+    double south = bounds.southwest.latitude;
+    double north = bounds.northeast.latitude;
+    double west = bounds.southwest.longitude;
+    double east = bounds.northeast.longitude;
+    if (east < west) {
+      // Viewport crosses the antimeridian.
+      east += 360;
+    }
+    double latMargin = (north - south) * VIEWPORT_MARGIN;
+    double lngMargin = (east - west) * VIEWPORT_MARGIN;
+    double cellSize = 360.0 / Math.pow(2, Math.max(0, Math.floor(zoom)));
+    south = Math.max(-90, snapDown(south - latMargin, cellSize));
+    north = Math.min(90, snapUp(north + latMargin, cellSize));
+    west = snapDown(west - lngMargin, cellSize);
+    east = snapUp(east + lngMargin, cellSize);
+    if (east - west >= 360) {
+      west = -180;
+      // LatLng normalizes 180 to -180, so stop just short of it.
+      east = MAX_LONGITUDE;
+    }
+    return new LatLngBounds(new LatLng(south, west), new LatLng(north, east));
+  }
+
+  private static double snapDown(double value, double cellSize) {
+    return Math.floor(value / cellSize) * cellSize;
+  }
+
+  private static double snapUp(double value, double cellSize) {
+    return Math.ceil(value / cellSize) * cellSize;
+  }
 }
@@ -176,6 +176,6 @@ public class ObservationRepository {
   private Completable applyAndEnqueue(ObservationMutation mutation) {
     return localDataStore
         .applyAndEnqueue(mutation)
-        .andThen(dataSyncWorkManager.enqueueSyncWorker(mutation.getFeatureId()));
+        .andThen(dataSyncWorkManager.enqueueSyncWorker());
   }
 }
@@ -21,13 +21,16 @@ import static com.google.android.gnd.util.ImmutableSetCollector.toImmutableSet;
 import static java8.util.stream.StreamSupport.stream;
 
 import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gnd.Config;
 import com.google.android.gnd.model.Project;
 import com.google.android.gnd.model.basemap.OfflineBaseMap;
 import com.google.android.gnd.model.basemap.OfflineBaseMap.State;
+import com.google.android.gnd.model.basemap.OfflineBaseMapSizeEstimate;
 import com.google.android.gnd.model.basemap.OfflineBaseMapSource;
 import com.google.android.gnd.model.basemap.tile.TileSource;
 import com.google.android.gnd.persistence.local.LocalDataStore;
 import com.google.android.gnd.persistence.mbtiles.MbtilesFootprintParser;
+import com.google.android.gnd.persistence.sync.FileDownloader;
 import com.google.android.gnd.persistence.sync.TileSourceDownloadWorkManager;
 import com.google.android.gnd.rx.Loadable;
 import com.google.android.gnd.rx.Schedulers;
@@ -43,9 +46,13 @@ import io.reactivex.Single;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.inject.Inject;
-import org.apache.commons.io.FileUtils;
 import timber.log.Timber;
 
 public class OfflineBaseMapRepository {
@@ -53,22 +60,28 @@ public class OfflineBaseMapRepository {
   private final LocalDataStore localDataStore;
   private final ProjectRepository projectRepository;
   private final MbtilesFootprintParser geoJsonParser;
+  private final FileDownloader fileDownloader;
   private final FileUtil fileUtil;
   private final Schedulers schedulers;
   private final GeocodingManager geocodingManager;
 
+  /** Sizes of tile sources not yet downloaded, in bytes, keyed by URL. */
+  private final Map<String, Long> tileSourceSizes = new ConcurrentHashMap<>();
+
   @Inject
   public OfflineBaseMapRepository(
       TileSourceDownloadWorkManager tileSourceDownloadWorkManager,
       LocalDataStore localDataStore,
       ProjectRepository projectRepository,
       MbtilesFootprintParser geoJsonParser,
+      FileDownloader fileDownloader,
       FileUtil fileUtil,
       Schedulers schedulers,
       GeocodingManager geocodingManager) {
     this.tileSourceDownloadWorkManager = tileSourceDownloadWorkManager;
     this.localDataStore = localDataStore;
     this.geoJsonParser = geoJsonParser;
+    this.fileDownloader = fileDownloader;
     this.projectRepository = projectRepository;
     this.fileUtil = fileUtil;
     this.schedulers = schedulers;
@@ -76,32 +89,44 @@ public class OfflineBaseMapRepository {
   }
 
   /**
-   * Download the offline basemap source for the active project.
+   * Returns the local copy of the offline basemap source for the active project, first downloading
+   * it if it changed on the server since it was last downloaded.
    *
-   * <p>Only the first basemap source is used. Sources are always re-downloaded and overwritten on
-   * subsequent calls.
+   * <p>The existing copy is returned as is if the server can't be reached. Since the copy is only
+   * replaced when its content changes, its parsed footprints remain cached until then.
    */
-  private File downloadOfflineBaseMapSource(OfflineBaseMapSource offlineBaseMapSource)
+  private synchronized File downloadOfflineBaseMapSource(OfflineBaseMapSource offlineBaseMapSource)
       throws IOException {
-
     URL baseMapUrl = offlineBaseMapSource.getUrl();
-    Timber.d("Basemap url: %s, file: %s", baseMapUrl, baseMapUrl.getFile());
     File localFile = fileUtil.getOrCreateFile(baseMapUrl.getFile());
-
-    FileUtils.copyURLToFile(baseMapUrl, localFile);
+    try {
+      if (fileDownloader.downloadIfModified(baseMapUrl.toString(), localFile)) {
+        Timber.d("Basemap source downloaded from %s to %s", baseMapUrl, localFile);
+      }
+    } catch (IOException e) {
+      if (!localFile.exists()) {
+        throw e;
+      }
+      Timber.w(e, "Using previously downloaded basemap source %s", localFile);
+    }
     return localFile;
   }
 
+  /**
+   * Returns the local copy of the offline basemap source, downloading it only if there isn't one.
+   */
+  private File getLocalOfflineBaseMapSource(OfflineBaseMapSource offlineBaseMapSource)
+      throws IOException {
+    File localFile = fileUtil.getOrCreateFile(offlineBaseMapSource.getUrl().getFile());
+    return localFile.exists() ? localFile : downloadOfflineBaseMapSource(offlineBaseMapSource);
+  }
+
   /** Enqueue a single area and its tile sources for download. */
   private Completable enqueueDownload(OfflineBaseMap area, ImmutableList<TileSource> tileSources) {
-    return Flowable.fromIterable(tileSources)
-        .flatMapCompletable(
-            tileSource ->
-                localDataStore
-                    .getTileSource(tileSource.getUrl())
-                    .map(TileSource::incrementAreaCount)
-                    .toSingle(tileSource)
-                    .flatMapCompletable(localDataStore::insertOrUpdateTileSource))
+    return localDataStore
+        .getTileSources(stream(tileSources).map(TileSource::getUrl).collect(toImmutableList()))
+        .map(existingTileSources -> incrementAreaCounts(existingTileSources, tileSources))
+        .flatMapCompletable(localDataStore::insertOrUpdateTileSources)
         .doOnError(__ -> Timber.e("failed to add/update a tile in the database"))
         .andThen(
             localDataStore.insertOrUpdateOfflineArea(
@@ -109,6 +134,25 @@ public class OfflineBaseMapRepository {
         .andThen(tileSourceDownloadWorkManager.enqueueTileSourceDownloadWorker());
   }
 
+  /**
+   * Returns the specified tile sources, replacing those already present in the local db with their
+   * stored state and an incremented area count.
+   */
+  private static ImmutableList<TileSource> incrementAreaCounts(
+      ImmutableList<TileSource> existingTileSources, ImmutableList<TileSource> tileSources) {
+    Map<String, TileSource> existingByUrl = new HashMap<>();
+    for (TileSource tileSource : existingTileSources) {
+      existingByUrl.put(tileSource.getUrl(), tileSource);
+    }
+    return stream(tileSources)
+        .map(
+            tileSource -> {
+              TileSource existing = existingByUrl.get(tileSource.getUrl());
+              return existing == null ? tileSource : existing.incrementAreaCount();
+            })
+        .collect(toImmutableList());
+  }
+
   /**
    * Determine the tile sources that need to be downloaded for a given area, then enqueue tile
    * source downloads.
@@ -121,13 +165,8 @@ public class OfflineBaseMapRepository {
         .subscribeOn(schedulers.io());
   }
 
-  /**
-   * Get a list of tile sources specified in the first basemap source of the active project that
-   * intersect a given area.
-   */
-  private Single<ImmutableList<TileSource>> getBaseMapTileSources(OfflineBaseMap offlineBaseMap) {
-    LatLngBounds bounds = offlineBaseMap.getBounds();
-
+  /** Returns the first basemap source of the active project. */
+  private Single<OfflineBaseMapSource> getOfflineBaseMapSource() {
     // TODO: Simplify this stream.
     return projectRepository
         .getProjectLoadingState()
@@ -137,7 +176,17 @@ public class OfflineBaseMapRepository {
             throwable -> Timber.e(throwable, "no basemap sources specified for the active project"))
         .map(ImmutableList::asList)
         .flatMap(Flowable::fromIterable)
-        .firstOrError()
+        .firstOrError();
+  }
+
+  /**
+   * Get a list of tile sources specified in the first basemap source of the active project that
+   * intersect a given area.
+   */
+  private Single<ImmutableList<TileSource>> getBaseMapTileSources(OfflineBaseMap offlineBaseMap) {
+    LatLngBounds bounds = offlineBaseMap.getBounds();
+
+    return getOfflineBaseMapSource()
         .map(this::downloadOfflineBaseMapSource)
         .map(json -> geoJsonParser.intersectingTiles(bounds, json))
         .doOnError(
@@ -145,6 +194,65 @@ public class OfflineBaseMapRepository {
                 Timber.e(throwable, "couldn't retrieve basemap sources for the active project"));
   }
 
+  /**
+   * Returns an estimate of the storage needed to download the tile sources intersecting the
+   * specified area, emitted first with the sizes already known and then again as the size of each
+   * remaining tile source is fetched from the server.
+   *
+   * <p>Sizes of tile sources already downloaded for other areas are read from the local db.
+   * Fetched sizes are remembered, so estimates for overlapping areas, as when the selected viewport
+   * moves, only fetch the sizes of newly included tile sources. The basemap source is only
+   * downloaded if no local copy exists.
+   */
+  public Flowable<OfflineBaseMapSizeEstimate> estimateSize(LatLngBounds bounds) {
+    return getOfflineBaseMapSource()
+        .map(this::getLocalOfflineBaseMapSource)
+        .map(json -> geoJsonParser.intersectingTiles(bounds, json))
+        .zipWith(localDataStore.getTileSourcesOnceAndStream().firstOrError(), this::estimateSize)
+        .flatMapPublisher(estimate -> estimate)
+        .subscribeOn(schedulers.io());
+  }
+
+  private Flowable<OfflineBaseMapSizeEstimate> estimateSize(
+      ImmutableList<TileSource> tileSources, ImmutableSet<TileSource> existingTileSources) {
+    Map<String, Long> downloadedSizes = new HashMap<>();
+    for (TileSource tileSource : existingTileSources) {
+      if (tileSource.getState() == TileSource.State.DOWNLOADED) {
+        downloadedSizes.put(tileSource.getUrl(), tileSource.getSizeBytes());
+      }
+    }
+    OfflineBaseMapSizeEstimate estimate =
+        OfflineBaseMapSizeEstimate.newBuilder().setTileSourceCount(tileSources.size()).build();
+    List<String> unsizedUrls = new ArrayList<>();
+    for (TileSource tileSource : tileSources) {
+      String url = tileSource.getUrl();
+      Long downloadedSize = downloadedSizes.get(url);
+      Long size = tileSourceSizes.get(url);
+      if (downloadedSize != null) {
+        estimate = estimate.addTileSource(downloadedSize, true);
+      } else if (size != null) {
+        estimate = estimate.addTileSource(size, false);
+      } else {
+        unsizedUrls.add(url);
+      }
+    }
+    return Flowable.fromIterable(unsizedUrls)
+        .flatMapMaybe(
+            url -> fetchTileSourceSize(url).subscribeOn(schedulers.io()),
+            false,
+            Config.MAX_CONCURRENT_TILE_SOURCE_DOWNLOADS)
+        .scan(estimate, (previous, bytes) -> previous.addTileSource(bytes, false));
+  }
+
+  /** Returns the size of the specified tile source, or nothing if it can't be determined. */
+  private Maybe<Long> fetchTileSourceSize(String url) {
+    return Single.fromCallable(() -> fileDownloader.fetchContentLength(url))
+        .filter(bytes -> bytes >= 0)
+        .doOnSuccess(bytes -> tileSourceSizes.put(url, bytes))
+        .doOnError(throwable -> Timber.w(throwable, "Couldn't fetch size of %s", url))
+        .onErrorComplete();
+  }
+
   public Completable addAreaAndEnqueue(OfflineBaseMap baseMap) {
     return geocodingManager
         .getAreaName(baseMap.getBounds())
@@ -188,6 +296,19 @@ public class OfflineBaseMapRepository {
         .onErrorReturn(__ -> ImmutableSet.of());
   }
 
+  /**
+   * Returns a long-lived stream that emits the total size in bytes of the downloaded tile sources
+   * intersecting the specified area, emitting again whenever it changes.
+   */
+  public Flowable<Long> getDownloadedSizeOnceAndStream(OfflineBaseMap offlineBaseMap) {
+    return getBaseMapTileSources(offlineBaseMap)
+        .map(tiles -> stream(tiles).map(TileSource::getUrl).collect(toImmutableSet()))
+        .flatMapPublisher(localDataStore::getDownloadedTileSourcesSizeOnceAndStream)
+        .doOnError(
+            throwable -> Timber.d(throwable, "no tile sources found for area %s", offlineBaseMap))
+        .onErrorReturnItem(0L);
+  }
+
   public Maybe<ImmutableSet<TileSource>> getIntersectingDownloadedTileSourcesOnce(
       OfflineBaseMap offlineBaseMap) {
     return getIntersectingDownloadedTileSourcesOnceAndStream(offlineBaseMap).firstElement();
@@ -30,6 +30,11 @@ public class RxSchedulers implements Schedulers {
     return io.reactivex.schedulers.Schedulers.io();
   }
 
+  @Override
+  public Scheduler computation() {
+    return io.reactivex.schedulers.Schedulers.computation();
+  }
+
   @Override
   public Scheduler ui() {
     return AndroidSchedulers.mainThread();
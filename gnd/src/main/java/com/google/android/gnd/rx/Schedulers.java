@@ -22,5 +22,7 @@ public interface Schedulers {
 
   Scheduler io();
 
+  Scheduler computation();
+
   Scheduler ui();
 }
@@ -19,33 +19,62 @@ package com.google.android.gnd.ui;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
+import android.util.LruCache;
 import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
 import androidx.appcompat.content.res.AppCompatResources;
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gnd.R;
+import com.google.android.gnd.model.Project;
+import com.google.android.gnd.model.layer.Layer;
+import com.google.auto.value.AutoValue;
 import dagger.hilt.android.qualifiers.ApplicationContext;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import timber.log.Timber;
 
 @Singleton
 public class MarkerIconFactory {
+  /** Maximum number of rendered marker icons kept in memory. */
+  private static final int MAX_CACHED_ICONS = 64;
+
+  // TODO: Define scale in resources.
+  private static final float DEFAULT_SCALE = 1.8f;
+
+  /** Factor by which markers of selected features are enlarged. */
+  private static final float SELECTED_SCALE_FACTOR = 1.25f;
+
+  /** Largest cluster size labelled with its exact count; larger clusters are labelled "10+" etc. */
+  private static final int MAX_EXACT_CLUSTER_COUNT = 9;
+
   private final Context context;
 
+  /** Rendered marker icons, so that identical pins share a single bitmap. */
+  private final LruCache<IconKey, BitmapDescriptor> iconCache = new LruCache<>(MAX_CACHED_ICONS);
+
+  /** Rendered cluster icons, keyed by label. */
+  private final LruCache<String, BitmapDescriptor> clusterIconCache =
+      new LruCache<>(MAX_CACHED_ICONS);
+
   @Inject
   public MarkerIconFactory(@ApplicationContext Context context) {
     this.context = context;
   }
 
   public Bitmap getMarkerBitmap(int color) {
+    return getMarkerBitmap(color, DEFAULT_SCALE);
+  }
+
+  private Bitmap getMarkerBitmap(int color, float scale) {
     Drawable outline = AppCompatResources.getDrawable(context, R.drawable.ic_marker_outline);
     Drawable fill = AppCompatResources.getDrawable(context, R.drawable.ic_marker_fill);
     Drawable overlay = AppCompatResources.getDrawable(context, R.drawable.ic_marker_overlay);
-    // TODO: Define scale in resources.
-    // TODO: Adjust size based on zoom level and selection state.
-    float scale = 1.8f;
+    // TODO: Adjust size based on zoom level.
     int width = (int) (outline.getIntrinsicWidth() * scale);
     int height = (int) (outline.getIntrinsicHeight() * scale);
     Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
@@ -61,8 +90,103 @@ public class MarkerIconFactory {
   }
 
   public BitmapDescriptor getMarkerIcon(@ColorInt int color) {
-    Bitmap bitmap = getMarkerBitmap(color);
-    // TODO: Cache rendered bitmaps.
-    return BitmapDescriptorFactory.fromBitmap(bitmap);
+    return getMarkerIcon(color, DEFAULT_SCALE, false);
+  }
+
+  /**
+   * Returns the marker icon with the specified color, scale and selection state, rendering it only
+   * if it isn't already cached.
+   */
+  public BitmapDescriptor getMarkerIcon(@ColorInt int color, float scale, boolean isSelected) {
+    IconKey key = IconKey.create(color, scale, isSelected);
+    BitmapDescriptor icon = iconCache.get(key);
+    if (icon == null) {
+      float renderedScale = isSelected ? scale * SELECTED_SCALE_FACTOR : scale;
+      icon = BitmapDescriptorFactory.fromBitmap(getMarkerBitmap(color, renderedScale));
+      iconCache.put(key, icon);
+    }
+    return icon;
+  }
+
+  /**
+   * Returns the icon for a cluster of the specified number of markers. Counts are rounded down to
+   * a few significant labels ("10+", "200+", "3k+") so that icons can be shared between clusters.
+   */
+  public BitmapDescriptor getClusterIcon(int count) {
+    String label = getClusterLabel(count);
+    BitmapDescriptor icon = clusterIconCache.get(label);
+    if (icon == null) {
+      icon = BitmapDescriptorFactory.fromBitmap(getClusterBitmap(label));
+      clusterIconCache.put(label, icon);
+    }
+    return icon;
+  }
+
+  private static String getClusterLabel(int count) {
+    if (count <= MAX_EXACT_CLUSTER_COUNT) {
+      return String.valueOf(count);
+    }
+    if (count >= 1000) {
+      return count / 1000 + "k+";
+    }
+    int magnitude = count >= 100 ? 100 : 10;
+    return count / magnitude * magnitude + "+";
+  }
+
+  private Bitmap getClusterBitmap(String label) {
+    float radius = context.getResources().getDimension(R.dimen.marker_cluster_radius);
+    float strokeWidth = context.getResources().getDimension(R.dimen.marker_cluster_stroke_width);
+    int size = (int) Math.ceil(2 * radius);
+    Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    paint.setColor(context.getResources().getColor(R.color.colorMapAccent));
+    canvas.drawCircle(radius, radius, radius, paint);
+    paint.setStyle(Paint.Style.STROKE);
+    paint.setStrokeWidth(strokeWidth);
+    paint.setColor(Color.WHITE);
+    canvas.drawCircle(radius, radius, radius - strokeWidth / 2, paint);
+    paint.setStyle(Paint.Style.FILL);
+    paint.setTextAlign(Paint.Align.CENTER);
+    paint.setTextSize(context.getResources().getDimension(R.dimen.marker_cluster_text_size));
+    // Center text vertically around the baseline.
+    float baseline = radius - (paint.descent() + paint.ascent()) / 2;
+    canvas.drawText(label, radius, baseline, paint);
+    return bitmap;
+  }
+
+  /**
+   * Renders and caches marker icons for the default style of each layer in the specified project,
+   * so that they're ready before the project's features are added to the map. Must be called after
+   * the map has been initialized.
+   */
+  public void warmUpCache(Project project) {
+    for (Layer layer : project.getLayers()) {
+      getMarkerIcon(parseColor(layer.getDefaultStyle().getColor()));
+    }
+  }
+
+  /** Parses the specified color, falling back to the map accent color if it isn't valid. */
+  @ColorInt
+  public int parseColor(@Nullable String colorHexCode) {
+    try {
+      return Color.parseColor(String.valueOf(colorHexCode));
+    } catch (IllegalArgumentException e) {
+      Timber.w("Invalid color code in layer style: %s", colorHexCode);
+      return context.getResources().getColor(R.color.colorMapAccent);
+    }
+  }
+
+  @AutoValue
+  abstract static class IconKey {
+    abstract int getColor();
+
+    abstract float getScale();
+
+    abstract boolean isSelected();
+
+    static IconKey create(int color, float scale, boolean isSelected) {
+      return new AutoValue_MarkerIconFactory_IconKey(color, scale, isSelected);
+    }
   }
 }
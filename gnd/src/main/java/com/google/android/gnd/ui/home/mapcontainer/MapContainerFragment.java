@@ -44,6 +44,7 @@ import com.google.android.gnd.rx.BooleanOrError;
 import com.google.android.gnd.rx.Loadable;
 import com.google.android.gnd.system.PermissionsManager.PermissionDeniedException;
 import com.google.android.gnd.system.SettingsManager.SettingsChangeRequestCanceled;
+import com.google.android.gnd.ui.MarkerIconFactory;
 import com.google.android.gnd.ui.common.AbstractFragment;
 import com.google.android.gnd.ui.home.BottomSheetState;
 import com.google.android.gnd.ui.home.HomeScreenViewModel;
@@ -68,6 +69,7 @@ public class MapContainerFragment extends AbstractFragment {
   @Inject MbtilesFootprintParser mbtilesFootprintParser;
   @Inject MapProvider mapProvider;
   @Inject MapsRepository mapsRepository;
+  @Inject MarkerIconFactory markerIconFactory;
 
   private MapContainerViewModel mapContainerViewModel;
   private HomeScreenViewModel homeScreenViewModel;
@@ -140,7 +142,10 @@ public class MapContainerFragment extends AbstractFragment {
   private void onMapReady(MapAdapter map) {
     Timber.d("MapAdapter ready. Updating subscriptions");
     // Observe events emitted by the ViewModel.
-    mapContainerViewModel.getMapFeatures().observe(this, map::setMapFeatures);
+    mapContainerViewModel
+        .getMapFeatureChanges()
+        .as(disposeOnDestroy(this))
+        .subscribe(map::updateMapFeatures);
     mapContainerViewModel
         .getLocationLockState()
         .observe(this, state -> onLocationLockStateChange(state, map));
@@ -241,6 +246,8 @@ public class MapContainerFragment extends AbstractFragment {
 
   private void onProjectChange(Loadable<Project> project) {
     if (project.isLoaded()) {
+      // Render layer icons up front rather than once per feature as they're added to the map.
+      project.value().ifPresent(markerIconFactory::warmUpCache);
       enableAddFeatureBtn();
     } else {
       disableAddFeatureBtn();
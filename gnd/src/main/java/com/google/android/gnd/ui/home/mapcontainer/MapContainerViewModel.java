@@ -25,7 +25,6 @@ import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.LiveDataReactiveStreams;
 import androidx.lifecycle.MutableLiveData;
-import com.cocoahero.android.gmaps.addons.mapbox.MapBoxOfflineTileProvider;
 import com.google.android.gnd.R;
 import com.google.android.gnd.model.Project;
 import com.google.android.gnd.model.basemap.tile.TileSource;
@@ -40,17 +39,22 @@ import com.google.android.gnd.rx.Action;
 import com.google.android.gnd.rx.BooleanOrError;
 import com.google.android.gnd.rx.Event;
 import com.google.android.gnd.rx.Loadable;
+import com.google.android.gnd.rx.Schedulers;
 import com.google.android.gnd.rx.annotations.Hot;
 import com.google.android.gnd.system.LocationManager;
 import com.google.android.gnd.ui.common.AbstractViewModel;
 import com.google.android.gnd.ui.common.SharedViewModel;
 import com.google.android.gnd.ui.map.CameraPosition;
+import com.google.android.gnd.ui.map.CompositeTileProvider;
 import com.google.android.gnd.ui.map.MapFeature;
 import com.google.android.gnd.ui.map.MapGeoJson;
 import com.google.android.gnd.ui.map.MapPin;
+import com.google.android.gnd.util.ChangeSet;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
+import io.reactivex.processors.BehaviorProcessor;
 import io.reactivex.subjects.PublishSubject;
 import io.reactivex.subjects.Subject;
 import java.util.ArrayList;
@@ -71,7 +75,7 @@ public class MapContainerViewModel extends AbstractViewModel {
       Point.newBuilder().setLatitude(0.0).setLongitude(0.0).build();
 
   private final LiveData<Loadable<Project>> projectLoadingState;
-  private final LiveData<ImmutableSet<MapFeature>> mapFeatures;
+  private final Flowable<ChangeSet<MapFeature>> mapFeatureChanges;
   private final LiveData<BooleanOrError> locationLockState;
   private final LiveData<Event<CameraUpdate>> cameraUpdateRequests;
 
@@ -79,9 +83,14 @@ public class MapContainerViewModel extends AbstractViewModel {
   private final MutableLiveData<CameraPosition> cameraPosition =
       new MutableLiveData<>(new CameraPosition(DEFAULT_MAP_POINT, DEFAULT_MAP_ZOOM_LEVEL));
 
+  /** Camera positions received from the map, used to limit rendered features to the viewport. */
+  @Hot(replays = true)
+  private final BehaviorProcessor<CameraPosition> viewportChanges = BehaviorProcessor.create();
+
   private final ProjectRepository projectRepository;
   private final LocationManager locationManager;
   private final FeatureRepository featureRepository;
+  private final Schedulers schedulers;
 
   @Hot private final Subject<Boolean> locationLockChangeRequests = PublishSubject.create();
   @Hot private final Subject<CameraUpdate> cameraUpdateSubject = PublishSubject.create();
@@ -97,7 +106,7 @@ public class MapContainerViewModel extends AbstractViewModel {
 
   private final LiveData<ImmutableSet<String>> mbtilesFilePaths;
   private final LiveData<Integer> iconTint;
-  private final List<MapBoxOfflineTileProvider> tileProviders = new ArrayList<>();
+  private final List<CompositeTileProvider> tileProviders = new ArrayList<>();
 
   // Feature currently selected for repositioning
   private Optional<Feature> selectedFeature = Optional.empty();
@@ -107,11 +116,13 @@ public class MapContainerViewModel extends AbstractViewModel {
       ProjectRepository projectRepository,
       FeatureRepository featureRepository,
       LocationManager locationManager,
-      OfflineBaseMapRepository offlineBaseMapRepository) {
+      OfflineBaseMapRepository offlineBaseMapRepository,
+      Schedulers schedulers) {
     // THIS SHOULD NOT BE CALLED ON CONFIG CHANGE
     this.projectRepository = projectRepository;
     this.featureRepository = featureRepository;
     this.locationManager = locationManager;
+    this.schedulers = schedulers;
 
     Flowable<BooleanOrError> locationLockStateFlowable = createLocationLockStateFlowable().share();
     this.locationLockState =
@@ -130,12 +141,14 @@ public class MapContainerViewModel extends AbstractViewModel {
     // TODO: Clear feature markers when project is deactivated.
     // TODO: Since we depend on project stream from repo anyway, this transformation can be moved
     // into the repo?
-    this.mapFeatures =
-        LiveDataReactiveStreams.fromPublisher(
-            projectRepository
-                .getActiveProject()
-                .switchMap(this::getFeaturesStream)
-                .map(MapContainerViewModel::toMapFeatures));
+    this.mapFeatureChanges =
+        projectRepository
+            .getActiveProject()
+            .switchMap(this::getFeatureChangesStream)
+            .map(changes -> changes.map(MapContainerViewModel::toMapFeature))
+            // Diff snapshots before handing them to the UI thread.
+            .compose(ChangeSet.deltas())
+            .observeOn(schedulers.ui());
     this.mbtilesFilePaths =
         LiveDataReactiveStreams.fromPublisher(
             offlineBaseMapRepository
@@ -151,24 +164,12 @@ public class MapContainerViewModel extends AbstractViewModel {
         .ifPresent(this::panAndZoomCamera);
   }
 
-  private static ImmutableSet<MapFeature> toMapFeatures(ImmutableSet<Feature> features) {
-    ImmutableSet<MapFeature> mapPins =
-        stream(features)
-            .filter(Feature::isPoint)
-            .map(PointFeature.class::cast)
-            .map(MapContainerViewModel::toMapPin)
-            .collect(toImmutableSet());
-
+  private static MapFeature toMapFeature(Feature feature) {
     // TODO: Add support for polylines and polygons similar to mapPins
-
-    ImmutableSet<MapFeature> mapPolygons =
-        stream(features)
-            .filter(Feature::isGeoJson)
-            .map(GeoJsonFeature.class::cast)
-            .map(MapContainerViewModel::toMapGeoJson)
-            .collect(toImmutableSet());
-
-    return ImmutableSet.<MapFeature>builder().addAll(mapPins).addAll(mapPolygons).build();
+    if (feature.isGeoJson()) {
+      return toMapGeoJson((GeoJsonFeature) feature);
+    }
+    return toMapPin((PointFeature) feature);
   }
 
   private static MapFeature toMapPin(PointFeature feature) {
@@ -233,12 +234,18 @@ public class MapContainerViewModel extends AbstractViewModel {
         .toFlowable(BackpressureStrategy.LATEST);
   }
 
-  private Flowable<ImmutableSet<Feature>> getFeaturesStream(Optional<Project> activeProject) {
-    // Emit empty set in separate stream to force unsubscribe from Feature updates and update
-    // subscribers.
+  private Flowable<ChangeSet<Feature>> getFeatureChangesStream(Optional<Project> activeProject) {
+    // Camera moves are emitted on the UI thread; query and diff features in the viewport on a
+    // background thread instead, skipping intermediate positions if it falls behind.
+    Flowable<CameraPosition> viewports =
+        viewportChanges.onBackpressureLatest().observeOn(schedulers.computation());
+    // Emit empty snapshot in separate stream to force unsubscribe from Feature updates and clear
+    // features from the map.
     return activeProject
-        .map(featureRepository::getFeaturesOnceAndStream)
-        .orElse(Flowable.just(ImmutableSet.of()));
+        .map(
+            project ->
+                featureRepository.getFeatureChangesInViewportOnceAndStream(project, viewports))
+        .orElse(Flowable.just(ChangeSet.snapshot(ImmutableMap.of())));
   }
 
   public void onMapTypeButtonClicked() {
@@ -249,8 +256,13 @@ public class MapContainerViewModel extends AbstractViewModel {
     return projectLoadingState;
   }
 
-  public LiveData<ImmutableSet<MapFeature>> getMapFeatures() {
-    return mapFeatures;
+  /**
+   * Returns a stream of changes to the features rendered on the map, observed on the UI thread.
+   * Change sets are never snapshots; each is relative to those previously emitted to the same
+   * subscriber.
+   */
+  public Flowable<ChangeSet<MapFeature>> getMapFeatureChanges() {
+    return mapFeatureChanges;
   }
 
   public LiveData<ImmutableSet<String>> getMbtilesFilePaths() {
@@ -281,6 +293,7 @@ public class MapContainerViewModel extends AbstractViewModel {
   public void onCameraMove(CameraPosition newCameraPosition) {
     Timber.d("Setting position to %s", newCameraPosition.toString());
     cameraPosition.setValue(newCameraPosition);
+    viewportChanges.onNext(newCameraPosition);
     Loadable.getValue(projectLoadingState)
         .ifPresent(
             project -> projectRepository.setCameraPosition(project.getId(), newCameraPosition));
@@ -309,13 +322,12 @@ public class MapContainerViewModel extends AbstractViewModel {
     locationLockChangeRequests.onNext(!isLocationLockEnabled());
   }
 
-  // TODO(#691): Create our own wrapper/interface for MbTiles providers.
-  public void queueTileProvider(MapBoxOfflineTileProvider tileProvider) {
+  public void queueTileProvider(CompositeTileProvider tileProvider) {
     this.tileProviders.add(tileProvider);
   }
 
   public void closeProviders() {
-    stream(tileProviders).forEach(MapBoxOfflineTileProvider::close);
+    stream(tileProviders).forEach(CompositeTileProvider::close);
   }
 
   public void setViewMode(Mode viewMode) {
@@ -16,16 +16,24 @@
 
 package com.google.android.gnd.ui.map;
 
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.feature.Point;
+import java8.util.Optional;
 
 public class CameraPosition {
 
   private final Point target;
   private final Float zoomLevel;
+  private final Optional<LatLngBounds> bounds;
 
   public CameraPosition(Point target, Float zoomLevel) {
+    this(target, zoomLevel, Optional.empty());
+  }
+
+  public CameraPosition(Point target, Float zoomLevel, Optional<LatLngBounds> bounds) {
     this.target = target;
     this.zoomLevel = zoomLevel;
+    this.bounds = bounds;
   }
 
   public Point getTarget() {
@@ -36,6 +44,11 @@ public class CameraPosition {
     return zoomLevel;
   }
 
+  /** Returns the bounds of the visible viewport, if known. Not persisted between sessions. */
+  public Optional<LatLngBounds> getBounds() {
+    return bounds;
+  }
+
   public String toString() {
     return "Position: " + target + " Zoom level: " + zoomLevel;
   }
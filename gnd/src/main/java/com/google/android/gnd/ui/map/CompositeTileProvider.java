@@ -0,0 +1,187 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map;
+
+import static com.google.android.gnd.ui.map.MbtilesTileProvider.NO_TILE_DATA;
+import static com.google.android.gnd.ui.map.MbtilesTileProvider.TILE_SIZE;
+
+import android.util.LruCache;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.Closeable;
+import java.io.File;
+import java.util.Map;
+import javax.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Serves map tiles from any number of MBTiles files through a single tile overlay. Each tile is
+ * requested only from files whose zoom range and bounds, read once from their metadata, cover it,
+ * so tiles outside all downloaded areas don't query any database.
+ *
+ * <p>Recently served tiles, as well as tiles found to be missing, are kept in a single cache shared
+ * by all files so that panning back over an area doesn't query the database again. Files are read
+ * using a single pool of connections, so neither memory use nor the number of open connections
+ * grows with the number of files.
+ *
+ * <p>{@link #close()} must be called once the provider is no longer used to release the
+ * underlying files.
+ */
+public class CompositeTileProvider implements TileProvider, Closeable {
+
+  /** Maximum number of connections opened to all files together. */
+  private static final int MAX_CONNECTIONS = 4;
+
+  /** Maximum total size of cached tile data, in bytes. */
+  private static final int TILE_CACHE_SIZE_BYTES = 8 * 1024 * 1024;
+
+  private final MbtilesConnectionPool connectionPool = new MbtilesConnectionPool(MAX_CONNECTIONS);
+
+  /** Tile data of all files, including {@link MbtilesTileProvider#NO_TILE_DATA} for misses. */
+  private final LruCache<TileKey, byte[]> tileCache =
+      new LruCache<TileKey, byte[]>(TILE_CACHE_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(TileKey key, byte[] value) {
+          // Count missing tiles too so that the number of cached misses is bounded.
+          return Math.max(1, value.length);
+        }
+      };
+
+  /** Providers of all files currently served, in the order they were added. */
+  private volatile ImmutableMap<String, MbtilesTileProvider> providersByPath = ImmutableMap.of();
+
+  /**
+   * Updates the set of files served by this provider, opening newly added files and closing those
+   * no longer present. Must be called from a single thread.
+   *
+   * @return true iff the set of files changed
+   */
+  public boolean setFiles(ImmutableSet<File> files) {
+    ImmutableMap<String, MbtilesTileProvider> oldProviders = providersByPath;
+    ImmutableMap.Builder<String, MbtilesTileProvider> newProviders = ImmutableMap.builder();
+    boolean changed = false;
+    for (File file : files) {
+      String path = file.getAbsolutePath();
+      MbtilesTileProvider provider = oldProviders.get(path);
+      if (provider == null) {
+        provider = open(file, connectionPool);
+        if (provider == null) {
+          continue;
+        }
+        changed = true;
+      }
+      newProviders.put(path, provider);
+    }
+    ImmutableMap<String, MbtilesTileProvider> updatedProviders = newProviders.build();
+    providersByPath = updatedProviders;
+    for (Map.Entry<String, MbtilesTileProvider> entry : oldProviders.entrySet()) {
+      if (!updatedProviders.containsKey(entry.getKey())) {
+        entry.getValue().close();
+        evictTiles(entry.getKey());
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  @Nullable
+  private static MbtilesTileProvider open(File file, MbtilesConnectionPool connectionPool) {
+    if (!file.exists()) {
+      Timber.i("mbtiles file %s does not exist", file.getAbsolutePath());
+      return null;
+    }
+    try {
+      return new MbtilesTileProvider(file, connectionPool);
+    } catch (RuntimeException e) {
+      Timber.e(e, "Couldn't initialize tile provider for mbtiles file %s", file);
+      return null;
+    }
+  }
+
+  /** Removes cached tiles of the file with the specified path. */
+  private void evictTiles(String path) {
+    for (TileKey key : tileCache.snapshot().keySet()) {
+      if (key.getPath().equals(path)) {
+        tileCache.remove(key);
+      }
+    }
+  }
+
+  @Override
+  public Tile getTile(int x, int y, int zoom) {
+    for (Map.Entry<String, MbtilesTileProvider> entry : providersByPath.entrySet()) {
+      MbtilesTileProvider provider = entry.getValue();
+      if (provider.mayContainTile(x, y, zoom)) {
+        byte[] data = getTileData(entry.getKey(), provider, x, y, zoom);
+        if (data.length > 0) {
+          return new Tile(TILE_SIZE, TILE_SIZE, data);
+        }
+      }
+    }
+    return NO_TILE;
+  }
+
+  private byte[] getTileData(String path, MbtilesTileProvider provider, int x, int y, int zoom) {
+    TileKey key = TileKey.create(path, x, y, zoom);
+    byte[] data = tileCache.get(key);
+    if (data == null) {
+      data = provider.readTileData(x, y, zoom);
+      if (data == null) {
+        // Not cached so that the tile is read again next time.
+        return NO_TILE_DATA;
+      }
+      tileCache.put(key, data);
+    }
+    return data;
+  }
+
+  /** Returns the number of connections opened to all files, including those in use. */
+  @VisibleForTesting
+  int getConnectionCount() {
+    return connectionPool.getConnectionCount();
+  }
+
+  @Override
+  public void close() {
+    ImmutableMap<String, MbtilesTileProvider> providers = providersByPath;
+    providersByPath = ImmutableMap.of();
+    for (MbtilesTileProvider provider : providers.values()) {
+      provider.close();
+    }
+    tileCache.evictAll();
+  }
+
+  @AutoValue
+  abstract static class TileKey {
+
+    abstract String getPath();
+
+    abstract int getX();
+
+    abstract int getY();
+
+    abstract int getZoom();
+
+    static TileKey create(String path, int x, int y, int zoom) {
+      return new AutoValue_CompositeTileProvider_TileKey(path, x, y, zoom);
+    }
+  }
+}
@@ -17,10 +17,10 @@
 package com.google.android.gnd.ui.map;
 
 import android.annotation.SuppressLint;
-import com.cocoahero.android.gmaps.addons.mapbox.MapBoxOfflineTileProvider;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.feature.Point;
 import com.google.android.gnd.rx.annotations.Hot;
+import com.google.android.gnd.util.ChangeSet;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import io.reactivex.Flowable;
@@ -89,8 +89,13 @@ public interface MapAdapter {
   @SuppressLint("MissingPermission")
   void enableCurrentLocationIndicator();
 
-  /** Update map pins/polygons shown on map. */
-  void setMapFeatures(ImmutableSet<MapFeature> mapFeatures);
+  /**
+   * Updates map pins/polygons shown on map. Snapshots replace all features currently on the map;
+   * otherwise only the features added, modified or removed are re-rendered. Implementations may
+   * spread large updates over several frames; since snapshots must be diffed against the features
+   * already on the map, callers should prefer passing deltas.
+   */
+  void updateMapFeatures(ChangeSet<MapFeature> changes);
 
   /** Get current map type. */
   int getMapType();
@@ -104,11 +109,13 @@ public interface MapAdapter {
   /** Set the map viewport to the given bounds. */
   void setBounds(LatLngBounds bounds);
 
-  /** Renders a tile overlay on the map. */
+  /**
+   * Renders tiles from the specified MBTiles files on the map, replacing files passed in earlier
+   * calls.
+   */
   void addTileOverlays(ImmutableSet<String> mbtilesFiles);
 
-  // TODO(#691): Create interface and impl to encapsulate MapBoxOfflineTileProvider impl.
   /** Returns TileProviders associated with this map adapter. */
   @Hot
-  Observable<MapBoxOfflineTileProvider> getTileProviders();
+  Observable<CompositeTileProvider> getTileProviders();
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map;
+
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.VisibleForTesting;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Read-only connections to MBTiles files, shared by the providers of all files served by a {@link
+ * CompositeTileProvider} so that the number of open connections is bounded however many files are
+ * served. Idle connections are reused for the file they were opened on. Once the limit is reached,
+ * the least recently used idle connection to another file is closed to make room.
+ */
+class MbtilesConnectionPool {
+
+  private static final String TILE_QUERY =
+      "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+  private final int maxConnections;
+
+  /** Connections not currently in use, least recently released first. Guarded by {@code this}. */
+  private final Deque<Connection> idleConnections = new ArrayDeque<>();
+
+  /** Number of connections opened, including those in use. Guarded by {@code this}. */
+  private int connectionCount;
+
+  MbtilesConnectionPool(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Opens the specified MBTiles file for reading.
+   *
+   * @throws android.database.sqlite.SQLiteException if the file can't be opened.
+   */
+  static SQLiteDatabase openDatabase(File file) {
+    int flags = SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS;
+    return SQLiteDatabase.openDatabase(file.getAbsolutePath(), null, flags);
+  }
+
+  /**
+   * Returns an idle connection to the specified file, opening one if there is none. Blocks while
+   * the maximum number of connections are in use. The connection must be passed to {@link
+   * #release(Connection)} or {@link #discard(Connection)} once no longer used.
+   */
+  Connection acquire(File file) throws InterruptedException {
+    Connection evicted = null;
+    synchronized (this) {
+      while (true) {
+        Connection connection = pollIdleConnection(file);
+        if (connection != null) {
+          return connection;
+        }
+        if (connectionCount < maxConnections) {
+          connectionCount++;
+          break;
+        }
+        evicted = idleConnections.pollFirst();
+        if (evicted != null) {
+          // The new connection takes the place of the evicted one.
+          break;
+        }
+        wait();
+      }
+    }
+    if (evicted != null) {
+      evicted.close();
+    }
+    try {
+      return new Connection(file);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        connectionCount--;
+        notifyAll();
+      }
+      throw e;
+    }
+  }
+
+  /** Removes and returns the most recently released idle connection to the specified file. */
+  @Nullable
+  private Connection pollIdleConnection(File file) {
+    Iterator<Connection> iterator = idleConnections.descendingIterator();
+    while (iterator.hasNext()) {
+      Connection connection = iterator.next();
+      if (connection.file.equals(file)) {
+        iterator.remove();
+        return connection;
+      }
+    }
+    return null;
+  }
+
+  /** Returns a connection obtained from {@link #acquire(File)} to the pool for reuse. */
+  synchronized void release(Connection connection) {
+    idleConnections.addLast(connection);
+    notifyAll();
+  }
+
+  /** Closes a connection obtained from {@link #acquire(File)} instead of returning it. */
+  void discard(Connection connection) {
+    connection.close();
+    synchronized (this) {
+      connectionCount--;
+      notifyAll();
+    }
+  }
+
+  /** Closes all idle connections to the specified file. */
+  void closeIdleConnections(File file) {
+    List<Connection> closed = new ArrayList<>();
+    synchronized (this) {
+      Connection connection;
+      while ((connection = pollIdleConnection(file)) != null) {
+        closed.add(connection);
+      }
+      connectionCount -= closed.size();
+      notifyAll();
+    }
+    for (Connection connection : closed) {
+      connection.close();
+    }
+  }
+
+  /** Returns the number of connections opened, including those in use. */
+  @VisibleForTesting
+  synchronized int getConnectionCount() {
+    return connectionCount;
+  }
+
+  /** A read-only connection to an MBTiles file. */
+  static class Connection {
+    private final File file;
+    private final SQLiteDatabase database;
+    private final TileCursor tileCursor;
+
+    private Connection(File file) {
+      this.file = file;
+      this.database = openDatabase(file);
+      // The cursor is filled lazily, so this only compiles the query.
+      this.tileCursor =
+          (TileCursor)
+              database.rawQueryWithFactory(
+                  (db, driver, editTable, query) -> new TileCursor(driver, editTable, query),
+                  TILE_QUERY,
+                  null,
+                  null);
+    }
+
+    /**
+     * Returns the data of the specified tile, or {@link MbtilesTileProvider#NO_TILE_DATA} if it
+     * isn't present.
+     */
+    byte[] queryTile(int zoom, int column, int row) {
+      return tileCursor.queryTile(zoom, column, row);
+    }
+
+    private void close() {
+      tileCursor.close();
+      database.close();
+    }
+  }
+
+  /**
+   * A cursor over {@link #TILE_QUERY} which is rerun for each tile. Unlike {@link
+   * SQLiteStatement#simpleQueryForBlobFileDescriptor()}, which allocates and maps a shared memory
+   * file for every blob, tile data is read from a cursor window reused across tiles.
+   */
+  private static class TileCursor extends SQLiteCursor {
+    private final SQLiteQuery query;
+
+    TileCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+      super(driver, editTable, query);
+      this.query = query;
+    }
+
+    // requery() is deprecated only because it may block the UI thread; tiles are always read on
+    // background threads.
+    @SuppressWarnings("deprecation")
+    byte[] queryTile(int zoom, int column, int row) {
+      query.bindLong(1, zoom);
+      query.bindLong(2, column);
+      query.bindLong(3, row);
+      if (!requery() || !moveToFirst() || isNull(0)) {
+        return MbtilesTileProvider.NO_TILE_DATA;
+      }
+      return getBlob(0);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+import com.google.android.gnd.ui.map.MbtilesConnectionPool.Connection;
+import java.io.Closeable;
+import java.io.File;
+import javax.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Serves map tiles from an MBTiles file.
+ *
+ * <p>Maps requests tiles from several threads at once, so tiles are read using connections from a
+ * {@link MbtilesConnectionPool}, which may be shared with the providers of other files. Tiles
+ * aren't cached here; {@link CompositeTileProvider} caches the tiles of all files it serves.
+ *
+ * <p>{@link #close()} must be called once the provider is no longer used to release its database
+ * connections.
+ */
+class MbtilesTileProvider implements TileProvider, Closeable {
+
+  /** Width and height of tiles, in pixels. */
+  static final int TILE_SIZE = 256;
+
+  /** Returned in place of data for tiles not present in the file. */
+  static final byte[] NO_TILE_DATA = new byte[0];
+
+  private static final String METADATA_QUERY = "SELECT value FROM metadata WHERE name = ?";
+
+  /** Latitude of the northern edge of the Web Mercator projection. */
+  private static final double MAX_LATITUDE = 85.0511287798;
+
+  private final File file;
+  private final MbtilesConnectionPool connectionPool;
+  private final int minZoom;
+  private final int maxZoom;
+
+  /** Bounds of the tiles in the file as {west, south, east, north}, or null if unknown. */
+  @Nullable private final double[] bounds;
+
+  private volatile boolean closed;
+
+  /**
+   * Opens the specified MBTiles file, reading tiles using connections from the specified pool.
+   *
+   * @throws android.database.sqlite.SQLiteException if the file can't be opened.
+   */
+  MbtilesTileProvider(File file, MbtilesConnectionPool connectionPool) {
+    this.file = file;
+    this.connectionPool = connectionPool;
+    // Metadata is read over a separate connection, since taking one from the pool may block until
+    // another file's connection is released.
+    SQLiteDatabase database = MbtilesConnectionPool.openDatabase(file);
+    try {
+      minZoom = readZoomLevel(database, "minzoom", 0);
+      maxZoom = readZoomLevel(database, "maxzoom", Integer.MAX_VALUE);
+      bounds = readBounds(database);
+    } finally {
+      database.close();
+    }
+  }
+
+  private static int readZoomLevel(SQLiteDatabase database, String name, int defaultValue) {
+    String value = readMetadata(database, name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      Timber.w("Invalid %s in MBTiles metadata: %s", name, value);
+      return defaultValue;
+    }
+  }
+
+  @Nullable
+  private static double[] readBounds(SQLiteDatabase database) {
+    String value = readMetadata(database, "bounds");
+    if (value == null) {
+      return null;
+    }
+    String[] parts = value.split(",");
+    if (parts.length != 4) {
+      Timber.w("Invalid bounds in MBTiles metadata: %s", value);
+      return null;
+    }
+    try {
+      double[] bounds = new double[4];
+      for (int i = 0; i < 4; i++) {
+        bounds[i] = Double.parseDouble(parts[i].trim());
+      }
+      return bounds;
+    } catch (NumberFormatException e) {
+      Timber.w("Invalid bounds in MBTiles metadata: %s", value);
+      return null;
+    }
+  }
+
+  /** Returns the value with the specified name from the file's metadata table, if present. */
+  @Nullable
+  static String readMetadata(SQLiteDatabase database, String name) {
+    SQLiteStatement statement = database.compileStatement(METADATA_QUERY);
+    try {
+      statement.bindString(1, name);
+      return statement.simpleQueryForString();
+    } catch (SQLiteDoneException e) {
+      return null;
+    } finally {
+      statement.close();
+    }
+  }
+
+  /**
+   * Returns false if the specified tile is known not to be in the file based on the zoom range and
+   * bounds in its metadata. Doesn't query the tiles themselves.
+   */
+  public boolean mayContainTile(int x, int y, int zoom) {
+    if (zoom < minZoom || zoom > maxZoom) {
+      return false;
+    }
+    if (bounds == null) {
+      return true;
+    }
+    int tileCount = 1 << zoom;
+    return x >= toTileX(bounds[0], tileCount)
+        && x <= toTileX(bounds[2], tileCount)
+        && y >= toTileY(bounds[3], tileCount)
+        && y <= toTileY(bounds[1], tileCount);
+  }
+
+  /** Returns the column of the tile containing the specified longitude. */
+  private static int toTileX(double longitude, int tileCount) {
+    int x = (int) Math.floor((longitude + 180) / 360 * tileCount);
+    return Math.max(0, Math.min(tileCount - 1, x));
+  }
+
+  /** Returns the row of the tile containing the specified latitude, numbered from the north. */
+  private static int toTileY(double latitude, int tileCount) {
+    double latRad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+    double y = (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2;
+    return Math.max(0, Math.min(tileCount - 1, (int) Math.floor(y * tileCount)));
+  }
+
+  @Override
+  public Tile getTile(int x, int y, int zoom) {
+    byte[] data = readTileData(x, y, zoom);
+    return data == null || data.length == 0 ? NO_TILE : new Tile(TILE_SIZE, TILE_SIZE, data);
+  }
+
+  /**
+   * Returns the data of the specified tile, {@link #NO_TILE_DATA} if the file doesn't contain it,
+   * or null if it couldn't be read or the provider was closed.
+   */
+  @Nullable
+  byte[] readTileData(int x, int y, int zoom) {
+    if (closed) {
+      return null;
+    }
+    if (zoom < minZoom || zoom > maxZoom) {
+      return NO_TILE_DATA;
+    }
+    try {
+      return readTile(x, y, zoom);
+    } catch (RuntimeException e) {
+      Timber.e(e, "Couldn't read tile %d/%d/%d from %s", zoom, x, y, file);
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  private byte[] readTile(int x, int y, int zoom) throws InterruptedException {
+    Connection connection = connectionPool.acquire(file);
+    try {
+      // MBTiles uses TMS tile numbering, where rows are numbered from the south.
+      int row = (1 << zoom) - 1 - y;
+      return connection.queryTile(zoom, x, row);
+    } finally {
+      releaseConnection(connection);
+    }
+  }
+
+  private void releaseConnection(Connection connection) {
+    synchronized (this) {
+      if (!closed) {
+        connectionPool.release(connection);
+        return;
+      }
+    }
+    connectionPool.discard(connection);
+  }
+
+  /** Closes all connections to the MBTiles file. Connections in use are closed once released. */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    connectionPool.closeIdleConnections(file);
+  }
+}
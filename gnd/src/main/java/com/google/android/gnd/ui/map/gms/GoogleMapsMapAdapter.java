@@ -17,12 +17,15 @@
 package com.google.android.gnd.ui.map.gms;
 
 import static com.google.android.gms.maps.GoogleMap.OnCameraMoveStartedListener.REASON_DEVELOPER_ANIMATION;
+import static com.google.android.gnd.util.ImmutableSetCollector.toImmutableSet;
 import static java8.util.stream.StreamSupport.stream;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.graphics.Color;
-import com.cocoahero.android.gmaps.addons.mapbox.MapBoxOfflineTileProvider;
+import android.view.Choreographer;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.OnLifecycleEvent;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.UiSettings;
@@ -35,23 +38,29 @@ import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 import com.google.android.gms.maps.model.RoundCap;
+import com.google.android.gms.maps.model.TileOverlay;
 import com.google.android.gms.maps.model.TileOverlayOptions;
+import com.google.android.gnd.Config;
 import com.google.android.gnd.R;
 import com.google.android.gnd.model.feature.Point;
+import com.google.android.gnd.rx.Schedulers;
 import com.google.android.gnd.rx.annotations.Hot;
 import com.google.android.gnd.ui.MarkerIconFactory;
 import com.google.android.gnd.ui.map.CameraPosition;
+import com.google.android.gnd.ui.map.CompositeTileProvider;
 import com.google.android.gnd.ui.map.MapAdapter;
 import com.google.android.gnd.ui.map.MapFeature;
 import com.google.android.gnd.ui.map.MapGeoJson;
 import com.google.android.gnd.ui.map.MapPin;
 import com.google.android.gnd.ui.map.MapPolygon;
+import com.google.android.gnd.ui.map.gms.MarkerClusterer.Cluster;
+import com.google.android.gnd.util.ChangeSet;
+import com.google.android.gnd.util.SpatialIndex;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableSet;
 import com.google.maps.android.PolyUtil;
 import com.google.maps.android.collections.MarkerManager;
-import com.google.maps.android.data.Layer;
 import com.google.maps.android.data.geojson.GeoJsonFeature;
 import com.google.maps.android.data.geojson.GeoJsonLayer;
 import com.google.maps.android.data.geojson.GeoJsonLineStringStyle;
@@ -60,7 +69,10 @@ import com.google.maps.android.data.geojson.GeoJsonPointStyle;
 import com.google.maps.android.data.geojson.GeoJsonPolygon;
 import com.google.maps.android.data.geojson.GeoJsonPolygonStyle;
 import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.processors.FlowableProcessor;
 import io.reactivex.processors.PublishProcessor;
 import io.reactivex.subjects.PublishSubject;
@@ -69,10 +81,10 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java8.util.Optional;
 import javax.annotation.Nullable;
 import timber.log.Timber;
 
@@ -80,11 +92,21 @@ import timber.log.Timber;
  * Wrapper around {@link GoogleMap}, exposing Google Maps SDK functionality to Ground as a {@link
  * MapAdapter}.
  */
-class GoogleMapsMapAdapter implements MapAdapter {
+class GoogleMapsMapAdapter implements MapAdapter, LifecycleObserver {
+
+  /**
+   * Time spent applying pending feature updates in each frame, in nanoseconds. At least one update
+   * is applied per frame regardless.
+   */
+  private static final long UPDATE_BUDGET_PER_FRAME_NANOS = 4_000_000;
 
   private final GoogleMap map;
   private final Context context;
   private final MarkerIconFactory markerIconFactory;
+  private final Schedulers schedulers;
+
+  /** Subscriptions made by this adapter, disposed once the map's fragment is destroyed. */
+  private final CompositeDisposable disposables = new CompositeDisposable();
 
   /** Marker click events. */
   @Hot private final Subject<MapPin> markerClicks = PublishSubject.create();
@@ -98,12 +120,14 @@ class GoogleMapsMapAdapter implements MapAdapter {
   /** Camera move events. Emits items repeatedly while camera is in motion. */
   @Hot private final FlowableProcessor<CameraPosition> cameraMoves = PublishProcessor.create();
 
-  // TODO(#693): Simplify impl of tile providers.
-  // TODO(#691): This is a limitation of the MapBox tile provider we're using;
-  // since one need to call `close` explicitly, we cannot generically expose these as TileProviders;
-  // instead we must retain explicit reference to the concrete type.
-  @Hot
-  private final PublishSubject<MapBoxOfflineTileProvider> tileProviders = PublishSubject.create();
+  /** Tile providers added to the map, which must be closed explicitly once no longer needed. */
+  @Hot private final PublishSubject<CompositeTileProvider> tileProviders = PublishSubject.create();
+
+  /** Provider of tiles from all downloaded MBTiles files, created when first needed. */
+  @Nullable private CompositeTileProvider tileProvider;
+
+  /** Single overlay rendering tiles from {@link #tileProvider}. */
+  @Nullable private TileOverlay tileOverlay;
 
   /**
    * Manager for handling click events for markers.
@@ -121,31 +145,83 @@ class GoogleMapsMapAdapter implements MapAdapter {
   private final MarkerManager.Collection markers;
 
   /**
-   * References to Google Maps SDK Markers present on the map. Used to sync and update polylines
-   * with current view and data state.
+   * Feature updates not yet applied to the map. Applied in small batches on each frame by {@link
+   * #applyPendingUpdates(long)} so that large updates don't block the UI thread.
    */
-  private final Set<Polyline> polylines = new HashSet<>();
+  private final PendingUpdates<MapFeature> pendingUpdates = new PendingUpdates<>();
+
+  private final Choreographer choreographer = Choreographer.getInstance();
+
+  /** Whether {@link #applyPendingUpdates(long)} is scheduled to run on the next frame. */
+  private boolean isApplyScheduled;
+
+  /** Map features currently present on the map, keyed by feature id. */
+  private final Map<String, MapFeature> mapFeatures = new HashMap<>();
+
+  /** References to Google Maps SDK Markers present on the map, keyed by feature id. */
+  private final Map<String, Marker> markersById = new HashMap<>();
 
   /**
-   * References to Google Maps SDK GeoJSON present on the map. Used to sync and update GeoJSON with
-   * current view and data state.
+   * References to Google Maps SDK Polylines present on the map, keyed by feature id. Used to sync
+   * and update polylines with current view and data state.
+   */
+  private final Map<String, List<Polyline>> polylinesById = new HashMap<>();
+
+  /**
+   * References to Google Maps SDK GeoJSON present on the map, keyed by feature id. Used to sync and
+   * update GeoJSON with current view and data state.
    */
-  private final Set<GeoJsonLayer> geoJsonLayers = new HashSet<>();
+  private final Map<String, GeoJsonLayer> geoJsonLayersById = new HashMap<>();
+
+  /**
+   * References to Google Maps SDK Markers representing clusters of pins. Only populated while the
+   * map is zoomed out past {@link Config#MARKER_CLUSTERING_ZOOM_THRESHOLD}, in which case pins are
+   * not added to {@link #markersById}.
+   */
+  private final List<Marker> clusterMarkers = new ArrayList<>();
+
+  /**
+   * Requests to recompute clusters. Each request is numbered so that results of clustering which
+   * completes after a newer request has been made can be discarded.
+   */
+  @Hot private final Subject<Integer> clusteringRequests = PublishSubject.create();
+
+  /** Number of the latest clustering request. */
+  private int clusteringGeneration;
+
+  /** Whether pins are currently shown as clusters rather than as individual markers. */
+  private boolean isClustering;
+
+  /** Zoom level at which clusters currently on the map were computed. */
+  @Nullable private Float clusteredZoom;
 
   @Nullable private LatLng cameraTargetBeforeDrag;
-  private final Map<MapFeature, List<LatLng>> geoJsonPolygonLoops = new HashMap<>();
-  private final Map<MapFeature, ArrayList<ArrayList<LatLng>>> geoJsonPolygonHoles = new HashMap<>();
 
-  public GoogleMapsMapAdapter(GoogleMap map, Context context, MarkerIconFactory markerIconFactory) {
+  /** Polygons of GeoJSON features on the map, indexed by bounding box for hit-testing taps. */
+  private final SpatialIndex<GeoJsonPolygonRings> geoJsonPolygonIndex = new SpatialIndex<>();
+
+  /** Polygons of GeoJSON features on the map, keyed by feature id. */
+  private final Map<String, List<GeoJsonPolygonRings>> geoJsonPolygonsById = new HashMap<>();
+
+  public GoogleMapsMapAdapter(
+      GoogleMap map, Context context, MarkerIconFactory markerIconFactory, Schedulers schedulers) {
     this.map = map;
     this.context = context;
     this.markerIconFactory = markerIconFactory;
+    this.schedulers = schedulers;
 
     // init markers
     markerManager = new MarkerManager(map);
     markers = markerManager.newCollection();
     markers.setOnMarkerClickListener(this::onMarkerClick);
 
+    // Pins are clustered on a background thread; results are applied on the main thread.
+    isClustering = shouldCluster();
+    disposables.add(
+        clusteringRequests
+            .switchMapMaybe(this::computeClusters)
+            .subscribe(this::renderClusters, t -> Timber.e(t, "Clustering failed")));
+
     UiSettings uiSettings = map.getUiSettings();
     uiSettings.setRotateGesturesEnabled(false);
     uiSettings.setTiltGesturesEnabled(false);
@@ -159,6 +235,11 @@ class GoogleMapsMapAdapter implements MapAdapter {
     onCameraMove();
   }
 
+  @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+  void dispose() {
+    disposables.clear();
+  }
+
   private static Point fromLatLng(LatLng latLng) {
     return Point.newBuilder().setLatitude(latLng.latitude).setLongitude(latLng.longitude).build();
   }
@@ -169,29 +250,24 @@ class GoogleMapsMapAdapter implements MapAdapter {
 
   // Handle taps on ambiguous features.
   private void handleAmbiguity(LatLng latLng) {
-    Builder<MapFeature> candidates = ImmutableList.builder();
-    ArrayList<String> processed = new ArrayList<>();
-
-    for (Map.Entry<MapFeature, ArrayList<ArrayList<LatLng>>> json :
-        geoJsonPolygonHoles.entrySet()) {
-      ArrayList<ArrayList<LatLng>> holes = json.getValue();
-      if (processed.contains(((MapGeoJson) json.getKey()).getId())) {
-        continue;
-      }
-
-      if (stream(holes).anyMatch(hole -> PolyUtil.containsLocation(latLng, hole, false))) {
-        processed.add(((MapGeoJson) json.getKey()).getId());
+    // Only polygons whose bounding boxes contain the tap need to be tested.
+    List<GeoJsonPolygonRings> polygons =
+        geoJsonPolygonIndex.query(latLng.latitude, latLng.longitude);
+    Set<String> processed = new HashSet<>();
+
+    // Taps inside holes of a feature's polygons don't select that feature.
+    for (GeoJsonPolygonRings polygon : polygons) {
+      if (polygon.isInHole(latLng)) {
+        processed.add(polygon.getMapFeature().getId());
       }
     }
 
-    for (Map.Entry<MapFeature, List<LatLng>> json : geoJsonPolygonLoops.entrySet()) {
-      if (processed.contains(((MapGeoJson) json.getKey()).getId())) {
-        continue;
-      }
-
-      if (PolyUtil.containsLocation(latLng, json.getValue(), false)) {
-        candidates.add(json.getKey());
-        processed.add(((MapGeoJson) json.getKey()).getId());
+    Builder<MapFeature> candidates = ImmutableList.builder();
+    for (GeoJsonPolygonRings polygon : polygons) {
+      String id = polygon.getMapFeature().getId();
+      if (!processed.contains(id) && polygon.isInOuterBoundary(latLng)) {
+        candidates.add(polygon.getMapFeature());
+        processed.add(id);
       }
     }
 
@@ -199,6 +275,13 @@ class GoogleMapsMapAdapter implements MapAdapter {
   }
 
   private boolean onMarkerClick(Marker marker) {
+    if (marker.getTag() instanceof Cluster) {
+      if (map.getUiSettings().isZoomGesturesEnabled()) {
+        zoomToCluster((Cluster) marker.getTag());
+      }
+      // Clusters aren't selectable, so don't pan to them either.
+      return true;
+    }
     if (map.getUiSettings().isZoomGesturesEnabled()) {
       markerClicks.onNext((MapPin) marker.getTag());
       // Allow map to pan to marker.
@@ -234,7 +317,7 @@ class GoogleMapsMapAdapter implements MapAdapter {
 
   @Hot
   @Override
-  public Observable<MapBoxOfflineTileProvider> getTileProviders() {
+  public Observable<CompositeTileProvider> getTileProviders() {
     return tileProviders;
   }
 
@@ -264,16 +347,32 @@ class GoogleMapsMapAdapter implements MapAdapter {
     map.moveCamera(CameraUpdateFactory.newLatLngZoom(toLatLng(point), zoomLevel));
   }
 
-  private void addMapPin(MapPin mapPin) {
+  private Marker addMapPin(MapPin mapPin) {
     LatLng position = toLatLng(mapPin.getPosition());
     String color = mapPin.getStyle().getColor();
     BitmapDescriptor icon = markerIconFactory.getMarkerIcon(parseColor(color));
     Marker marker =
         markers.addMarker(new MarkerOptions().position(position).icon(icon).alpha(1.0f));
     marker.setTag(mapPin);
+    return marker;
+  }
+
+  private Marker addClusterMarker(Cluster cluster) {
+    BitmapDescriptor icon = markerIconFactory.getClusterIcon(cluster.size());
+    Marker marker =
+        markers.addMarker(
+            new MarkerOptions().position(cluster.getPosition()).icon(icon).anchor(0.5f, 0.5f));
+    marker.setTag(cluster);
+    return marker;
+  }
+
+  private void zoomToCluster(Cluster cluster) {
+    int padding = (int) context.getResources().getDimension(R.dimen.marker_cluster_radius);
+    map.animateCamera(CameraUpdateFactory.newLatLngBounds(cluster.getBounds(), padding));
   }
 
-  private void addMapPolyline(MapPolygon mapPolygon) {
+  private List<Polyline> addMapPolyline(MapPolygon mapPolygon) {
+    List<Polyline> polylines = new ArrayList<>();
     for (ImmutableSet<Point> vertices : mapPolygon.getVertices()) {
       PolylineOptions options = new PolylineOptions();
 
@@ -296,13 +395,14 @@ class GoogleMapsMapAdapter implements MapAdapter {
 
       polylines.add(polyline);
     }
+    return polylines;
   }
 
   private int getPolylineStrokeWidth() {
     return (int) context.getResources().getDimension(R.dimen.polyline_stroke_width);
   }
 
-  private void addMapGeoJson(MapGeoJson mapFeature) {
+  private GeoJsonLayer addMapGeoJson(MapGeoJson mapFeature) {
     // Pass markerManager here otherwise markers in the previous layers won't be clickable.
     GeoJsonLayer layer =
         new GeoJsonLayer(map, mapFeature.getGeoJson(), markerManager, null, null, null);
@@ -333,45 +433,54 @@ class GoogleMapsMapAdapter implements MapAdapter {
     }
 
     map.setOnMapClickListener(this::onMapClick);
-    geoJsonLayers.add(layer);
+    return layer;
   }
 
   /* Adds the inner and outer boundaries (holes and loops) of polygons defined by a GeoJson feature
-  to the adapters lists of known polygon boundaries, associating them with the given MapFeature. */
+  to the adapters index of known polygon boundaries, associating them with the given MapFeature. */
   private void updateGeoJsonPolygonBoundaries(
-      GeoJsonFeature geoJsonFeature, MapFeature mapFeature) {
+      GeoJsonFeature geoJsonFeature, MapGeoJson mapFeature) {
     if ("Polygon".equals(geoJsonFeature.getGeometry().getGeometryType())) {
-      GeoJsonPolygon polygon = (GeoJsonPolygon) geoJsonFeature.getGeometry();
-
-      geoJsonPolygonLoops.put(mapFeature, polygon.getOuterBoundaryCoordinates());
-      geoJsonPolygonHoles.put(mapFeature, polygon.getInnerBoundaryCoordinates());
+      addGeoJsonPolygon(mapFeature, (GeoJsonPolygon) geoJsonFeature.getGeometry());
     }
     if ("MultiPolygon".equals(geoJsonFeature.getGeometry().getGeometryType())) {
       GeoJsonMultiPolygon multi = (GeoJsonMultiPolygon) geoJsonFeature.getGeometry();
 
       for (GeoJsonPolygon polygon : multi.getPolygons()) {
-        geoJsonPolygonLoops.put(mapFeature, polygon.getOuterBoundaryCoordinates());
-        geoJsonPolygonHoles.put(mapFeature, polygon.getInnerBoundaryCoordinates());
+        addGeoJsonPolygon(mapFeature, polygon);
       }
     }
   }
 
-  private void onMapClick(LatLng latLng) {
-    handleAmbiguity(latLng);
-  }
-
-  private void removeAllMarkers() {
-    markers.clear();
-  }
-
-  private void removeAllPolylines() {
-    stream(polylines).forEach(Polyline::remove);
-    polylines.clear();
+  private void addGeoJsonPolygon(MapGeoJson mapFeature, GeoJsonPolygon geoJsonPolygon) {
+    List<LatLng> outerBoundary = geoJsonPolygon.getOuterBoundaryCoordinates();
+    if (outerBoundary.isEmpty()) {
+      return;
+    }
+    GeoJsonPolygonRings polygon =
+        new GeoJsonPolygonRings(
+            mapFeature, outerBoundary, geoJsonPolygon.getInnerBoundaryCoordinates());
+    double south = 90;
+    double west = 180;
+    double north = -90;
+    double east = -180;
+    for (LatLng vertex : outerBoundary) {
+      south = Math.min(south, vertex.latitude);
+      west = Math.min(west, vertex.longitude);
+      north = Math.max(north, vertex.latitude);
+      east = Math.max(east, vertex.longitude);
+    }
+    geoJsonPolygonIndex.put(polygon, south, west, north, east);
+    List<GeoJsonPolygonRings> polygons = geoJsonPolygonsById.get(mapFeature.getId());
+    if (polygons == null) {
+      polygons = new ArrayList<>();
+      geoJsonPolygonsById.put(mapFeature.getId(), polygons);
+    }
+    polygons.add(polygon);
   }
 
-  private void removeAllGeoJsonLayers() {
-    stream(geoJsonLayers).forEach(Layer::removeLayerFromMap);
-    geoJsonLayers.clear();
+  private void onMapClick(LatLng latLng) {
+    handleAmbiguity(latLng);
   }
 
   @Override
@@ -393,51 +502,86 @@ class GoogleMapsMapAdapter implements MapAdapter {
   }
 
   @Override
-  public void setMapFeatures(ImmutableSet<MapFeature> updatedFeatures) {
-    if (updatedFeatures.isEmpty()) {
-      removeAllMarkers();
-      removeAllPolylines();
-      removeAllGeoJsonLayers();
-      return;
+  public void updateMapFeatures(ChangeSet<MapFeature> changes) {
+    pendingUpdates.add(changes, mapFeatures.keySet());
+    scheduleApply();
+  }
+
+  private void scheduleApply() {
+    if (!isApplyScheduled && !pendingUpdates.isEmpty()) {
+      isApplyScheduled = true;
+      choreographer.postFrameCallback(this::applyPendingUpdates);
     }
-    Set<MapFeature> featuresToAdd = new HashSet<>(updatedFeatures);
+  }
 
-    for (Marker marker : markers.getMarkers()) {
-      MapPin pin = (MapPin) marker.getTag();
-      if (updatedFeatures.contains(pin)) {
-        // If pin already exists on map, don't add it.
-        featuresToAdd.remove(pin);
-      } else {
-        // Remove existing pins not in list of updatedFeatures.
-        removeMarker(marker);
+  /**
+   * Applies pending feature updates until the per-frame time budget is exhausted, rescheduling
+   * itself for the next frame if any updates remain.
+   */
+  private void applyPendingUpdates(long frameTimeNanos) {
+    isApplyScheduled = false;
+    long deadline = System.nanoTime() + UPDATE_BUDGET_PER_FRAME_NANOS;
+    while (!pendingUpdates.isEmpty()) {
+      Map.Entry<String, Optional<MapFeature>> update = pendingUpdates.removeFirst();
+      applyUpdate(update.getKey(), update.getValue());
+      if (System.nanoTime() >= deadline) {
+        break;
       }
     }
+    if (!pendingUpdates.isEmpty()) {
+      scheduleApply();
+    } else if (isClustering) {
+      requestClusters();
+    }
+  }
 
-    Iterator<Polyline> polylineIterator = polylines.iterator();
-    while (polylineIterator.hasNext()) {
-      Polyline polyline = polylineIterator.next();
-      MapPolygon polygon = (MapPolygon) polyline.getTag();
-      if (updatedFeatures.contains(polygon)) {
-        // If polygon already exists on map, don't add it.
-        featuresToAdd.remove(polygon);
-      } else {
-        // Remove existing polyline not in list of updatedFeatures.
-        removePolygon(polyline);
-        polylineIterator.remove();
+  private void applyUpdate(String id, Optional<MapFeature> mapFeature) {
+    if (!mapFeature.isPresent()) {
+      removeMapFeature(id);
+    } else if (!mapFeature.get().equals(mapFeatures.get(id))) {
+      // If feature already exists on map unchanged, don't add it again.
+      replaceMapFeature(id, mapFeature.get());
+    }
+  }
+
+  private void replaceMapFeature(String id, MapFeature mapFeature) {
+    removeMapFeature(id);
+    if (mapFeature instanceof MapPin) {
+      // While clustering, pins are rendered by renderClusters() instead.
+      if (!isClustering) {
+        markersById.put(id, addMapPin((MapPin) mapFeature));
       }
+    } else if (mapFeature instanceof MapPolygon) {
+      polylinesById.put(id, addMapPolyline((MapPolygon) mapFeature));
+    } else if (mapFeature instanceof MapGeoJson) {
+      geoJsonLayersById.put(id, addMapGeoJson((MapGeoJson) mapFeature));
     }
+    mapFeatures.put(id, mapFeature);
+  }
 
-    stream(featuresToAdd)
-        .forEach(
-            mapFeature -> {
-              if (mapFeature instanceof MapPin) {
-                addMapPin((MapPin) mapFeature);
-              } else if (mapFeature instanceof MapPolygon) {
-                addMapPolyline((MapPolygon) mapFeature);
-              } else if (mapFeature instanceof MapGeoJson) {
-                addMapGeoJson((MapGeoJson) mapFeature);
-              }
-            });
+  private void removeMapFeature(String id) {
+    MapFeature mapFeature = mapFeatures.remove(id);
+    if (mapFeature == null) {
+      return;
+    }
+    Marker marker = markersById.remove(id);
+    if (marker != null) {
+      removeMarker(marker);
+    }
+    List<Polyline> polylines = polylinesById.remove(id);
+    if (polylines != null) {
+      stream(polylines).forEach(this::removePolygon);
+    }
+    GeoJsonLayer layer = geoJsonLayersById.remove(id);
+    if (layer != null) {
+      layer.removeLayerFromMap();
+      List<GeoJsonPolygonRings> polygons = geoJsonPolygonsById.remove(id);
+      if (polygons != null) {
+        for (GeoJsonPolygonRings polygon : polygons) {
+          geoJsonPolygonIndex.remove(polygon);
+        }
+      }
+    }
   }
 
   @Override
@@ -452,7 +596,7 @@ class GoogleMapsMapAdapter implements MapAdapter {
 
   private void removeMarker(Marker marker) {
     Timber.v("Removing marker %s", marker.getId());
-    marker.remove();
+    markers.remove(marker);
   }
 
   private void removePolygon(Polyline polyline) {
@@ -461,16 +605,90 @@ class GoogleMapsMapAdapter implements MapAdapter {
   }
 
   private int parseColor(@Nullable String colorHexCode) {
-    try {
-      return Color.parseColor(String.valueOf(colorHexCode));
-    } catch (IllegalArgumentException e) {
-      Timber.w("Invalid color code in layer style: %s", colorHexCode);
-      return context.getResources().getColor(R.color.colorMapAccent);
+    return markerIconFactory.parseColor(colorHexCode);
+  }
+
+  private boolean shouldCluster() {
+    return map.getCameraPosition().zoom < Config.MARKER_CLUSTERING_ZOOM_THRESHOLD;
+  }
+
+  /**
+   * Switches between showing pins individually and as clusters depending on the current zoom
+   * level, recomputing clusters if the zoom level has changed since they were last computed.
+   */
+  private void updateClustering() {
+    if (shouldCluster()) {
+      if (!isClustering) {
+        isClustering = true;
+        for (Marker marker : markersById.values()) {
+          removeMarker(marker);
+        }
+        markersById.clear();
+      }
+      if (!Float.valueOf(map.getCameraPosition().zoom).equals(clusteredZoom)) {
+        requestClusters();
+      }
+    } else if (isClustering) {
+      isClustering = false;
+      // Discard results of any clustering still in progress.
+      clusteringGeneration++;
+      clusteredZoom = null;
+      removeClusterMarkers();
+      for (Map.Entry<String, MapFeature> entry : mapFeatures.entrySet()) {
+        if (entry.getValue() instanceof MapPin) {
+          markersById.put(entry.getKey(), addMapPin((MapPin) entry.getValue()));
+        }
+      }
     }
   }
 
+  private void requestClusters() {
+    clusteringRequests.onNext(++clusteringGeneration);
+  }
+
+  /**
+   * Clusters the pins currently on the map on a background thread. Called on the main thread, so
+   * the pins and zoom level are captured before clustering starts. Emits nothing if another request
+   * has been made or clustering has been disabled by the time clustering completes.
+   */
+  private Maybe<ImmutableList<Cluster>> computeClusters(int generation) {
+    ImmutableList.Builder<MapPin> pins = ImmutableList.builder();
+    for (MapFeature mapFeature : mapFeatures.values()) {
+      if (mapFeature instanceof MapPin) {
+        pins.add((MapPin) mapFeature);
+      }
+    }
+    ImmutableList<MapPin> pinList = pins.build();
+    float zoom = map.getCameraPosition().zoom;
+    return Single.fromCallable(() -> MarkerClusterer.cluster(pinList, zoom))
+        .subscribeOn(schedulers.computation())
+        .observeOn(schedulers.ui())
+        .filter(__ -> generation == clusteringGeneration && isClustering)
+        .doOnSuccess(__ -> clusteredZoom = zoom);
+  }
+
+  private void renderClusters(ImmutableList<Cluster> clusters) {
+    removeClusterMarkers();
+    for (Cluster cluster : clusters) {
+      // Pins without nearby neighbours are shown as regular, selectable markers.
+      if (cluster.size() == 1) {
+        clusterMarkers.add(addMapPin(cluster.getPins().get(0)));
+      } else {
+        clusterMarkers.add(addClusterMarker(cluster));
+      }
+    }
+  }
+
+  private void removeClusterMarkers() {
+    for (Marker marker : clusterMarkers) {
+      removeMarker(marker);
+    }
+    clusterMarkers.clear();
+  }
+
   private void onCameraIdle() {
     cameraTargetBeforeDrag = null;
+    updateClustering();
   }
 
   private void onCameraMoveStarted(int reason) {
@@ -484,7 +702,8 @@ class GoogleMapsMapAdapter implements MapAdapter {
   private void onCameraMove() {
     com.google.android.gms.maps.model.CameraPosition gmsCameraPosition = map.getCameraPosition();
     Point target = fromLatLng(gmsCameraPosition.target);
-    CameraPosition position = new CameraPosition(target, gmsCameraPosition.zoom);
+    CameraPosition position =
+        new CameraPosition(target, gmsCameraPosition.zoom, Optional.of(getViewport()));
     cameraMoves.onNext(position);
     if (cameraTargetBeforeDrag != null
         && !gmsCameraPosition.target.equals(cameraTargetBeforeDrag)) {
@@ -502,25 +721,55 @@ class GoogleMapsMapAdapter implements MapAdapter {
     map.moveCamera(CameraUpdateFactory.newLatLngBounds(bounds, 0));
   }
 
-  private void addTileOverlay(String filePath) {
-    File mbtilesFile = new File(context.getFilesDir(), filePath);
+  @Override
+  public void addTileOverlays(ImmutableSet<String> mbtilesFiles) {
+    ImmutableSet<File> files =
+        stream(mbtilesFiles)
+            .map(path -> new File(context.getFilesDir(), path))
+            .collect(toImmutableSet());
+    CompositeTileProvider provider = tileProvider;
+    if (provider == null) {
+      provider = new CompositeTileProvider();
+      tileProvider = provider;
+      tileProviders.onNext(provider);
+    }
+    boolean changed = provider.setFiles(files);
+    if (tileOverlay == null) {
+      tileOverlay = map.addTileOverlay(new TileOverlayOptions().tileProvider(provider));
+    } else if (changed) {
+      // Drop tiles already rendered from files which have since been removed or added.
+      tileOverlay.clearTileCache();
+    }
+  }
+
+  /** Outer and inner boundaries of a single polygon in a GeoJSON feature. */
+  private static class GeoJsonPolygonRings {
+    private final MapGeoJson mapFeature;
+    private final List<LatLng> outerBoundary;
+    private final List<? extends List<LatLng>> holes;
 
-    if (!mbtilesFile.exists()) {
-      Timber.i("mbtiles file %s does not exist", mbtilesFile.getAbsolutePath());
-      return;
+    GeoJsonPolygonRings(
+        MapGeoJson mapFeature, List<LatLng> outerBoundary, List<? extends List<LatLng>> holes) {
+      this.mapFeature = mapFeature;
+      this.outerBoundary = outerBoundary;
+      this.holes = holes;
     }
 
-    try {
-      MapBoxOfflineTileProvider tileProvider = new MapBoxOfflineTileProvider(mbtilesFile);
-      tileProviders.onNext(tileProvider);
-      map.addTileOverlay(new TileOverlayOptions().tileProvider(tileProvider));
-    } catch (Exception e) {
-      Timber.e(e, "Couldn't initialize tile provider for mbtiles file %s", mbtilesFile);
+    MapGeoJson getMapFeature() {
+      return mapFeature;
     }
-  }
 
-  @Override
-  public void addTileOverlays(ImmutableSet<String> mbtilesFiles) {
-    stream(mbtilesFiles).forEach(this::addTileOverlay);
+    boolean isInOuterBoundary(LatLng latLng) {
+      return PolyUtil.containsLocation(latLng, outerBoundary, false);
+    }
+
+    boolean isInHole(LatLng latLng) {
+      for (List<LatLng> hole : holes) {
+        if (PolyUtil.containsLocation(latLng, hole, false)) {
+          return true;
+        }
+      }
+      return false;
+    }
   }
 }
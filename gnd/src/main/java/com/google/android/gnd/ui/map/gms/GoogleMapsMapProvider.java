@@ -19,6 +19,7 @@ package com.google.android.gnd.ui.map.gms;
 import android.util.Pair;
 import androidx.fragment.app.Fragment;
 import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gnd.rx.Schedulers;
 import com.google.android.gnd.rx.annotations.Hot;
 import com.google.android.gnd.ui.MarkerIconFactory;
 import com.google.android.gnd.ui.map.MapAdapter;
@@ -32,14 +33,16 @@ import javax.inject.Inject;
 public class GoogleMapsMapProvider implements MapProvider {
 
   private final MarkerIconFactory markerIconFactory;
+  private final Schedulers schedulers;
   @Hot private final SingleSubject<MapAdapter> map = SingleSubject.create();
 
   @SuppressWarnings("NullAway.Init")
   private GoogleMapsFragment fragment;
 
   @Inject
-  public GoogleMapsMapProvider(MarkerIconFactory markerIconFactory) {
+  public GoogleMapsMapProvider(MarkerIconFactory markerIconFactory, Schedulers schedulers) {
     this.markerIconFactory = markerIconFactory;
+    this.schedulers = schedulers;
   }
 
   @Override
@@ -58,9 +61,13 @@ public class GoogleMapsMapProvider implements MapProvider {
   private void createMapAsync() {
     ((GoogleMapsFragment) getFragment())
         .getMapAsync(
-            googleMap ->
-                map.onSuccess(
-                    new GoogleMapsMapAdapter(googleMap, fragment.getContext(), markerIconFactory)));
+            googleMap -> {
+              GoogleMapsMapAdapter adapter =
+                  new GoogleMapsMapAdapter(
+                      googleMap, fragment.getContext(), markerIconFactory, schedulers);
+              fragment.getLifecycle().addObserver(adapter);
+              map.onSuccess(adapter);
+            });
   }
 
   @Override
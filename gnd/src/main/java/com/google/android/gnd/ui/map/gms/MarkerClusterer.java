@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map.gms;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gnd.model.feature.Point;
+import com.google.android.gnd.ui.map.MapPin;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups map pins which would overlap on screen at a given zoom level into clusters. Pins are
+ * bucketed into a grid of square cells in Web Mercator coordinates, so the grid is anchored to the
+ * world rather than to the viewport and clusters don't jump around as the map is panned.
+ *
+ * <p>Clustering is a pure function of its inputs and may be run off the main thread.
+ */
+final class MarkerClusterer {
+
+  /** Width of the world at zoom level 0, in dp. */
+  private static final double WORLD_SIZE_DP = 256;
+
+  /** Width and height of each grid cell on screen, in dp. */
+  private static final double CELL_SIZE_DP = 64;
+
+  /** Maximum absolute value of sin(latitude), used to avoid infinities near the poles. */
+  private static final double MAX_SIN_LATITUDE = 0.9999;
+
+  private MarkerClusterer() {}
+
+  /** Returns the clusters formed by the specified pins at the specified zoom level. */
+  static ImmutableList<Cluster> cluster(Iterable<MapPin> pins, float zoom) {
+    double cellsPerWorld =
+        Math.max(1, Math.floor(WORLD_SIZE_DP * Math.pow(2, zoom) / CELL_SIZE_DP));
+    Map<Long, List<MapPin>> cells = new LinkedHashMap<>();
+    for (MapPin pin : pins) {
+      Point position = pin.getPosition();
+      long column = toCell(toWorldX(position.getLongitude()), cellsPerWorld);
+      long row = toCell(toWorldY(position.getLatitude()), cellsPerWorld);
+      Long key = (column << 32) | row;
+      List<MapPin> cell = cells.get(key);
+      if (cell == null) {
+        cell = new ArrayList<>();
+        cells.put(key, cell);
+      }
+      cell.add(pin);
+    }
+    ImmutableList.Builder<Cluster> clusters = ImmutableList.builder();
+    for (List<MapPin> cell : cells.values()) {
+      clusters.add(Cluster.create(ImmutableList.copyOf(cell)));
+    }
+    return clusters.build();
+  }
+
+  private static long toCell(double worldCoordinate, double cellsPerWorld) {
+    return (long) Math.min(cellsPerWorld - 1, Math.floor(worldCoordinate * cellsPerWorld));
+  }
+
+  /** Converts longitude to a Web Mercator x coordinate in the range [0, 1]. */
+  private static double toWorldX(double longitude) {
+    return (longitude + 180) / 360;
+  }
+
+  /** Converts latitude to a Web Mercator y coordinate in the range [0, 1]. */
+  private static double toWorldY(double latitude) {
+    double sin = Math.sin(Math.toRadians(latitude));
+    sin = Math.max(-MAX_SIN_LATITUDE, Math.min(MAX_SIN_LATITUDE, sin));
+    return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+  }
+
+  /** A group of one or more pins rendered as a single marker. */
+  @AutoValue
+  abstract static class Cluster {
+
+    abstract ImmutableList<MapPin> getPins();
+
+    /** The mean position of the pins in this cluster. */
+    abstract LatLng getPosition();
+
+    /** The smallest bounds containing all pins in this cluster. */
+    abstract LatLngBounds getBounds();
+
+    int size() {
+      return getPins().size();
+    }
+
+    static Cluster create(ImmutableList<MapPin> pins) {
+      double latitudeSum = 0;
+      double longitudeSum = 0;
+      LatLngBounds.Builder bounds = LatLngBounds.builder();
+      for (MapPin pin : pins) {
+        Point position = pin.getPosition();
+        LatLng latLng = new LatLng(position.getLatitude(), position.getLongitude());
+        latitudeSum += latLng.latitude;
+        longitudeSum += latLng.longitude;
+        bounds.include(latLng);
+      }
+      LatLng position = new LatLng(latitudeSum / pins.size(), longitudeSum / pins.size());
+      return new AutoValue_MarkerClusterer_Cluster(pins, position, bounds.build());
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map.gms;
+
+import com.google.android.gnd.util.ChangeSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java8.util.Optional;
+
+/**
+ * Updates not yet applied to the map, keyed by object id, in the order they were first received.
+ * Successive changes to the same object are coalesced so that only the latest is applied. Empty
+ * values denote removals.
+ */
+final class PendingUpdates<T> {
+
+  private final Map<String, Optional<T>> updates = new LinkedHashMap<>();
+
+  /**
+   * Adds the specified changes to those pending.
+   *
+   * @param rendered ids of the objects currently rendered on the map, i.e., with all updates
+   *     removed by {@link #removeFirst()} applied.
+   */
+  void add(ChangeSet<T> changes, Set<String> rendered) {
+    if (changes.isSnapshot()) {
+      // Objects not in the snapshot are removed, and pending updates to them are no longer needed.
+      for (String id : new ArrayList<>(updates.keySet())) {
+        if (!changes.getAdded().containsKey(id)) {
+          updates.remove(id);
+        }
+      }
+      for (String id : rendered) {
+        if (!changes.getAdded().containsKey(id)) {
+          updates.put(id, Optional.empty());
+        }
+      }
+    }
+    for (String id : changes.getRemoved()) {
+      if (rendered.contains(id)) {
+        updates.put(id, Optional.empty());
+      } else {
+        updates.remove(id);
+      }
+    }
+    for (Entry<String, T> entry : changes.getModified().entrySet()) {
+      updates.put(entry.getKey(), Optional.of(entry.getValue()));
+    }
+    for (Entry<String, T> entry : changes.getAdded().entrySet()) {
+      updates.put(entry.getKey(), Optional.of(entry.getValue()));
+    }
+  }
+
+  boolean isEmpty() {
+    return updates.isEmpty();
+  }
+
+  /**
+   * Removes and returns the oldest pending update.
+   *
+   * @throws java.util.NoSuchElementException if there are no pending updates.
+   */
+  Entry<String, Optional<T>> removeFirst() {
+    Iterator<Entry<String, Optional<T>>> it = updates.entrySet().iterator();
+    Entry<String, Optional<T>> update = it.next();
+    it.remove();
+    return update;
+  }
+}
@@ -24,6 +24,7 @@ import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.R;
 import com.google.android.gnd.model.basemap.OfflineBaseMap;
 import com.google.android.gnd.model.basemap.OfflineBaseMap.State;
+import com.google.android.gnd.model.basemap.OfflineBaseMapSizeEstimate;
 import com.google.android.gnd.persistence.uuid.OfflineUuidGenerator;
 import com.google.android.gnd.repository.OfflineBaseMapRepository;
 import com.google.android.gnd.rx.Event;
@@ -31,6 +32,7 @@ import com.google.android.gnd.rx.annotations.Hot;
 import com.google.android.gnd.ui.common.AbstractViewModel;
 import io.reactivex.processors.FlowableProcessor;
 import io.reactivex.processors.PublishProcessor;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import timber.log.Timber;
 
@@ -41,8 +43,15 @@ public class OfflineBaseMapSelectorViewModel extends AbstractViewModel {
     FAILURE
   }
 
+  /** Delay after the viewport stops moving before its size is estimated. */
+  private static final long SIZE_ESTIMATE_DELAY_MILLIS = 300;
+
+  private static final double BYTES_PER_MB = 1024 * 1024;
+
   @Hot private final FlowableProcessor<OfflineBaseMap> downloadClicks = PublishProcessor.create();
+  @Hot private final FlowableProcessor<LatLngBounds> viewports = PublishProcessor.create();
   private final LiveData<Event<DownloadMessage>> messages;
+  private final LiveData<String> sizeEstimate;
   private final OfflineUuidGenerator offlineUuidGenerator;
   @Nullable private LatLngBounds viewport;
   private final Resources resources;
@@ -61,10 +70,29 @@ public class OfflineBaseMapSelectorViewModel extends AbstractViewModel {
                         .toSingleDefault(DownloadMessage.STARTED)
                         .onErrorReturn(this::onEnqueueError)
                         .map(Event::create)));
+    this.sizeEstimate =
+        LiveDataReactiveStreams.fromPublisher(
+            viewports
+                .debounce(SIZE_ESTIMATE_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                .switchMap(
+                    bounds ->
+                        offlineBaseMapRepository
+                            .estimateSize(bounds)
+                            .map(this::formatSizeEstimate)
+                            .doOnError(e -> Timber.e(e, "Failed to estimate area size"))
+                            .onErrorReturnItem("")));
     this.offlineUuidGenerator = offlineUuidGenerator;
     this.resources = resources;
   }
 
+  private String formatSizeEstimate(OfflineBaseMapSizeEstimate estimate) {
+    return resources.getString(
+        estimate.isComplete()
+            ? R.string.offline_base_map_selector_size
+            : R.string.offline_base_map_selector_size_partial,
+        estimate.getBytesToDownload() / BYTES_PER_MB);
+  }
+
   private DownloadMessage onEnqueueError(Throwable e) {
     Timber.e("Failed to add area and queue downloads: %s", e.getMessage());
     return DownloadMessage.FAILURE;
@@ -74,8 +102,14 @@ public class OfflineBaseMapSelectorViewModel extends AbstractViewModel {
     return this.messages;
   }
 
+  /** Returns the estimated download size of the selected area, updated as the viewport moves. */
+  public LiveData<String> getSizeEstimate() {
+    return sizeEstimate;
+  }
+
   void setViewport(LatLngBounds viewport) {
     this.viewport = viewport;
+    viewports.onNext(viewport);
   }
 
   public void onDownloadClick() {
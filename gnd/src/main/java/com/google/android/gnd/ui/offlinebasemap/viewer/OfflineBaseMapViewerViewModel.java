@@ -16,23 +16,15 @@
 
 package com.google.android.gnd.ui.offlinebasemap.viewer;
 
-import static java8.util.stream.StreamSupport.stream;
-
-import android.content.Context;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.LiveDataReactiveStreams;
 import com.google.android.gnd.model.basemap.OfflineBaseMap;
-import com.google.android.gnd.model.basemap.tile.TileSource;
 import com.google.android.gnd.repository.OfflineBaseMapRepository;
 import com.google.android.gnd.rx.annotations.Hot;
 import com.google.android.gnd.ui.common.AbstractViewModel;
-import com.google.common.collect.ImmutableSet;
-import dagger.hilt.android.qualifiers.ApplicationContext;
 import io.reactivex.Completable;
 import io.reactivex.processors.BehaviorProcessor;
 import io.reactivex.processors.FlowableProcessor;
-import java.io.File;
-import java.lang.ref.WeakReference;
 import javax.inject.Inject;
 
 /**
@@ -41,21 +33,20 @@ import javax.inject.Inject;
  */
 public class OfflineBaseMapViewerViewModel extends AbstractViewModel {
 
+  private static final double BYTES_PER_MB = 1024 * 1024;
+
   @Hot(replays = true)
   private final FlowableProcessor<OfflineBaseMapViewerFragmentArgs> argsProcessor =
       BehaviorProcessor.create();
 
   private final OfflineBaseMapRepository offlineBaseMapRepository;
-  private final WeakReference<Context> context;
   public LiveData<Double> areaStorageSize;
   public LiveData<String> areaName;
   private LiveData<OfflineBaseMap> offlineArea;
 
   @Inject
-  public OfflineBaseMapViewerViewModel(
-      OfflineBaseMapRepository offlineBaseMapRepository, @ApplicationContext Context context) {
+  public OfflineBaseMapViewerViewModel(OfflineBaseMapRepository offlineBaseMapRepository) {
     this.offlineBaseMapRepository = offlineBaseMapRepository;
-    this.context = new WeakReference<>(context);
     this.areaName =
         LiveDataReactiveStreams.fromPublisher(
             this.argsProcessor.switchMap(
@@ -71,10 +62,8 @@ public class OfflineBaseMapViewerViewModel extends AbstractViewModel {
                     this.offlineBaseMapRepository
                         .getOfflineArea(args.getOfflineAreaId())
                         .toFlowable()
-                        .flatMap(
-                            offlineBaseMapRepository
-                                ::getIntersectingDownloadedTileSourcesOnceAndStream)
-                        .map(this::tileSourcesToTotalStorageSize)));
+                        .flatMap(offlineBaseMapRepository::getDownloadedSizeOnceAndStream)
+                        .map(bytes -> bytes / BYTES_PER_MB)));
     this.offlineArea =
         LiveDataReactiveStreams.fromPublisher(
             this.argsProcessor.switchMap(
@@ -84,20 +73,6 @@ public class OfflineBaseMapViewerViewModel extends AbstractViewModel {
                         .toFlowable()));
   }
 
-  private Double tileSourcesToTotalStorageSize(ImmutableSet<TileSource> tileSources) {
-    return stream(tileSources).map(this::tileSourceStorageSize).reduce((x, y) -> x + y).orElse(0.0);
-  }
-
-  private double tileSourceStorageSize(TileSource tileSource) {
-    Context context1 = context.get();
-    if (context1 == null) {
-      return 0.0;
-    } else {
-      File tileFile = new File(context1.getFilesDir(), tileSource.getPath());
-      return (double) tileFile.length() / (1024 * 1024);
-    }
-  }
-
   /**
    * Removes the offline area associated with this viewmodel from the device by removing all tile
    * sources that are not included in other areas and removing the area from the db.
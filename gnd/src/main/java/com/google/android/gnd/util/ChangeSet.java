@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.util;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java8.util.function.Function;
+
+/**
+ * Changes to a set of objects keyed by id between two consecutive emissions of a stream. Snapshots
+ * describe the complete set as additions; consumers should discard any state built from earlier
+ * change sets before applying them.
+ */
+@AutoValue
+public abstract class ChangeSet<T> {
+
+  /** Returns a new snapshot containing only the specified objects, keyed by id. */
+  public static <T> ChangeSet<T> snapshot(ImmutableMap<String, T> objects) {
+    return new AutoValue_ChangeSet<>(true, objects, ImmutableMap.of(), ImmutableSet.of());
+  }
+
+  public static <T> ChangeSet<T> create(
+      ImmutableMap<String, T> added,
+      ImmutableMap<String, T> modified,
+      ImmutableSet<String> removed) {
+    return new AutoValue_ChangeSet<>(false, added, modified, removed);
+  }
+
+  /**
+   * Returns a transformer which converts a stream of complete collections into a stream of change
+   * sets. The first change set emitted to each subscriber is a snapshot; subsequent collections
+   * which don't differ from their predecessor are skipped. Objects are compared using {@link
+   * Object#equals}.
+   */
+  public static <T> FlowableTransformer<Collection<T>, ChangeSet<T>> diffs(
+      Function<T, String> idFunction) {
+    return upstream ->
+        Flowable.defer(
+            () -> {
+              Map<String, T> previous = new HashMap<>();
+              boolean[] first = {true};
+              return upstream
+                  .map(
+                      collection -> {
+                        Map<String, T> current = new HashMap<>();
+                        for (T object : collection) {
+                          current.put(idFunction.apply(object), object);
+                        }
+                        ChangeSet<T> changes =
+                            first[0]
+                                ? snapshot(ImmutableMap.copyOf(current))
+                                : diff(previous, current);
+                        first[0] = false;
+                        previous.clear();
+                        previous.putAll(current);
+                        return changes;
+                      })
+                  .filter(changes -> changes.isSnapshot() || !changes.isEmpty());
+            });
+  }
+
+  /**
+   * Returns a transformer which replaces snapshots with the changes needed to turn the set built up
+   * from earlier change sets into the snapshot, so that consumers can apply every change set
+   * incrementally without diffing it against their own state. Empty change sets are skipped.
+   */
+  public static <T> FlowableTransformer<ChangeSet<T>, ChangeSet<T>> deltas() {
+    return upstream ->
+        Flowable.defer(
+            () -> {
+              Map<String, T> current = new HashMap<>();
+              return upstream
+                  .map(
+                      changes -> {
+                        ChangeSet<T> delta =
+                            changes.isSnapshot() ? diff(current, changes.getAdded()) : changes;
+                        delta.applyTo(current);
+                        return delta;
+                      })
+                  .filter(delta -> !delta.isEmpty());
+            });
+  }
+
+  /** Returns the changes needed to turn {@code before} into {@code after}. */
+  public static <T> ChangeSet<T> diff(Map<String, T> before, Map<String, T> after) {
+    ImmutableMap.Builder<String, T> added = ImmutableMap.builder();
+    ImmutableMap.Builder<String, T> modified = ImmutableMap.builder();
+    ImmutableSet.Builder<String> removed = ImmutableSet.builder();
+    for (Entry<String, T> entry : after.entrySet()) {
+      T oldValue = before.get(entry.getKey());
+      if (oldValue == null) {
+        added.put(entry);
+      } else if (!oldValue.equals(entry.getValue())) {
+        modified.put(entry);
+      }
+    }
+    for (String id : before.keySet()) {
+      if (!after.containsKey(id)) {
+        removed.add(id);
+      }
+    }
+    return create(added.build(), modified.build(), removed.build());
+  }
+
+  /** Returns true iff this is a complete snapshot rather than a delta. */
+  public abstract boolean isSnapshot();
+
+  /** Objects added since the last change set, keyed by id. */
+  public abstract ImmutableMap<String, T> getAdded();
+
+  /** Objects whose values changed since the last change set, keyed by id. */
+  public abstract ImmutableMap<String, T> getModified();
+
+  /** Ids of objects removed since the last change set. */
+  public abstract ImmutableSet<String> getRemoved();
+
+  public boolean isEmpty() {
+    return getAdded().isEmpty() && getModified().isEmpty() && getRemoved().isEmpty();
+  }
+
+  /** Updates the specified objects, keyed by id, to reflect this change set. */
+  public void applyTo(Map<String, T> objects) {
+    if (isSnapshot()) {
+      objects.clear();
+    }
+    for (String id : getRemoved()) {
+      objects.remove(id);
+    }
+    objects.putAll(getModified());
+    objects.putAll(getAdded());
+  }
+
+  /**
+   * Returns a change set with the same ids and snapshot state, with each added and modified object
+   * transformed using the specified function.
+   */
+  public <R> ChangeSet<R> map(Function<T, R> function) {
+    return new AutoValue_ChangeSet<>(
+        isSnapshot(),
+        mapValues(getAdded(), function),
+        mapValues(getModified(), function),
+        getRemoved());
+  }
+
+  private static <T, R> ImmutableMap<String, R> mapValues(
+      ImmutableMap<String, T> objects, Function<T, R> function) {
+    ImmutableMap.Builder<String, R> builder = ImmutableMap.builder();
+    for (Entry<String, T> entry : objects.entrySet()) {
+      builder.put(entry.getKey(), function.apply(entry.getValue()));
+    }
+    return builder.build();
+  }
+}
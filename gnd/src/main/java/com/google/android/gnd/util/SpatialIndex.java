@@ -0,0 +1,234 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.util;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Quadtree of lat/lng bounding boxes keyed by id, used to find entries intersecting an area without
+ * scanning every entry. Points are stored as boxes with zero area.
+ *
+ * <p>Each node holds up to {@link #NODE_CAPACITY} entries before splitting into quadrants. Entries
+ * which straddle the split lines of a node stay in that node. Instances are not thread-safe.
+ */
+public class SpatialIndex<K> {
+  private static final int NODE_CAPACITY = 16;
+
+  /** Depth at which nodes stop splitting, about 1m at the equator. */
+  private static final int MAX_DEPTH = 24;
+
+  private final Map<K, Entry<K>> entries = new HashMap<>();
+  private Node<K> root = newRoot();
+
+  private static <K> Node<K> newRoot() {
+    return new Node<>(-90, -180, 90, 180, 0);
+  }
+
+  /** Adds or replaces the entry with the specified key. */
+  public void put(K key, double south, double west, double north, double east) {
+    remove(key);
+    Entry<K> entry =
+        new Entry<>(
+            key,
+            Math.min(south, north),
+            Math.min(west, east),
+            Math.max(south, north),
+            Math.max(west, east));
+    entries.put(key, entry);
+    root.insert(entry);
+  }
+
+  /** Adds or replaces the entry with the specified key. */
+  public void put(K key, LatLngBounds bounds) {
+    put(
+        key,
+        bounds.southwest.latitude,
+        bounds.southwest.longitude,
+        bounds.northeast.latitude,
+        bounds.northeast.longitude);
+  }
+
+  /** Adds or replaces a point entry with the specified key. */
+  public void put(K key, double latitude, double longitude) {
+    put(key, latitude, longitude, latitude, longitude);
+  }
+
+  /** Removes the entry with the specified key, returning false if it wasn't present. */
+  public boolean remove(K key) {
+    Entry<K> entry = entries.remove(key);
+    if (entry == null) {
+      return false;
+    }
+    if (entry.node != null) {
+      entry.node.remove(entry);
+    }
+    return true;
+  }
+
+  public boolean contains(K key) {
+    return entries.containsKey(key);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public void clear() {
+    entries.clear();
+    root = newRoot();
+  }
+
+  /** Returns the keys of all entries whose bounding boxes intersect the specified box. */
+  public List<K> query(double south, double west, double north, double east) {
+    List<K> results = new ArrayList<>();
+    root.query(south, west, north, east, results);
+    return results;
+  }
+
+  /**
+   * Returns the keys of all entries whose bounding boxes intersect the specified bounds. Bounds
+   * crossing the antimeridian are split in two.
+   */
+  public List<K> query(LatLngBounds bounds) {
+    double south = bounds.southwest.latitude;
+    double west = bounds.southwest.longitude;
+    double north = bounds.northeast.latitude;
+    double east = bounds.northeast.longitude;
+    if (west <= east) {
+      return query(south, west, north, east);
+    }
+    List<K> results = new ArrayList<>();
+    root.query(south, west, north, 180, results);
+    root.query(south, -180, north, east, results);
+    return results;
+  }
+
+  /** Returns the keys of all entries whose bounding boxes contain the specified point. */
+  public List<K> query(double latitude, double longitude) {
+    return query(latitude, longitude, latitude, longitude);
+  }
+
+  private static class Entry<K> {
+    private final K key;
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+    @Nullable private Node<K> node;
+
+    Entry(K key, double south, double west, double north, double east) {
+      this.key = key;
+      this.south = south;
+      this.west = west;
+      this.north = north;
+      this.east = east;
+    }
+
+    boolean intersects(double s, double w, double n, double e) {
+      return south <= n && north >= s && west <= e && east >= w;
+    }
+  }
+
+  private static class Node<K> {
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+    private final int depth;
+    private final List<Entry<K>> entries = new ArrayList<>();
+    @Nullable private List<Node<K>> children;
+
+    Node(double south, double west, double north, double east, int depth) {
+      this.south = south;
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.depth = depth;
+    }
+
+    void insert(Entry<K> entry) {
+      if (children != null) {
+        Node<K> child = childContaining(children, entry);
+        if (child != null) {
+          child.insert(entry);
+          return;
+        }
+      }
+      entry.node = this;
+      entries.add(entry);
+      if (children == null && entries.size() > NODE_CAPACITY && depth < MAX_DEPTH) {
+        split();
+      }
+    }
+
+    void remove(Entry<K> entry) {
+      // Entry lists are bounded by NODE_CAPACITY except for straddling entries, so a linear scan
+      // is cheap in practice.
+      entries.remove(entry);
+    }
+
+    private void split() {
+      double midLat = (south + north) / 2;
+      double midLng = (west + east) / 2;
+      List<Node<K>> quadrants = new ArrayList<>(4);
+      quadrants.add(new Node<>(south, west, midLat, midLng, depth + 1));
+      quadrants.add(new Node<>(south, midLng, midLat, east, depth + 1));
+      quadrants.add(new Node<>(midLat, west, north, midLng, depth + 1));
+      quadrants.add(new Node<>(midLat, midLng, north, east, depth + 1));
+      children = quadrants;
+      List<Entry<K>> current = new ArrayList<>(entries);
+      entries.clear();
+      for (Entry<K> entry : current) {
+        insert(entry);
+      }
+    }
+
+    @Nullable
+    private static <K> Node<K> childContaining(List<Node<K>> quadrants, Entry<K> entry) {
+      for (Node<K> child : quadrants) {
+        if (entry.south >= child.south
+            && entry.north <= child.north
+            && entry.west >= child.west
+            && entry.east <= child.east) {
+          return child;
+        }
+      }
+      return null;
+    }
+
+    void query(double s, double w, double n, double e, List<K> results) {
+      if (south > n || north < s || west > e || east < w) {
+        return;
+      }
+      for (Entry<K> entry : entries) {
+        if (entry.intersects(s, w, n, e)) {
+          results.add(entry.key);
+        }
+      }
+      if (children != null) {
+        for (Node<K> child : children) {
+          child.query(s, w, n, e, results);
+        }
+      }
+    }
+  }
+}
@@ -40,6 +40,14 @@ public class TestScheduler implements Schedulers {
     return wrapped;
   }
 
+  @Override
+  public Scheduler computation() {
+    Scheduler scheduler = io.reactivex.schedulers.Schedulers.trampoline();
+    IdlingResourceScheduler wrapped = Rx2Idler.wrap(scheduler, "Test Computation Scheduler");
+    IdlingRegistry.getInstance().register(wrapped);
+    return wrapped;
+  }
+
   @Override
   public Scheduler ui() {
     Scheduler scheduler = io.reactivex.schedulers.Schedulers.trampoline();
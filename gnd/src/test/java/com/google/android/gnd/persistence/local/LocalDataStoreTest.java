@@ -19,9 +19,11 @@ package com.google.android.gnd.persistence.local;
 import static com.google.common.truth.Truth.assertThat;
 import static org.hamcrest.Matchers.samePropertyValuesAs;
 
+import android.database.sqlite.SQLiteConstraintException;
 import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gnd.model.AuditInfo;
 import com.google.android.gnd.model.Mutation;
 import com.google.android.gnd.model.Project;
 import com.google.android.gnd.model.User;
@@ -30,6 +32,7 @@ import com.google.android.gnd.model.basemap.tile.TileSource;
 import com.google.android.gnd.model.basemap.tile.TileSource.State;
 import com.google.android.gnd.model.feature.Feature;
 import com.google.android.gnd.model.feature.FeatureMutation;
+import com.google.android.gnd.model.feature.GeoJsonFeature;
 import com.google.android.gnd.model.feature.Point;
 import com.google.android.gnd.model.feature.PointFeature;
 import com.google.android.gnd.model.form.Element;
@@ -46,7 +49,9 @@ import com.google.android.gnd.persistence.local.room.dao.FeatureDao;
 import com.google.android.gnd.persistence.local.room.dao.ObservationDao;
 import com.google.android.gnd.persistence.local.room.models.EntityState;
 import com.google.android.gnd.rx.SchedulersModule;
+import com.google.android.gnd.util.ChangeSet;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import dagger.hilt.android.testing.HiltAndroidRule;
 import dagger.hilt.android.testing.HiltAndroidTest;
@@ -309,6 +314,66 @@ public class LocalDataStoreTest {
     subscriber.assertValueSet(ImmutableSet.of(ImmutableSet.of(), ImmutableSet.of(feature)));
   }
 
+  @Test
+  public void testGetFeatureChangesOnceAndStream() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+
+    TestSubscriber<ChangeSet<Feature>> subscriber =
+        localDataStore.getFeatureChangesOnceAndStream(TEST_PROJECT).test();
+
+    localDataStore.applyAndEnqueue(TEST_FEATURE_MUTATION).blockingAwait();
+
+    Feature feature = localDataStore.getFeature(TEST_PROJECT, "feature id").blockingGet();
+
+    subscriber.assertValues(
+        ChangeSet.snapshot(ImmutableMap.of()),
+        ChangeSet.create(
+            ImmutableMap.of("feature id", feature), ImmutableMap.of(), ImmutableSet.of()));
+  }
+
+  @Test
+  public void testGetFeatureChangesInBoundsOnceAndStream() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+    localDataStore.applyAndEnqueue(createTestFeatureMutation(TEST_POINT_2)).blockingAwait();
+    Feature feature = localDataStore.getFeature(TEST_PROJECT, "feature id").blockingGet();
+
+    localDataStore
+        .getFeatureChangesInBoundsOnceAndStream(
+            TEST_PROJECT, new LatLngBounds(new LatLng(50.0, 43.0), new LatLng(52.0, 45.0)))
+        .test()
+        .assertValue(ChangeSet.snapshot(ImmutableMap.of("feature id", feature)));
+    localDataStore
+        .getFeatureChangesInBoundsOnceAndStream(
+            TEST_PROJECT, new LatLngBounds(new LatLng(-10.0, -10.0), new LatLng(10.0, 10.0)))
+        .test()
+        .assertValue(ChangeSet.snapshot(ImmutableMap.of()));
+  }
+
+  @Test
+  public void testGetFeatureChangesInBoundsOnceAndStream_includesUnparseableGeoJson() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+    GeoJsonFeature geoJsonFeature =
+        GeoJsonFeature.newBuilder()
+            .setId("geo json feature id")
+            .setProject(TEST_PROJECT)
+            .setLayer(TEST_LAYER)
+            .setGeoJsonString("not geo json")
+            .setCreated(AuditInfo.now(TEST_USER))
+            .setLastModified(AuditInfo.now(TEST_USER))
+            .build();
+    localDataStore.mergeFeature(geoJsonFeature).blockingAwait();
+    Feature feature = localDataStore.getFeature(TEST_PROJECT, "geo json feature id").blockingGet();
+
+    localDataStore
+        .getFeatureChangesInBoundsOnceAndStream(
+            TEST_PROJECT, new LatLngBounds(new LatLng(50.0, 43.0), new LatLng(52.0, 45.0)))
+        .test()
+        .assertValue(ChangeSet.snapshot(ImmutableMap.of("geo json feature id", feature)));
+  }
+
   @Test
   public void testUpdateMutations() {
     localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
@@ -340,6 +405,117 @@ public class LocalDataStoreTest {
         .assertValue(AbstractCollection::isEmpty);
   }
 
+  @Test
+  public void testGetPendingMutationsPage() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_FEATURE_MUTATION).blockingAwait();
+    ObservationMutation mutation =
+        TEST_OBSERVATION_MUTATION.toBuilder().setClientTimestamp(new Date(0)).build();
+    localDataStore.applyAndEnqueue(mutation).blockingAwait();
+
+    localDataStore
+        .getPendingMutationsPage(null, 10)
+        .test()
+        .assertValue(ImmutableList.of(mutation, TEST_FEATURE_MUTATION));
+    localDataStore
+        .getPendingMutationsPage(null, 1)
+        .test()
+        .assertValue(ImmutableList.of(mutation));
+    localDataStore
+        .getPendingMutationsPage(mutation, 1)
+        .test()
+        .assertValue(ImmutableList.of(TEST_FEATURE_MUTATION));
+    localDataStore
+        .getPendingMutationsPage(TEST_FEATURE_MUTATION, 1)
+        .test()
+        .assertValue(AbstractCollection::isEmpty);
+  }
+
+  @Test
+  public void testQuarantineMutations() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_FEATURE_MUTATION).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_OBSERVATION_MUTATION).blockingAwait();
+    Mutation rejected =
+        TEST_OBSERVATION_MUTATION.toBuilder().setRetryCount(5).setLastError("rejected").build();
+
+    localDataStore.quarantineMutations(ImmutableList.of(rejected)).test().assertComplete();
+
+    localDataStore
+        .getPendingMutationsPage(null, 10)
+        .test()
+        .assertValue(ImmutableList.of(TEST_FEATURE_MUTATION));
+    localDataStore.getQuarantinedMutations().test().assertValue(ImmutableList.of(rejected));
+  }
+
+  @Test
+  public void testRetryQuarantinedMutations() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_FEATURE_MUTATION).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_OBSERVATION_MUTATION).blockingAwait();
+    Mutation rejected =
+        TEST_OBSERVATION_MUTATION.toBuilder()
+            .setRetryCount(5)
+            .setLastError("rejected")
+            .setNextAttemptTimestamp(1000)
+            .build();
+    localDataStore.quarantineMutations(ImmutableList.of(rejected)).blockingAwait();
+
+    localDataStore.retryQuarantinedMutations(ImmutableList.of(rejected)).test().assertComplete();
+
+    localDataStore
+        .getPendingMutationsPage(null, 10)
+        .test()
+        .assertValue(
+            ImmutableList.of(
+                TEST_FEATURE_MUTATION,
+                rejected.toBuilder().setRetryCount(0).setNextAttemptTimestamp(0).build()));
+    localDataStore.getQuarantinedMutations().test().assertValue(ImmutableList.of());
+  }
+
+  @Test
+  public void testDiscardQuarantinedMutations() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_FEATURE_MUTATION).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_OBSERVATION_MUTATION).blockingAwait();
+    Mutation rejected =
+        TEST_OBSERVATION_MUTATION.toBuilder().setRetryCount(5).setLastError("rejected").build();
+    localDataStore.quarantineMutations(ImmutableList.of(rejected)).blockingAwait();
+
+    localDataStore.discardQuarantinedMutations(ImmutableList.of(rejected)).test().assertComplete();
+
+    localDataStore
+        .getPendingMutationsPage(null, 10)
+        .test()
+        .assertValue(ImmutableList.of(TEST_FEATURE_MUTATION));
+    localDataStore.getQuarantinedMutations().test().assertValue(ImmutableList.of());
+  }
+
+  @Test
+  public void testMergeObservation_failsIfFeatureMissing() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_FEATURE_MUTATION).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_OBSERVATION_MUTATION).blockingAwait();
+    PointFeature feature =
+        (PointFeature) localDataStore.getFeature(TEST_PROJECT, "feature id").blockingGet();
+    Observation observation =
+        localDataStore.getObservation(feature, "observation id").blockingGet().toBuilder()
+            .setId("other observation id")
+            .setFeature(feature.toBuilder().setId("missing feature id").build())
+            .build();
+
+    // Constraint violations must not be silently ignored.
+    localDataStore
+        .mergeObservation(observation)
+        .test()
+        .assertError(SQLiteConstraintException.class);
+  }
+
   @Test
   public void testMergeFeature() {
     localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
@@ -357,6 +533,36 @@ public class LocalDataStoreTest {
         .assertValue(newFeature -> ((PointFeature) newFeature).getPoint().equals(TEST_POINT_2));
   }
 
+  @Test
+  public void testMergeAndDeleteFeatures() {
+    localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
+    localDataStore.insertOrUpdateProject(TEST_PROJECT).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_FEATURE_MUTATION).blockingAwait();
+    localDataStore.applyAndEnqueue(TEST_OBSERVATION_MUTATION).blockingAwait();
+    PointFeature feature =
+        (PointFeature) localDataStore.getFeature(TEST_PROJECT, "feature id").blockingGet();
+    localDataStore
+        .mergeFeature(feature.toBuilder().setId("deleted feature id").build())
+        .blockingAwait();
+    PointFeature updatedFeature = feature.toBuilder().setPoint(TEST_POINT_2).build();
+    PointFeature newFeature = feature.toBuilder().setId("new feature id").build();
+
+    localDataStore
+        .mergeAndDeleteFeatures(
+            ImmutableList.of(updatedFeature, newFeature), ImmutableList.of("deleted feature id"))
+        .test()
+        .assertComplete();
+
+    localDataStore
+        .getFeature(TEST_PROJECT, "feature id")
+        .test()
+        .assertValue(f -> ((PointFeature) f).getPoint().equals(TEST_POINT_2));
+    localDataStore.getFeature(TEST_PROJECT, "new feature id").test().assertValueCount(1);
+    localDataStore.getFeature(TEST_PROJECT, "deleted feature id").test().assertNoValues();
+    // Existing features are updated in place, so their observations aren't cascade deleted.
+    localDataStore.getObservation(updatedFeature, "observation id").test().assertValueCount(1);
+  }
+
   @Test
   public void testApplyAndEnqueue_observationMutation() {
     localDataStore.insertOrUpdateUser(TEST_USER).blockingAwait();
@@ -545,6 +751,33 @@ public class LocalDataStoreTest {
             ImmutableSet.of(TEST_DOWNLOADED_TILE_SOURCE, TEST_PENDING_TILE_SOURCE)));
   }
 
+  @Test
+  public void testInsertOrUpdateTileSources() {
+    localDataStore.insertOrUpdateTileSource(TEST_PENDING_TILE_SOURCE).blockingAwait();
+    TileSource updated = TEST_PENDING_TILE_SOURCE.toBuilder().setBasemapReferenceCount(2).build();
+
+    localDataStore
+        .insertOrUpdateTileSources(ImmutableList.of(updated, TEST_FAILED_TILE_SOURCE))
+        .test()
+        .assertComplete();
+
+    localDataStore
+        .getTileSourcesOnceAndStream()
+        .test()
+        .assertValue(ImmutableSet.of(updated, TEST_FAILED_TILE_SOURCE));
+  }
+
+  @Test
+  public void testGetTileSources() {
+    localDataStore.insertOrUpdateTileSource(TEST_DOWNLOADED_TILE_SOURCE).blockingAwait();
+    localDataStore.insertOrUpdateTileSource(TEST_PENDING_TILE_SOURCE).blockingAwait();
+
+    localDataStore
+        .getTileSources(ImmutableList.of("some_url 1", "some_url 3"))
+        .test()
+        .assertValue(ImmutableList.of(TEST_PENDING_TILE_SOURCE));
+  }
+
   @Test
   public void testGetPendingTile() {
     localDataStore.insertOrUpdateTileSource(TEST_DOWNLOADED_TILE_SOURCE).blockingAwait();
@@ -556,6 +789,85 @@ public class LocalDataStoreTest {
         .assertValue(ImmutableList.of(TEST_PENDING_TILE_SOURCE));
   }
 
+  @Test
+  public void testGetPendingTile_includesInterruptedDownloads() {
+    TileSource inProgressTileSource =
+        TEST_FAILED_TILE_SOURCE.toBuilder().setState(State.IN_PROGRESS).build();
+    localDataStore.insertOrUpdateTileSource(TEST_DOWNLOADED_TILE_SOURCE).blockingAwait();
+    localDataStore.insertOrUpdateTileSource(TEST_PENDING_TILE_SOURCE).blockingAwait();
+    localDataStore.insertOrUpdateTileSource(inProgressTileSource).blockingAwait();
+
+    localDataStore
+        .getPendingTileSources()
+        .test()
+        .assertValue(ImmutableList.of(TEST_PENDING_TILE_SOURCE, inProgressTileSource));
+  }
+
+  @Test
+  public void testUpdateTileSourceStates() {
+    localDataStore.insertOrUpdateTileSource(TEST_PENDING_TILE_SOURCE).blockingAwait();
+    localDataStore.insertOrUpdateTileSource(TEST_FAILED_TILE_SOURCE).blockingAwait();
+
+    localDataStore
+        .updateTileSourceStates(ImmutableList.of("some_url 1", "some_url 3"), State.IN_PROGRESS)
+        .test()
+        .assertComplete();
+
+    localDataStore
+        .getTileSource("some_url 1")
+        .test()
+        .assertValue(TEST_PENDING_TILE_SOURCE.toBuilder().setState(State.IN_PROGRESS).build());
+    localDataStore
+        .getTileSource("some_url 3")
+        .test()
+        .assertValue(TEST_FAILED_TILE_SOURCE.toBuilder().setState(State.IN_PROGRESS).build());
+  }
+
+  @Test
+  public void testUpdateTileSourceStatesAndSizes() {
+    localDataStore.insertOrUpdateTileSource(TEST_PENDING_TILE_SOURCE).blockingAwait();
+
+    localDataStore
+        .updateTileSourceStatesAndSizes(
+            ImmutableList.of(
+                TEST_PENDING_TILE_SOURCE.toBuilder()
+                    .setState(State.DOWNLOADED)
+                    .setSizeBytes(100)
+                    .setBasemapReferenceCount(5)
+                    .build()))
+        .test()
+        .assertComplete();
+
+    // Only the state and size are updated.
+    localDataStore
+        .getTileSource("some_url 1")
+        .test()
+        .assertValue(
+            TEST_PENDING_TILE_SOURCE.toBuilder()
+                .setState(State.DOWNLOADED)
+                .setSizeBytes(100)
+                .build());
+  }
+
+  @Test
+  public void testGetDownloadedTileSourcesSize() {
+    localDataStore
+        .insertOrUpdateTileSource(TEST_DOWNLOADED_TILE_SOURCE.toBuilder().setSizeBytes(100).build())
+        .blockingAwait();
+    localDataStore
+        .insertOrUpdateTileSource(TEST_PENDING_TILE_SOURCE.toBuilder().setSizeBytes(50).build())
+        .blockingAwait();
+
+    localDataStore
+        .getDownloadedTileSourcesSizeOnceAndStream(ImmutableList.of("some_url 1", "some_url 2"))
+        .test()
+        .assertValue(100L);
+    localDataStore
+        .getDownloadedTileSourcesSizeOnceAndStream(ImmutableList.of("some_url 1"))
+        .test()
+        .assertValue(0L);
+  }
+
   @Test
   public void testInsertOfflineArea() {
     localDataStore.insertOrUpdateOfflineArea(TEST_OFFLINE_AREA).test().assertComplete();
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.mbtiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gnd.model.basemap.tile.TileSource;
+import com.google.android.gnd.model.basemap.tile.TileSource.State;
+import com.google.android.gnd.persistence.local.LocalDatabaseModule;
+import com.google.android.gnd.rx.SchedulersModule;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import dagger.hilt.android.testing.HiltAndroidRule;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@HiltAndroidTest
+@UninstallModules({SchedulersModule.class, LocalDatabaseModule.class})
+@Config(application = HiltTestApplication.class)
+@RunWith(RobolectricTestRunner.class)
+public class MbtilesFootprintParserTest {
+
+  private static final String POLYGON_FEATURE =
+      "{\"type\": \"Feature\", \"id\": \"(1, 2, 3)\","
+          + " \"properties\": {\"name\": \"polygon\", \"url\": \"polygon url\"},"
+          + " \"geometry\": {\"type\": \"Polygon\", \"coordinates\": ["
+          + "[[0, 0], [10, 0], [10, 10], [0, 10], [0, 0]],"
+          + "[[2, 2], [8, 2], [8, 8], [2, 8], [2, 2]]]}}";
+
+  private static final String MULTI_POLYGON_FEATURE =
+      "{\"type\": \"Feature\", \"id\": \"(4, 5, 6)\","
+          + " \"properties\": {\"url\": \"multipolygon url\"},"
+          + " \"geometry\": {\"type\": \"MultiPolygon\", \"coordinates\": ["
+          + "[[[20, 0], [30, 0], [30, 10], [20, 10], [20, 0]]],"
+          + "[[[40, 0], [50, 0], [50, 10], [40, 10], [40, 0]]]]}}";
+
+  private static final String NULL_GEOMETRY_FEATURE =
+      "{\"type\": \"Feature\", \"id\": \"(7, 8, 9)\", \"properties\": null, \"geometry\": null}";
+
+  @Rule public HiltAndroidRule hiltRule = new HiltAndroidRule(this);
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private MbtilesFootprintParser parser;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    hiltRule.inject();
+    parser = new MbtilesFootprintParser(() -> "uuid");
+    file = temporaryFolder.newFile("footprints.json");
+  }
+
+  private static LatLngBounds bounds(double south, double west, double north, double east) {
+    return new LatLngBounds(new LatLng(south, west), new LatLng(north, east));
+  }
+
+  private void writeFeatures(String... features) throws IOException {
+    Files.asCharSink(file, Charsets.UTF_8)
+        .write(
+            "{\"type\": \"FeatureCollection\", \"crs\": {\"type\": \"name\"}, \"features\": ["
+                + String.join(",", features)
+                + "], \"bbox\": [0, 0, 50, 10]}");
+  }
+
+  private ImmutableList<String> intersectingUrls(LatLngBounds bounds) {
+    ImmutableList.Builder<String> urls = ImmutableList.builder();
+    for (TileSource tileSource : parser.intersectingTiles(bounds, file)) {
+      urls.add(tileSource.getUrl());
+    }
+    return urls.build();
+  }
+
+  @Test
+  public void intersectingTiles_polygon() throws IOException {
+    writeFeatures(POLYGON_FEATURE);
+
+    // Interior rings are ignored, so areas inside holes still intersect the polygon.
+    assertThat(parser.intersectingTiles(bounds(4, 4, 6, 6), file))
+        .containsExactly(
+            TileSource.newBuilder()
+                .setId("uuid")
+                .setUrl("polygon url")
+                .setPath(TileSource.pathFromId("(1, 2, 3)"))
+                .setState(State.PENDING)
+                .setBasemapReferenceCount(1)
+                .build());
+    assertThat(parser.intersectingTiles(bounds(11, 11, 12, 12), file)).isEmpty();
+  }
+
+  @Test
+  public void intersectingTiles_multiPolygon() throws IOException {
+    writeFeatures(POLYGON_FEATURE, MULTI_POLYGON_FEATURE);
+
+    assertThat(intersectingUrls(bounds(4, 44, 6, 46))).containsExactly("multipolygon url");
+    // Between the two polygons, but inside the bounding box of the feature.
+    assertThat(intersectingUrls(bounds(4, 34, 6, 36))).isEmpty();
+    assertThat(intersectingUrls(bounds(4, 5, 6, 25)))
+        .containsExactly("polygon url", "multipolygon url");
+  }
+
+  @Test
+  public void intersectingTiles_skipsFeaturesWithoutGeometry() throws IOException {
+    writeFeatures(NULL_GEOMETRY_FEATURE, POLYGON_FEATURE);
+
+    assertThat(intersectingUrls(bounds(-90, -180, 90, 180))).containsExactly("polygon url");
+  }
+
+  @Test
+  public void intersectingTiles_skipsUnknownKeys() throws IOException {
+    writeFeatures(
+        "{\"type\": \"Feature\", \"id\": \"(1, 2, 3)\", \"extra\": [{\"id\": \"other\"}],"
+            + " \"properties\": {\"nested\": {\"url\": \"other url\"}, \"url\": \"polygon url\"},"
+            + " \"geometry\": {\"type\": \"Polygon\", \"bbox\": [0, 0, 1, 1],"
+            + " \"coordinates\": [[[0, 0, 100], [10, 0, 100], [10, 10, 100], [0, 0, 100]]]}}");
+
+    assertThat(intersectingUrls(bounds(1, 5, 2, 6))).containsExactly("polygon url");
+  }
+
+  @Test
+  public void intersectingTiles_invalidFile() throws IOException {
+    Files.asCharSink(file, Charsets.UTF_8).write("{\"features\": {}}");
+
+    assertThat(parser.intersectingTiles(bounds(-90, -180, 90, 180), file)).isEmpty();
+  }
+
+  @Test
+  public void intersectingTiles_rereadsModifiedFile() throws IOException {
+    writeFeatures(POLYGON_FEATURE);
+    assertThat(intersectingUrls(bounds(4, 4, 6, 6))).containsExactly("polygon url");
+    long lastModified = file.lastModified();
+
+    // Contents of the same length and modification time aren't read again.
+    writeFeatures(POLYGON_FEATURE.replace("polygon url", "changed url"));
+    assertThat(file.setLastModified(lastModified)).isTrue();
+    assertThat(intersectingUrls(bounds(4, 4, 6, 6))).containsExactly("polygon url");
+
+    assertThat(file.setLastModified(lastModified + 1000)).isTrue();
+    assertThat(intersectingUrls(bounds(4, 4, 6, 6))).containsExactly("changed url");
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.mbtiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+public class TileSetSourceTest {
+
+  /** A triangle with vertices at (0, 0), (20, 0) and (0, 20), given as {lng, lat} pairs. */
+  private static final double[] TRIANGLE = {0, 0, 20, 0, 0, 20, 0, 0};
+
+  private static final TileSetSource TRIANGLE_SOURCE =
+      new TileSetSource("id", "url", new double[] {0, 0, 20, 20}, ImmutableList.of(TRIANGLE));
+
+  private static LatLngBounds bounds(double south, double west, double north, double east) {
+    return new LatLngBounds(new LatLng(south, west), new LatLng(north, east));
+  }
+
+  @Test
+  public void intersects_selectionInsideFootprint() {
+    // The selection lies entirely inside one large tile set, so no edges cross it.
+    assertThat(TRIANGLE_SOURCE.intersects(bounds(2, 2, 4, 4))).isTrue();
+  }
+
+  @Test
+  public void intersects_footprintInsideSelection() {
+    assertThat(TRIANGLE_SOURCE.intersects(bounds(-10, -10, 30, 30))).isTrue();
+  }
+
+  @Test
+  public void intersects_edgeCrossesSelection() {
+    // The selection contains a vertex of the triangle, but none of its corners are inside it.
+    assertThat(TRIANGLE_SOURCE.intersects(bounds(-1, 19.5, 1, 21))).isTrue();
+  }
+
+  @Test
+  public void intersects_disjoint() {
+    assertThat(TRIANGLE_SOURCE.intersects(bounds(30, 30, 40, 40))).isFalse();
+  }
+
+  @Test
+  public void intersects_insideBoundingBoxButOutsideFootprint() {
+    assertThat(TRIANGLE_SOURCE.intersects(bounds(15, 15, 19, 19))).isFalse();
+  }
+
+  @Test
+  public void intersects_withoutRingsCoversBoundingBox() {
+    TileSetSource source =
+        new TileSetSource("id", "url", new double[] {0, 0, 20, 20}, ImmutableList.of());
+
+    assertThat(source.intersects(bounds(15, 15, 19, 19))).isTrue();
+  }
+
+  @Test
+  public void intersects_selectionCrossingAntimeridian() {
+    TileSetSource east =
+        new TileSetSource(
+            "id",
+            "url",
+            new double[] {0, 170, 10, 175},
+            ImmutableList.of(new double[] {170, 0, 175, 0, 175, 10, 170, 10, 170, 0}));
+    TileSetSource west =
+        new TileSetSource(
+            "id",
+            "url",
+            new double[] {0, -175, 10, -170},
+            ImmutableList.of(new double[] {-175, 0, -170, 0, -170, 10, -175, 10, -175, 0}));
+    TileSetSource prime =
+        new TileSetSource(
+            "id",
+            "url",
+            new double[] {0, -5, 10, 5},
+            ImmutableList.of(new double[] {-5, 0, 5, 0, 5, 10, -5, 10, -5, 0}));
+    // West of the selection is greater than east, since it spans the antimeridian.
+    LatLngBounds selection = bounds(2, 172, 8, -172);
+
+    assertThat(east.intersects(selection)).isTrue();
+    assertThat(west.intersects(selection)).isTrue();
+    assertThat(prime.intersects(selection)).isFalse();
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.sync;
+
+import static com.google.android.gnd.persistence.sync.FileDownloader.CACHE_VALIDATORS_FILE_SUFFIX;
+import static com.google.android.gnd.persistence.sync.FileDownloader.PART_FILE_SUFFIX;
+import static com.google.android.gnd.persistence.sync.FileDownloader.VALIDATOR_FILE_SUFFIX;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.android.gnd.model.basemap.tile.TileSource;
+import com.google.android.gnd.model.basemap.tile.TileSource.State;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Runs downloads against a local HTTP server serving fixed content. */
+public class FileDownloaderTest {
+
+  private static final int FILE_SIZE = 256 * 1024;
+  private static final int FILE_COUNT = 8;
+  private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+  private static final long RESPONSE_DELAY_MILLIS = 200;
+  private static final String ETAG = "\"v1\"";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final byte[] content = new byte[FILE_SIZE];
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private final AtomicInteger maxActiveRequests = new AtomicInteger();
+
+  /** Whether the server should close connections halfway through sending response bodies. */
+  private volatile boolean truncateResponses;
+
+  private ExecutorService serverExecutor;
+  private HttpServer server;
+  private FileDownloader fileDownloader;
+
+  @Before
+  public void setUp() throws IOException {
+    new Random(0).nextBytes(content);
+    // Tile sources are validated as SQLite files once downloaded.
+    byte[] sqliteHeader = "SQLite format 3\u0000".getBytes(Charsets.US_ASCII);
+    System.arraycopy(sqliteHeader, 0, content, 0, sqliteHeader.length);
+    serverExecutor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", this::handleRequest);
+    server.setExecutor(serverExecutor);
+    server.start();
+    fileDownloader = new FileDownloader();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  /**
+   * Serves {@link #content} with a fixed ETag, honouring Range requests whose If-Range header
+   * matches it and responding with 304 Not Modified to requests whose If-None-Match header does.
+   * HEAD requests are answered with the content length only.
+   */
+  private void handleRequest(HttpExchange exchange) throws IOException {
+    maxActiveRequests.accumulateAndGet(activeRequests.incrementAndGet(), Math::max);
+    try {
+      Thread.sleep(RESPONSE_DELAY_MILLIS);
+      exchange.getResponseHeaders().set("ETag", ETAG);
+      if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+      if (exchange.getRequestMethod().equals("HEAD")) {
+        exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+      int offset = 0;
+      if (range != null && ETAG.equals(ifRange)) {
+        offset = Integer.parseInt(range.replaceAll("bytes=(\\d+)-", "$1"));
+        exchange
+            .getResponseHeaders()
+            .set(
+                "Content-Range",
+                "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+      }
+      byte[] body = Arrays.copyOfRange(content, offset, content.length);
+      exchange.sendResponseHeaders(offset == 0 ? 200 : 206, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body, 0, truncateResponses ? body.length / 2 : body.length);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      activeRequests.decrementAndGet();
+      exchange.close();
+    }
+  }
+
+  private File getFile(String name) {
+    return new File(temporaryFolder.getRoot(), name);
+  }
+
+  /** Writes the first {@code length} bytes of {@link #content} as if left by a failed download. */
+  private void writePartialFile(File file, int length, String validator) throws IOException {
+    Files.write(Arrays.copyOf(content, length), getFile(file.getName() + PART_FILE_SUFFIX));
+    Files.asCharSink(getFile(file.getName() + VALIDATOR_FILE_SUFFIX), Charsets.UTF_8)
+        .write(validator);
+  }
+
+  private String getUrl(int fileIndex) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/file" + fileIndex;
+  }
+
+  @Test
+  public void testDownload() throws IOException {
+    File file = getFile("file");
+    DownloadProgress progress = new DownloadProgress(1);
+
+    long bytesWritten = fileDownloader.download(getUrl(0), file, progress, f -> true);
+
+    assertThat(bytesWritten).isEqualTo(FILE_SIZE);
+    assertThat(Files.toByteArray(file)).isEqualTo(content);
+    assertThat(getFile("file" + PART_FILE_SUFFIX).exists()).isFalse();
+    assertThat(getFile("file" + VALIDATOR_FILE_SUFFIX).exists()).isFalse();
+    assertThat(progress.getBytesTransferred()).isEqualTo(FILE_SIZE);
+    assertThat(progress.getEstimatedTotalBytes()).isEqualTo(FILE_SIZE);
+  }
+
+  @Test
+  public void testDownload_resume() throws IOException {
+    File file = getFile("file");
+    int offset = FILE_SIZE / 2;
+    writePartialFile(file, offset, ETAG);
+    DownloadProgress progress = new DownloadProgress(1);
+
+    long bytesWritten = fileDownloader.download(getUrl(0), file, progress, f -> true);
+
+    assertThat(bytesWritten).isEqualTo(FILE_SIZE - offset);
+    assertThat(Files.toByteArray(file)).isEqualTo(content);
+    assertThat(progress.getBytesTransferred()).isEqualTo(FILE_SIZE);
+    assertThat(progress.getEstimatedTotalBytes()).isEqualTo(FILE_SIZE);
+  }
+
+  @Test
+  public void testDownload_resume_fileChanged() throws IOException {
+    File file = getFile("file");
+    writePartialFile(file, FILE_SIZE / 2, "\"v0\"");
+
+    long bytesWritten =
+        fileDownloader.download(getUrl(0), file, new DownloadProgress(1), f -> true);
+
+    assertThat(bytesWritten).isEqualTo(FILE_SIZE);
+    assertThat(Files.toByteArray(file)).isEqualTo(content);
+  }
+
+  @Test
+  public void testDownload_incompleteResponse() throws IOException {
+    File file = getFile("file");
+    truncateResponses = true;
+
+    assertThrows(
+        IOException.class,
+        () -> fileDownloader.download(getUrl(0), file, new DownloadProgress(1), f -> true));
+
+    assertThat(file.exists()).isFalse();
+    long partialLength = getFile("file" + PART_FILE_SUFFIX).length();
+    assertThat(partialLength).isGreaterThan(0L);
+
+    // The next attempt should fetch only the missing bytes.
+    truncateResponses = false;
+    long bytesWritten =
+        fileDownloader.download(getUrl(0), file, new DownloadProgress(1), f -> true);
+
+    assertThat(bytesWritten).isEqualTo(FILE_SIZE - partialLength);
+    assertThat(Files.toByteArray(file)).isEqualTo(content);
+  }
+
+  @Test
+  public void testDownload_invalidFile() {
+    File file = getFile("file");
+
+    assertThrows(
+        IOException.class,
+        () -> fileDownloader.download(getUrl(0), file, new DownloadProgress(1), f -> false));
+
+    assertThat(file.exists()).isFalse();
+    assertThat(getFile("file" + PART_FILE_SUFFIX).exists()).isFalse();
+  }
+
+  @Test
+  public void testDownload_concurrent() throws IOException {
+    ImmutableList.Builder<TileSource> tileSources = ImmutableList.builder();
+    for (int i = 0; i < FILE_COUNT; i++) {
+      tileSources.add(
+          TileSource.newBuilder()
+              .setId("id" + i)
+              .setUrl(getUrl(i))
+              .setPath("file" + i)
+              .setState(State.PENDING)
+              .setBasemapReferenceCount(1)
+              .build());
+    }
+    DownloadProgress progress = new DownloadProgress(FILE_COUNT);
+
+    List<TileSource> results =
+        TileSourceDownloadWorker.downloadTileSources(
+                tileSources.build(),
+                temporaryFolder.getRoot(),
+                fileDownloader,
+                progress,
+                Schedulers.io(),
+                MAX_CONCURRENT_DOWNLOADS)
+            .toList()
+            .blockingGet();
+
+    assertThat(results).hasSize(FILE_COUNT);
+    for (TileSource tileSource : results) {
+      assertThat(tileSource.getState()).isEqualTo(State.DOWNLOADED);
+      assertThat(tileSource.getSizeBytes()).isEqualTo(FILE_SIZE);
+      assertThat(Files.toByteArray(getFile(tileSource.getPath()))).isEqualTo(content);
+    }
+    assertThat(progress.getBytesTransferred()).isEqualTo((long) FILE_COUNT * FILE_SIZE);
+    assertThat(progress.getEstimatedTotalBytes()).isEqualTo((long) FILE_COUNT * FILE_SIZE);
+    assertThat(maxActiveRequests.get()).isAtMost(MAX_CONCURRENT_DOWNLOADS);
+  }
+
+  @Test
+  public void testDownloadIfModified() throws IOException {
+    File file = getFile("file");
+
+    assertThat(fileDownloader.downloadIfModified(getUrl(0), file)).isTrue();
+
+    assertThat(Files.toByteArray(file)).isEqualTo(content);
+    assertThat(getFile("file" + PART_FILE_SUFFIX).exists()).isFalse();
+    assertThat(getFile("file" + CACHE_VALIDATORS_FILE_SUFFIX).exists()).isTrue();
+  }
+
+  @Test
+  public void testDownloadIfModified_notModified() throws IOException {
+    File file = getFile("file");
+    fileDownloader.downloadIfModified(getUrl(0), file);
+    assertThat(file.setLastModified(0)).isTrue();
+
+    assertThat(fileDownloader.downloadIfModified(getUrl(0), file)).isFalse();
+
+    assertThat(file.lastModified()).isEqualTo(0);
+    assertThat(Files.toByteArray(file)).isEqualTo(content);
+  }
+
+  @Test
+  public void testDownloadIfModified_modified() throws IOException {
+    File file = getFile("file");
+    Files.write(new byte[] {1, 2, 3}, file);
+    Files.asCharSink(getFile("file" + CACHE_VALIDATORS_FILE_SUFFIX), Charsets.UTF_8)
+        .write("\"v0\"\n");
+
+    assertThat(fileDownloader.downloadIfModified(getUrl(0), file)).isTrue();
+
+    assertThat(Files.toByteArray(file)).isEqualTo(content);
+  }
+
+  @Test
+  public void testDownloadIfModified_offline() throws IOException {
+    File file = getFile("file");
+    fileDownloader.downloadIfModified(getUrl(0), file);
+    server.stop(0);
+
+    assertThrows(IOException.class, () -> fileDownloader.downloadIfModified(getUrl(0), file));
+
+    assertThat(Files.toByteArray(file)).isEqualTo(content);
+  }
+
+  @Test
+  public void testFetchContentLength() throws IOException {
+    assertThat(fileDownloader.fetchContentLength(getUrl(0))).isEqualTo(FILE_SIZE);
+  }
+}
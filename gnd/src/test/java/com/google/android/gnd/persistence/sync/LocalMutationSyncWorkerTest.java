@@ -0,0 +1,501 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.sync;
+
+import static com.google.android.gnd.Config.MAX_MUTATION_ATTEMPTS;
+import static com.google.android.gnd.Config.MUTATION_RETRY_INITIAL_DELAY_MILLIS;
+import static com.google.android.gnd.Config.MUTATION_RETRY_MAX_DELAY_MILLIS;
+import static com.google.android.gnd.util.ImmutableListCollector.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java8.util.stream.StreamSupport.stream;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.work.ListenableWorker;
+import androidx.work.ListenableWorker.Result;
+import androidx.work.WorkerFactory;
+import androidx.work.WorkerParameters;
+import androidx.work.testing.TestWorkerBuilder;
+import com.google.android.gnd.model.Mutation;
+import com.google.android.gnd.model.Mutation.Type;
+import com.google.android.gnd.model.Project;
+import com.google.android.gnd.model.User;
+import com.google.android.gnd.model.feature.Feature;
+import com.google.android.gnd.model.feature.FeatureMutation;
+import com.google.android.gnd.model.feature.Point;
+import com.google.android.gnd.model.form.Form;
+import com.google.android.gnd.model.observation.Observation;
+import com.google.android.gnd.model.observation.ObservationMutation;
+import com.google.android.gnd.persistence.local.LocalDataStore;
+import com.google.android.gnd.persistence.local.LocalDatabaseModule;
+import com.google.android.gnd.persistence.remote.DataStoreException;
+import com.google.android.gnd.persistence.remote.RejectedMutationException;
+import com.google.android.gnd.persistence.remote.RemoteDataEvent;
+import com.google.android.gnd.persistence.remote.RemoteDataStore;
+import com.google.android.gnd.rx.SchedulersModule;
+import com.google.android.gnd.rx.ValueOrError;
+import com.google.android.gnd.system.NotificationManager;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import dagger.hilt.android.testing.HiltAndroidRule;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java8.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@HiltAndroidTest
+@UninstallModules({SchedulersModule.class, LocalDatabaseModule.class})
+@Config(application = HiltTestApplication.class)
+@RunWith(RobolectricTestRunner.class)
+public class LocalMutationSyncWorkerTest {
+
+  private static final Point TEST_POINT =
+      Point.newBuilder().setLatitude(110.0).setLongitude(-23.1).build();
+
+  private static final Form TEST_FORM = Form.newBuilder().setId("form id").build();
+
+  @Rule public HiltAndroidRule hiltRule = new HiltAndroidRule(this);
+  @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock LocalDataStore mockLocalDataStore;
+  @Mock PhotoSyncWorkManager mockPhotoSyncWorkManager;
+  @Mock DataSyncWorkManager mockDataSyncWorkManager;
+  @Mock NotificationManager mockNotificationManager;
+
+  private final FakeRemoteDataStore fakeRemoteDataStore = new FakeRemoteDataStore();
+
+  private static FeatureMutation featureMutation(long id, String userId, String featureId) {
+    return FeatureMutation.builder()
+        .setId(id)
+        .setFeatureId(featureId)
+        .setType(Type.UPDATE)
+        .setUserId(userId)
+        .setProjectId("project id")
+        .setLayerId("layer id")
+        .setNewLocation(Optional.of(TEST_POINT))
+        .setClientTimestamp(new Date(id))
+        .build();
+  }
+
+  private static ObservationMutation observationMutation(
+      long id, String featureId, String observationId) {
+    return ObservationMutation.builder()
+        .setId(id)
+        .setObservationId(observationId)
+        .setType(Type.UPDATE)
+        .setProjectId("project id")
+        .setFeatureId(featureId)
+        .setLayerId("layer id")
+        .setForm(TEST_FORM)
+        .setUserId("user")
+        .setResponseDeltas(ImmutableList.of())
+        .setClientTimestamp(new Date(id))
+        .build();
+  }
+
+  /** Returns a random number generator whose {@link Random#nextDouble()} always returns value. */
+  private static Random fixedRandom(double value) {
+    return new Random() {
+      @Override
+      public double nextDouble() {
+        return value;
+      }
+    };
+  }
+
+  private static ImmutableList<Long> ids(ImmutableCollection<Mutation> mutations) {
+    return stream(mutations).map(Mutation::getId).collect(toImmutableList());
+  }
+
+  @Before
+  public void setUp() {
+    hiltRule.inject();
+  }
+
+  /** Stubs the local data store to return the specified mutations as the only pending page. */
+  private void setPendingMutations(Mutation... mutations) {
+    when(mockLocalDataStore.getPendingMutationsPage(any(), anyInt()))
+        .thenReturn(Single.just(ImmutableList.copyOf(mutations)), Single.just(ImmutableList.of()));
+    when(mockLocalDataStore.getQuarantinedMutations()).thenReturn(Single.just(ImmutableList.of()));
+    when(mockLocalDataStore.getUser(any()))
+        .thenAnswer(
+            invocation ->
+                Single.just(
+                    User.builder()
+                        .setId(invocation.getArgument(0))
+                        .setEmail("user@gmail.com")
+                        .setDisplayName("user")
+                        .build()));
+    when(mockLocalDataStore.finalizePendingMutations(any())).thenReturn(Completable.complete());
+    when(mockLocalDataStore.updateMutations(any())).thenReturn(Completable.complete());
+    when(mockLocalDataStore.quarantineMutations(any())).thenReturn(Completable.complete());
+    when(mockDataSyncWorkManager.enqueueSyncWorker(anyLong())).thenReturn(Completable.complete());
+  }
+
+  /** Returns the mutations written back to the local db with their failures recorded. */
+  @SuppressWarnings("unchecked")
+  private ImmutableList<Mutation> getRetriedMutations() {
+    ArgumentCaptor<ImmutableList<Mutation>> captor = ArgumentCaptor.forClass(ImmutableList.class);
+    verify(mockLocalDataStore).updateMutations(captor.capture());
+    return captor.getValue();
+  }
+
+  /** Returns the mutations moved to the dead-letter queue. */
+  @SuppressWarnings("unchecked")
+  private ImmutableList<Mutation> getQuarantinedMutations() {
+    ArgumentCaptor<ImmutableList<Mutation>> captor = ArgumentCaptor.forClass(ImmutableList.class);
+    verify(mockLocalDataStore).quarantineMutations(captor.capture());
+    return captor.getValue();
+  }
+
+  private LocalMutationSyncWorker createWorker() {
+    return TestWorkerBuilder.from(
+            ApplicationProvider.getApplicationContext(),
+            LocalMutationSyncWorker.class,
+            MoreExecutors.directExecutor())
+        .setWorkerFactory(
+            new WorkerFactory() {
+              @Override
+              public ListenableWorker createWorker(
+                  Context context, String workerClassName, WorkerParameters params) {
+                return new LocalMutationSyncWorker(
+                    context,
+                    params,
+                    mockLocalDataStore,
+                    fakeRemoteDataStore,
+                    mockNotificationManager,
+                    mockPhotoSyncWorkManager,
+                    mockDataSyncWorkManager);
+              }
+            })
+        .build();
+  }
+
+  @Test
+  public void testToBatches_splitsAtMaxBatchSize() {
+    ImmutableList.Builder<Mutation> mutations = ImmutableList.builder();
+    for (long id = 0; id < 1001; id++) {
+      mutations.add(featureMutation(id, "user", "feature " + id));
+    }
+
+    ImmutableList<ImmutableList<Mutation>> batches =
+        LocalMutationSyncWorker.toBatches(mutations.build(), 500);
+
+    assertThat(batches).hasSize(3);
+    assertThat(batches.get(0)).hasSize(500);
+    assertThat(batches.get(1)).hasSize(500);
+    assertThat(batches.get(2)).hasSize(1);
+    assertThat(batches.get(1).get(0).getId()).isEqualTo(500);
+    assertThat(batches.get(2).get(0).getId()).isEqualTo(1000);
+  }
+
+  @Test
+  public void testToBatches_splitsAtUserBoundaries() {
+    Mutation first = featureMutation(1, "user 1", "feature 1");
+    Mutation second = featureMutation(2, "user 1", "feature 2");
+    Mutation third = featureMutation(3, "user 2", "feature 3");
+    Mutation fourth = featureMutation(4, "user 1", "feature 4");
+
+    assertThat(
+            LocalMutationSyncWorker.toBatches(ImmutableList.of(first, second, third, fourth), 500))
+        .containsExactly(
+            ImmutableList.of(first, second), ImmutableList.of(third), ImmutableList.of(fourth))
+        .inOrder();
+  }
+
+  @Test
+  public void testDoWork_appliesBatchesOfSameDocumentInOrder() {
+    // Mutations made by different users are sent in separate batches.
+    setPendingMutations(
+        featureMutation(1, "user 1", "feature 1"),
+        featureMutation(2, "user 2", "feature 1"),
+        featureMutation(3, "user 3", "feature 2"));
+    fakeRemoteDataStore.slowMutationIds.add(1L);
+
+    assertThat(createWorker().doWork()).isEqualTo(Result.success());
+
+    List<String> events = fakeRemoteDataStore.events;
+    assertThat(events).hasSize(6);
+    // The batch touching another feature isn't held up by the first.
+    assertThat(events.indexOf("start [3]")).isLessThan(events.indexOf("end [1]"));
+    assertThat(events.indexOf("start [2]")).isGreaterThan(events.indexOf("end [1]"));
+    assertThat(fakeRemoteDataStore.appliedBatches)
+        .containsExactly(ImmutableList.of(1L), ImmutableList.of(2L), ImmutableList.of(3L));
+    verify(mockDataSyncWorkManager, never()).enqueueSyncWorker(anyLong());
+  }
+
+  @Test
+  public void testDoWork_rejectedBatchIsHalvedUntilRejectedMutationIsIsolated() {
+    setPendingMutations(
+        featureMutation(1, "user", "feature 1"),
+        featureMutation(2, "user", "feature 2"),
+        featureMutation(3, "user", "feature 3"),
+        featureMutation(4, "user", "feature 4"));
+    fakeRemoteDataStore.rejectedMutationIds.add(3L);
+
+    assertThat(createWorker().doWork()).isEqualTo(Result.success());
+
+    assertThat(fakeRemoteDataStore.attemptedBatches)
+        .containsExactly(
+            ImmutableList.of(1L, 2L, 3L, 4L),
+            ImmutableList.of(1L, 2L),
+            ImmutableList.of(3L, 4L),
+            ImmutableList.of(3L),
+            ImmutableList.of(4L))
+        .inOrder();
+    assertThat(fakeRemoteDataStore.appliedBatches)
+        .containsExactly(ImmutableList.of(1L, 2L), ImmutableList.of(4L))
+        .inOrder();
+    Mutation retried = getRetriedMutations().get(0);
+    assertThat(retried.getId()).isEqualTo(3L);
+    assertThat(retried.getRetryCount()).isEqualTo(1);
+    assertThat(retried.getLastError()).contains("rejected");
+    assertThat(getQuarantinedMutations()).isEmpty();
+  }
+
+  @Test
+  public void testDoWork_transientErrorIsRetriedWithoutSplittingBatch() {
+    setPendingMutations(
+        featureMutation(1, "user", "feature 1"), featureMutation(2, "user", "feature 2"));
+    fakeRemoteDataStore.unavailable = true;
+    long start = System.currentTimeMillis();
+
+    assertThat(createWorker().doWork()).isEqualTo(Result.success());
+
+    assertThat(fakeRemoteDataStore.attemptedBatches).containsExactly(ImmutableList.of(1L, 2L));
+    ImmutableList<Mutation> retried = getRetriedMutations();
+    assertThat(ids(retried)).containsExactly(1L, 2L).inOrder();
+    for (Mutation mutation : retried) {
+      assertThat(mutation.getRetryCount()).isEqualTo(1);
+      assertThat(mutation.getNextAttemptTimestamp())
+          .isAtLeast(start + MUTATION_RETRY_INITIAL_DELAY_MILLIS / 2);
+    }
+    assertThat(getQuarantinedMutations()).isEmpty();
+  }
+
+  @Test
+  public void testDoWork_transientErrorIsNeverQuarantined() {
+    setPendingMutations(
+        featureMutation(1, "user", "feature 1")
+            .toBuilder()
+            .setRetryCount(MAX_MUTATION_ATTEMPTS - 1)
+            .build());
+    fakeRemoteDataStore.unavailable = true;
+
+    createWorker().doWork();
+
+    assertThat(getRetriedMutations().get(0).getRetryCount()).isEqualTo(MAX_MUTATION_ATTEMPTS);
+    assertThat(getQuarantinedMutations()).isEmpty();
+  }
+
+  @Test
+  public void testDoWork_quarantinesAfterMaxAttempts() {
+    setPendingMutations(
+        featureMutation(1, "user", "feature 1")
+            .toBuilder()
+            .setRetryCount(MAX_MUTATION_ATTEMPTS - 1)
+            .build(),
+        featureMutation(2, "other user", "feature 1"));
+    fakeRemoteDataStore.rejectedMutationIds.add(1L);
+
+    assertThat(createWorker().doWork()).isEqualTo(Result.success());
+
+    assertThat(getRetriedMutations()).isEmpty();
+    ImmutableList<Mutation> quarantined = getQuarantinedMutations();
+    assertThat(ids(quarantined)).containsExactly(1L);
+    assertThat(quarantined.get(0).getRetryCount()).isEqualTo(MAX_MUTATION_ATTEMPTS);
+    // Later changes to the same feature are held back, but aren't retried by this worker.
+    assertThat(fakeRemoteDataStore.attemptedBatches).containsExactly(ImmutableList.of(1L));
+    verify(mockDataSyncWorkManager, never()).enqueueSyncWorker(anyLong());
+  }
+
+  @Test
+  public void testDoWork_quarantinedObservationMutationBlocksOnlyItsObservation() {
+    setPendingMutations(
+        featureMutation(1, "user", "feature"),
+        observationMutation(2, "feature", "quarantined observation"),
+        observationMutation(3, "feature", "other observation"));
+    when(mockLocalDataStore.getQuarantinedMutations())
+        .thenReturn(
+            Single.just(
+                ImmutableList.of(observationMutation(0, "feature", "quarantined observation"))));
+
+    assertThat(createWorker().doWork()).isEqualTo(Result.success());
+
+    assertThat(fakeRemoteDataStore.appliedBatches).containsExactly(ImmutableList.of(1L, 3L));
+  }
+
+  @Test
+  public void testDoWork_schedulesRetryOfMutationsNotDue() {
+    long nextAttemptTimestamp = System.currentTimeMillis() + 60 * 1000;
+    setPendingMutations(
+        featureMutation(1, "user", "feature 1")
+            .toBuilder()
+            .setRetryCount(1)
+            .setNextAttemptTimestamp(nextAttemptTimestamp)
+            .build(),
+        featureMutation(2, "other user", "feature 1"),
+        featureMutation(3, "other user", "feature 2"));
+
+    assertThat(createWorker().doWork()).isEqualTo(Result.success());
+
+    assertThat(fakeRemoteDataStore.appliedBatches).containsExactly(ImmutableList.of(3L));
+    ArgumentCaptor<Long> delayMillis = ArgumentCaptor.forClass(Long.class);
+    verify(mockDataSyncWorkManager).enqueueSyncWorker(delayMillis.capture());
+    assertThat(delayMillis.getValue()).isAtMost(nextAttemptTimestamp - System.currentTimeMillis());
+    assertThat(delayMillis.getValue()).isGreaterThan(50 * 1000L);
+  }
+
+  @Test
+  public void testDoWork_schedulesRetryAfterBackoff() {
+    setPendingMutations(featureMutation(1, "user", "feature 1"));
+    fakeRemoteDataStore.unavailable = true;
+
+    createWorker().doWork();
+
+    ArgumentCaptor<Long> delayMillis = ArgumentCaptor.forClass(Long.class);
+    verify(mockDataSyncWorkManager).enqueueSyncWorker(delayMillis.capture());
+    assertThat(delayMillis.getValue()).isAtMost(MUTATION_RETRY_INITIAL_DELAY_MILLIS);
+    assertThat(delayMillis.getValue())
+        .isGreaterThan(MUTATION_RETRY_INITIAL_DELAY_MILLIS / 2 - 5000);
+  }
+
+  @Test
+  public void testGetRetryDelayMillis_doublesOnEachAttempt() {
+    long initialDelay = MUTATION_RETRY_INITIAL_DELAY_MILLIS;
+
+    assertThat(LocalMutationSyncWorker.getRetryDelayMillis(1, fixedRandom(1)))
+        .isEqualTo(initialDelay);
+    assertThat(LocalMutationSyncWorker.getRetryDelayMillis(2, fixedRandom(1)))
+        .isEqualTo(2 * initialDelay);
+    assertThat(LocalMutationSyncWorker.getRetryDelayMillis(3, fixedRandom(1)))
+        .isEqualTo(4 * initialDelay);
+  }
+
+  @Test
+  public void testGetRetryDelayMillis_isCapped() {
+    for (long retryCount : new long[] {8, 63, 64, 1000, Long.MAX_VALUE}) {
+      assertThat(LocalMutationSyncWorker.getRetryDelayMillis(retryCount, fixedRandom(1)))
+          .isEqualTo(MUTATION_RETRY_MAX_DELAY_MILLIS);
+    }
+  }
+
+  @Test
+  public void testGetRetryDelayMillis_randomizesSecondHalf() {
+    long initialDelay = MUTATION_RETRY_INITIAL_DELAY_MILLIS;
+    long maxDelay = MUTATION_RETRY_MAX_DELAY_MILLIS;
+
+    assertThat(LocalMutationSyncWorker.getRetryDelayMillis(1, fixedRandom(0)))
+        .isEqualTo(initialDelay / 2);
+    assertThat(LocalMutationSyncWorker.getRetryDelayMillis(1, fixedRandom(0.5)))
+        .isEqualTo(initialDelay * 3 / 4);
+    assertThat(LocalMutationSyncWorker.getRetryDelayMillis(1000, fixedRandom(0)))
+        .isEqualTo(maxDelay / 2);
+  }
+
+  /**
+   * Applies mutations after an optional delay, recording when each batch starts and ends. Batches
+   * containing rejected mutations fail with {@link RejectedMutationException}, and all batches fail
+   * with a transient error while the fake is unavailable.
+   */
+  private static class FakeRemoteDataStore implements RemoteDataStore {
+
+    private static final long SLOW_BATCH_DELAY_MILLIS = 200;
+
+    /** Ids of mutations whose batches take {@link #SLOW_BATCH_DELAY_MILLIS} to apply. */
+    final Set<Long> slowMutationIds = Collections.synchronizedSet(new HashSet<>());
+
+    /** Ids of mutations which are rejected whenever they're sent. */
+    final Set<Long> rejectedMutationIds = Collections.synchronizedSet(new HashSet<>());
+
+    volatile boolean unavailable;
+
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    final List<ImmutableList<Long>> attemptedBatches =
+        Collections.synchronizedList(new ArrayList<>());
+    final List<ImmutableList<Long>> appliedBatches =
+        Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public Single<List<Project>> loadProjectSummaries(User user) {
+      return Single.never();
+    }
+
+    @Override
+    public Single<Project> loadProject(String projectId) {
+      return Single.never();
+    }
+
+    @Override
+    public Flowable<RemoteDataEvent<Feature>> loadFeaturesOnceAndStreamChanges(Project project) {
+      return Flowable.never();
+    }
+
+    @Override
+    public Single<ImmutableList<ValueOrError<Observation>>> loadObservations(Feature feature) {
+      return Single.never();
+    }
+
+    @Override
+    public Completable applyMutations(ImmutableCollection<Mutation> mutations, User user) {
+      ImmutableList<Long> ids = ids(mutations);
+      attemptedBatches.add(ids);
+      if (unavailable) {
+        return Completable.error(new DataStoreException("unavailable"));
+      }
+      if (!Collections.disjoint(ids, rejectedMutationIds)) {
+        return Completable.error(new RejectedMutationException(new Exception("rejected")));
+      }
+      long delay = Collections.disjoint(ids, slowMutationIds) ? 0 : SLOW_BATCH_DELAY_MILLIS;
+      return Completable.timer(delay, TimeUnit.MILLISECONDS)
+          .doOnSubscribe(__ -> events.add("start " + ids))
+          .doOnComplete(
+              () -> {
+                events.add("end " + ids);
+                appliedBatches.add(ids);
+              });
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.gnd.model.Mutation;
+import com.google.android.gnd.model.Mutation.Type;
+import com.google.android.gnd.model.feature.FeatureMutation;
+import com.google.android.gnd.model.feature.Point;
+import com.google.android.gnd.model.form.Field;
+import com.google.android.gnd.model.form.Form;
+import com.google.android.gnd.model.observation.ObservationMutation;
+import com.google.android.gnd.model.observation.ResponseDelta;
+import com.google.android.gnd.model.observation.TextResponse;
+import com.google.common.collect.ImmutableList;
+import java.util.Date;
+import java8.util.Optional;
+import org.junit.Test;
+
+public class MutationCompactionTest {
+
+  private static final Form TEST_FORM = Form.newBuilder().setId("form id").build();
+
+  private static final Point TEST_POINT =
+      Point.newBuilder().setLatitude(110.0).setLongitude(-23.1).build();
+
+  private static FeatureMutation featureMutation(long id, Type type) {
+    return FeatureMutation.builder()
+        .setId(id)
+        .setFeatureId("feature id")
+        .setType(type)
+        .setUserId("user id")
+        .setProjectId("project id")
+        .setLayerId("layer id")
+        .setNewLocation(type == Type.CREATE ? Optional.of(TEST_POINT) : Optional.empty())
+        .setClientTimestamp(new Date(id))
+        .build();
+  }
+
+  private static ObservationMutation observationMutation(
+      long id, Type type, String userId, ResponseDelta... deltas) {
+    return ObservationMutation.builder()
+        .setId(id)
+        .setObservationId("observation id")
+        .setType(type)
+        .setProjectId("project id")
+        .setFeatureId("feature id")
+        .setLayerId("layer id")
+        .setForm(TEST_FORM)
+        .setUserId(userId)
+        .setResponseDeltas(ImmutableList.copyOf(deltas))
+        .setClientTimestamp(new Date(id))
+        .build();
+  }
+
+  private static ResponseDelta delta(String fieldId, String response) {
+    return ResponseDelta.builder()
+        .setFieldId(fieldId)
+        .setFieldType(Field.Type.TEXT_FIELD)
+        .setNewResponse(TextResponse.fromString(response))
+        .build();
+  }
+
+  @Test
+  public void testFoldsUpdatesIntoCreate() {
+    ObservationMutation create = observationMutation(1, Type.CREATE, "user id", delta("a", "1"));
+    ObservationMutation update1 =
+        observationMutation(2, Type.UPDATE, "user id", delta("a", "2"), delta("b", "1"));
+    ObservationMutation update2 = observationMutation(3, Type.UPDATE, "user id", delta("b", "2"));
+
+    MutationCompaction compaction =
+        MutationCompaction.of(ImmutableList.of(create, update1, update2));
+
+    ObservationMutation expected =
+        create
+            .toBuilder()
+            .setResponseDeltas(ImmutableList.of(delta("a", "2"), delta("b", "2")))
+            .setClientTimestamp(new Date(3))
+            .build();
+    assertThat(compaction.getMutations()).containsExactly(expected);
+    assertThat(compaction.getUpdated()).containsExactly(expected);
+    assertThat(compaction.getRemoved()).containsExactly(update1, update2);
+  }
+
+  @Test
+  public void testDropsCreateAndDelete() {
+    ObservationMutation create = observationMutation(1, Type.CREATE, "user id", delta("a", "1"));
+    ObservationMutation update = observationMutation(2, Type.UPDATE, "user id", delta("a", "2"));
+    ObservationMutation delete = observationMutation(3, Type.DELETE, "user id");
+
+    MutationCompaction compaction =
+        MutationCompaction.of(ImmutableList.of(create, update, delete));
+
+    assertThat(compaction.getMutations()).isEmpty();
+    assertThat(compaction.getUpdated()).isEmpty();
+    assertThat(compaction.getRemoved()).containsExactly(create, update, delete);
+  }
+
+  @Test
+  public void testDropsObservationsOfDroppedFeature() {
+    FeatureMutation create = featureMutation(1, Type.CREATE);
+    ObservationMutation observation =
+        observationMutation(2, Type.CREATE, "user id", delta("a", "1"));
+    FeatureMutation delete = featureMutation(3, Type.DELETE);
+
+    MutationCompaction compaction =
+        MutationCompaction.of(ImmutableList.of(create, observation, delete));
+
+    assertThat(compaction.getMutations()).isEmpty();
+    assertThat(compaction.getRemoved()).containsExactly(create, observation, delete);
+  }
+
+  @Test
+  public void testReplacesUpdateWithDelete() {
+    FeatureMutation update = featureMutation(1, Type.UPDATE);
+    FeatureMutation delete = featureMutation(2, Type.DELETE);
+
+    MutationCompaction compaction = MutationCompaction.of(ImmutableList.of(update, delete));
+
+    assertThat(compaction.getMutations()).containsExactly(delete);
+    assertThat(compaction.getUpdated()).isEmpty();
+    assertThat(compaction.getRemoved()).containsExactly(update);
+  }
+
+  @Test
+  public void testKeepsMutationsByDifferentUsers() {
+    ImmutableList<Mutation> mutations =
+        ImmutableList.of(
+            observationMutation(1, Type.CREATE, "user id", delta("a", "1")),
+            observationMutation(2, Type.UPDATE, "other user id", delta("a", "2")));
+
+    MutationCompaction compaction = MutationCompaction.of(mutations);
+
+    assertThat(compaction.getMutations()).isEqualTo(mutations);
+    assertThat(compaction.hasChanges()).isFalse();
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.persistence.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.android.gnd.model.basemap.tile.TileSource;
+import com.google.android.gnd.model.basemap.tile.TileSource.State;
+import com.google.android.gnd.persistence.local.LocalDataStore;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import io.reactivex.Completable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+public class TileSourceDownloadWorkerTest {
+
+  private static final TileSource TILE_SOURCE_1 =
+      TileSource.newBuilder()
+          .setId("id_1")
+          .setUrl("some_url 1")
+          .setPath("some_path 1")
+          .setState(State.DOWNLOADED)
+          .setSizeBytes(100)
+          .setBasemapReferenceCount(1)
+          .build();
+
+  private static final TileSource TILE_SOURCE_2 =
+      TILE_SOURCE_1.toBuilder().setId("id_2").setUrl("some_url 2").setPath("some_path 2").build();
+
+  @Rule public MockitoRule rule = MockitoJUnit.rule();
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Mock LocalDataStore mockLocalDataStore;
+  @Mock FileDownloader mockFileDownloader;
+
+  private final TestScheduler testScheduler = new TestScheduler();
+  private final PublishProcessor<TileSource> downloads = PublishProcessor.create();
+
+  private TestObserver<Void> saveTileSources() {
+    when(mockLocalDataStore.updateTileSourceStatesAndSizes(any()))
+        .thenReturn(Completable.complete());
+    return TileSourceDownloadWorker.saveTileSources(downloads, mockLocalDataStore, testScheduler)
+        .test();
+  }
+
+  @Test
+  public void testSaveTileSources_writesBatches() {
+    TestObserver<Void> observer = saveTileSources();
+
+    downloads.onNext(TILE_SOURCE_1);
+    downloads.onNext(TILE_SOURCE_2);
+    verify(mockLocalDataStore, never()).updateTileSourceStatesAndSizes(any());
+    testScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    downloads.onComplete();
+
+    observer.assertComplete();
+    verify(mockLocalDataStore)
+        .updateTileSourceStatesAndSizes(ImmutableList.of(TILE_SOURCE_1, TILE_SOURCE_2));
+  }
+
+  @Test
+  public void testSaveTileSources_interrupted_savesFinishedDownloads() {
+    TestObserver<Void> observer = saveTileSources();
+
+    downloads.onNext(TILE_SOURCE_1);
+    observer.dispose();
+
+    assertThat(downloads.hasSubscribers()).isFalse();
+    verify(mockLocalDataStore).updateTileSourceStatesAndSizes(ImmutableList.of(TILE_SOURCE_1));
+  }
+
+  @Test
+  public void testSaveTileSources_interrupted_skipsSavedDownloads() {
+    TestObserver<Void> observer = saveTileSources();
+
+    downloads.onNext(TILE_SOURCE_1);
+    testScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    downloads.onNext(TILE_SOURCE_2);
+    observer.dispose();
+
+    verify(mockLocalDataStore).updateTileSourceStatesAndSizes(ImmutableList.of(TILE_SOURCE_1));
+    verify(mockLocalDataStore).updateTileSourceStatesAndSizes(ImmutableList.of(TILE_SOURCE_2));
+  }
+
+  @Test
+  public void testDownloadTileSources_resumesInterruptedDownload() throws IOException {
+    Files.write(new byte[] {1, 2, 3}, temporaryFolder.newFile("some_path 1"));
+    TileSource interrupted =
+        TILE_SOURCE_1.toBuilder().setState(State.IN_PROGRESS).setSizeBytes(0).build();
+    DownloadProgress progress = new DownloadProgress(1);
+
+    TileSourceDownloadWorker.downloadTileSources(
+            ImmutableList.of(interrupted),
+            temporaryFolder.getRoot(),
+            mockFileDownloader,
+            progress,
+            Schedulers.trampoline(),
+            1)
+        .test()
+        .assertValues(interrupted.toBuilder().setState(State.DOWNLOADED).setSizeBytes(3).build());
+    verifyNoInteractions(mockFileDownloader);
+  }
+
+  @Test
+  public void testDownloadTileSources_restartsInterruptedDownload() throws IOException {
+    TileSource interrupted =
+        TILE_SOURCE_1.toBuilder().setState(State.IN_PROGRESS).setSizeBytes(0).build();
+    DownloadProgress progress = new DownloadProgress(1);
+
+    TileSourceDownloadWorker.downloadTileSources(
+            ImmutableList.of(interrupted),
+            temporaryFolder.getRoot(),
+            mockFileDownloader,
+            progress,
+            Schedulers.trampoline(),
+            1)
+        .test()
+        .assertValueCount(1);
+    verify(mockFileDownloader).download(any(), any(), any(), any());
+  }
+}
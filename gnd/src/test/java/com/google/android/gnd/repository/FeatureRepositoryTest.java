@@ -18,15 +18,18 @@ package com.google.android.gnd.repository;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.AuditInfo;
 import com.google.android.gnd.model.Mutation;
 import com.google.android.gnd.model.Project;
 import com.google.android.gnd.model.User;
+import com.google.android.gnd.model.feature.Feature;
 import com.google.android.gnd.model.feature.FeatureMutation;
 import com.google.android.gnd.model.feature.Point;
 import com.google.android.gnd.model.feature.PointFeature;
@@ -37,17 +40,25 @@ import com.google.android.gnd.model.layer.Layer;
 import com.google.android.gnd.model.layer.Style;
 import com.google.android.gnd.persistence.local.LocalDataStore;
 import com.google.android.gnd.persistence.local.LocalDatabaseModule;
+import com.google.android.gnd.persistence.remote.RemoteDataEvent;
 import com.google.android.gnd.persistence.remote.RemoteDataStore;
 import com.google.android.gnd.persistence.sync.DataSyncWorkManager;
 import com.google.android.gnd.persistence.uuid.OfflineUuidGenerator;
 import com.google.android.gnd.rx.SchedulersModule;
 import com.google.android.gnd.system.auth.AuthenticationManager;
+import com.google.android.gnd.ui.map.CameraPosition;
+import com.google.android.gnd.util.ChangeSet;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import dagger.hilt.android.testing.HiltAndroidRule;
 import dagger.hilt.android.testing.HiltAndroidTest;
 import dagger.hilt.android.testing.HiltTestApplication;
 import dagger.hilt.android.testing.UninstallModules;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.subscribers.TestSubscriber;
+import java8.util.Optional;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -75,6 +86,9 @@ public class FeatureRepositoryTest {
   private static final Point TEST_POINT =
       Point.newBuilder().setLatitude(110.0).setLongitude(-23.1).build();
 
+  private static final Point TEST_POINT_2 =
+      Point.newBuilder().setLatitude(51.0).setLongitude(44.0).build();
+
   private static final Field TEST_FIELD =
       Field.newBuilder()
           .setId("field id")
@@ -142,7 +156,7 @@ public class FeatureRepositoryTest {
   }
 
   private void mockEnqueueSyncWorker() {
-    doReturn(Completable.complete()).when(mockWorkManager).enqueueSyncWorker(anyString());
+    doReturn(Completable.complete()).when(mockWorkManager).enqueueSyncWorker();
   }
 
   @Before
@@ -160,6 +174,33 @@ public class FeatureRepositoryTest {
     mockAuthUser();
   }
 
+  @Test
+  public void testSyncFeatures_appliesLastChangeToEachFeature() throws InterruptedException {
+    PointFeature modifiedFeature = TEST_FEATURE.toBuilder().setPoint(TEST_POINT_2).build();
+    PointFeature otherFeature = TEST_FEATURE.toBuilder().setId("other feature id").build();
+    doReturn(
+            Flowable.just(
+                RemoteDataEvent.loaded(TEST_FEATURE.getId(), TEST_FEATURE),
+                RemoteDataEvent.loaded(otherFeature.getId(), otherFeature),
+                RemoteDataEvent.error(new IllegalArgumentException()),
+                RemoteDataEvent.modified(TEST_FEATURE.getId(), modifiedFeature),
+                RemoteDataEvent.removed(otherFeature.getId()),
+                RemoteDataEvent.removed("removed feature id")))
+        .when(mockRemoteDataStore)
+        .loadFeaturesOnceAndStreamChanges(TEST_PROJECT);
+    doReturn(Completable.complete())
+        .when(mockLocalDataStore)
+        .mergeAndDeleteFeatures(any(), any());
+
+    featureRepository.syncFeatures(TEST_PROJECT).test().await().assertComplete();
+
+    // Batched events are applied in a single call, in the order features were first seen.
+    verify(mockLocalDataStore, times(1))
+        .mergeAndDeleteFeatures(
+            ImmutableList.of(modifiedFeature),
+            ImmutableList.of(otherFeature.getId(), "removed feature id"));
+  }
+
   @Test
   public void testCreateFeature() {
     mockApplyAndEnqueue();
@@ -172,7 +213,7 @@ public class FeatureRepositoryTest {
     assertThat(actual.getFeatureId()).isEqualTo(TEST_FEATURE.getId());
 
     verify(mockLocalDataStore, times(1)).applyAndEnqueue(any(FeatureMutation.class));
-    verify(mockWorkManager, times(1)).enqueueSyncWorker(TEST_FEATURE.getId());
+    verify(mockWorkManager, times(1)).enqueueSyncWorker();
   }
 
   @Test
@@ -187,7 +228,7 @@ public class FeatureRepositoryTest {
     assertThat(actual.getFeatureId()).isEqualTo(TEST_FEATURE.getId());
 
     verify(mockLocalDataStore, times(1)).applyAndEnqueue(any(FeatureMutation.class));
-    verify(mockWorkManager, times(1)).enqueueSyncWorker(TEST_FEATURE.getId());
+    verify(mockWorkManager, times(1)).enqueueSyncWorker();
   }
 
   @Test
@@ -202,7 +243,7 @@ public class FeatureRepositoryTest {
     assertThat(actual.getFeatureId()).isEqualTo(TEST_FEATURE.getId());
 
     verify(mockLocalDataStore, times(1)).applyAndEnqueue(any(FeatureMutation.class));
-    verify(mockWorkManager, times(1)).enqueueSyncWorker(TEST_FEATURE.getId());
+    verify(mockWorkManager, times(1)).enqueueSyncWorker();
   }
 
   @Test
@@ -220,7 +261,7 @@ public class FeatureRepositoryTest {
         .assertNotComplete();
 
     verify(mockLocalDataStore, times(1)).applyAndEnqueue(any(FeatureMutation.class));
-    verify(mockWorkManager, times(1)).enqueueSyncWorker(TEST_FEATURE.getId());
+    verify(mockWorkManager, times(1)).enqueueSyncWorker();
   }
 
   @Test
@@ -229,7 +270,7 @@ public class FeatureRepositoryTest {
 
     doReturn(Completable.error(new NullPointerException()))
         .when(mockWorkManager)
-        .enqueueSyncWorker(anyString());
+        .enqueueSyncWorker();
 
     featureRepository
         .createFeature(TEST_FEATURE)
@@ -238,6 +279,64 @@ public class FeatureRepositoryTest {
         .assertNotComplete();
 
     verify(mockLocalDataStore, times(1)).applyAndEnqueue(any(FeatureMutation.class));
-    verify(mockWorkManager, times(1)).enqueueSyncWorker(TEST_FEATURE.getId());
+    verify(mockWorkManager, times(1)).enqueueSyncWorker();
+  }
+
+  private static CameraPosition cameraPosition(
+      double south, double west, double north, double east) {
+    return new CameraPosition(
+        Point.newBuilder()
+            .setLatitude((south + north) / 2)
+            .setLongitude((west + east) / 2)
+            .build(),
+        10f,
+        Optional.of(new LatLngBounds(new LatLng(south, west), new LatLng(north, east))));
+  }
+
+  @Test
+  public void testGetFeatureChangesInViewport_subscribersKeepTheirOwnFeatures() {
+    PointFeature featureA =
+        TEST_FEATURE.toBuilder()
+            .setId("feature a")
+            .setPoint(Point.newBuilder().setLatitude(10).setLongitude(10).build())
+            .build();
+    PointFeature featureB =
+        TEST_FEATURE.toBuilder()
+            .setId("feature b")
+            .setPoint(Point.newBuilder().setLatitude(-10).setLongitude(-100).build())
+            .build();
+    PublishProcessor<ChangeSet<Feature>> windowA = PublishProcessor.create();
+    PublishProcessor<ChangeSet<Feature>> windowB = PublishProcessor.create();
+    doReturn(Flowable.never())
+        .when(mockLocalDataStore)
+        .getFeatureChangesOnceAndStream(TEST_PROJECT);
+    doAnswer(
+            invocation -> {
+              LatLngBounds window = invocation.getArgument(1);
+              return window.contains(new LatLng(10, 10)) ? windowA : windowB;
+            })
+        .when(mockLocalDataStore)
+        .getFeatureChangesInBoundsOnceAndStream(any(), any());
+    PublishProcessor<CameraPosition> cameraPositionsA = PublishProcessor.create();
+
+    TestSubscriber<ChangeSet<Feature>> subscriberA =
+        featureRepository
+            .getFeatureChangesInViewportOnceAndStream(TEST_PROJECT, cameraPositionsA)
+            .test();
+    cameraPositionsA.onNext(cameraPosition(9, 9, 11, 11));
+    windowA.onNext(ChangeSet.snapshot(ImmutableMap.of(featureA.getId(), featureA)));
+    TestSubscriber<ChangeSet<Feature>> subscriberB =
+        featureRepository
+            .getFeatureChangesInViewportOnceAndStream(
+                TEST_PROJECT, Flowable.just(cameraPosition(-11, -101, -9, -99)))
+            .test();
+    windowB.onNext(ChangeSet.snapshot(ImmutableMap.of(featureB.getId(), featureB)));
+    // Panning re-filters the first subscriber's window, which must not include the second one's.
+    cameraPositionsA.onNext(cameraPosition(9.5, 9.5, 11.5, 11.5));
+
+    subscriberA.assertValueCount(1);
+    assertThat(subscriberA.values().get(0).getAdded()).containsExactly(featureA.getId(), featureA);
+    subscriberB.assertValueCount(1);
+    assertThat(subscriberB.values().get(0).getAdded()).containsExactly(featureB.getId(), featureB);
   }
 }
@@ -18,13 +18,17 @@ package com.google.android.gnd.repository;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gnd.model.AuditInfo;
 import com.google.android.gnd.model.Project;
 import com.google.android.gnd.model.User;
+import com.google.android.gnd.model.feature.GeoJsonFeature;
 import com.google.android.gnd.model.feature.Point;
 import com.google.android.gnd.model.feature.PointFeature;
 import com.google.android.gnd.model.layer.Layer;
 import com.google.android.gnd.model.layer.Style;
+import com.google.common.collect.ImmutableSet;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -55,6 +59,28 @@ public class InMemoryCacheTest {
           .setLastModified(AuditInfo.now(FAKE_USER))
           .build();
 
+  private static final PointFeature FAR_FEATURE =
+      FAKE_FEATURE.toBuilder()
+          .setId("far feature id")
+          .setPoint(Point.newBuilder().setLatitude(45.0).setLongitude(90.0).build())
+          .build();
+
+  private static final GeoJsonFeature FAKE_GEO_JSON_FEATURE =
+      GeoJsonFeature.newBuilder()
+          .setId("geo json feature id")
+          .setProject(FAKE_FEATURE.getProject())
+          .setLayer(FAKE_LAYER)
+          .setGeoJsonString(
+              "{\"geometry\": {\"type\": \"Polygon\", \"coordinates\": [["
+                  + "[-10.0, -10.0], [10.0, -10.0], [10.0, 10.0], [-10.0, 10.0], [-10.0, -10.0]"
+                  + "]]}}")
+          .setCreated(AuditInfo.now(FAKE_USER))
+          .setLastModified(AuditInfo.now(FAKE_USER))
+          .build();
+
+  private static final LatLngBounds VIEWPORT_AROUND_ORIGIN =
+      new LatLngBounds(new LatLng(-1.0, -1.0), new LatLng(1.0, 1.0));
+
   @Before
   public void setUp() {
     inMemoryCache = new InMemoryCache();
@@ -87,4 +113,41 @@ public class InMemoryCacheTest {
 
     assertThat(inMemoryCache.getFeatures()).isEmpty();
   }
+
+  @Test
+  public void getFeaturesInBounds_returnsOnlyIntersectingFeatures() {
+    inMemoryCache.putFeature(FAKE_FEATURE);
+    inMemoryCache.putFeature(FAR_FEATURE);
+    inMemoryCache.putFeature(FAKE_GEO_JSON_FEATURE);
+
+    assertThat(inMemoryCache.getFeaturesInBounds(VIEWPORT_AROUND_ORIGIN, 10.0f))
+        .containsExactly(FAKE_FEATURE, FAKE_GEO_JSON_FEATURE);
+  }
+
+  @Test
+  public void getFeaturesInBounds_excludesRemovedFeatures() {
+    inMemoryCache.putFeature(FAKE_FEATURE);
+    inMemoryCache.removeFeature(FAKE_FEATURE.getId());
+
+    assertThat(inMemoryCache.getFeaturesInBounds(VIEWPORT_AROUND_ORIGIN, 10.0f)).isEmpty();
+  }
+
+  @Test
+  public void getFeaturesInBounds_includesFeaturesWithUnknownBounds() {
+    GeoJsonFeature invalidFeature =
+        FAKE_GEO_JSON_FEATURE.toBuilder().setGeoJsonString("{\"geometry\": null}").build();
+    inMemoryCache.putFeature(invalidFeature);
+
+    assertThat(inMemoryCache.getFeaturesInBounds(VIEWPORT_AROUND_ORIGIN, 10.0f))
+        .containsExactly(invalidFeature);
+  }
+
+  @Test
+  public void setFeatures_replacesFeatures() {
+    inMemoryCache.putFeature(FAKE_FEATURE);
+    inMemoryCache.setFeatures(ImmutableSet.of(FAR_FEATURE));
+
+    assertThat(inMemoryCache.getFeatures()).containsExactly(FAR_FEATURE);
+    assertThat(inMemoryCache.getFeaturesInBounds(VIEWPORT_AROUND_ORIGIN, 10.0f)).isEmpty();
+  }
 }
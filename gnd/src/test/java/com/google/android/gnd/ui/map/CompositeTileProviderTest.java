@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map;
+
+import static com.google.android.gnd.ui.map.MbtilesTileProviderTest.createDatabase;
+import static com.google.android.gnd.ui.map.MbtilesTileProviderTest.insertTile;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.sqlite.SQLiteDatabase;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+import com.google.android.gnd.persistence.local.LocalDatabaseModule;
+import com.google.android.gnd.rx.SchedulersModule;
+import com.google.common.collect.ImmutableSet;
+import dagger.hilt.android.testing.HiltAndroidRule;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@HiltAndroidTest
+@UninstallModules({SchedulersModule.class, LocalDatabaseModule.class})
+@Config(application = HiltTestApplication.class)
+@RunWith(RobolectricTestRunner.class)
+public class CompositeTileProviderTest {
+
+  @Rule public HiltAndroidRule hiltRule = new HiltAndroidRule(this);
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<SQLiteDatabase> databases = new ArrayList<>();
+  private CompositeTileProvider tileProvider;
+
+  @Before
+  public void setUp() {
+    hiltRule.inject();
+    tileProvider = new CompositeTileProvider();
+  }
+
+  @After
+  public void tearDown() {
+    tileProvider.close();
+    for (SQLiteDatabase database : databases) {
+      database.close();
+    }
+  }
+
+  private SQLiteDatabase newDatabase(File file) {
+    SQLiteDatabase database = createDatabase(file);
+    databases.add(database);
+    return database;
+  }
+
+  @Test
+  public void getTile_servesTilesFromAllFiles() throws Exception {
+    File file = temporaryFolder.newFile("first.mbtiles");
+    File otherFile = temporaryFolder.newFile("second.mbtiles");
+    insertTile(newDatabase(file), 2, 2, 2, new byte[] {1});
+    insertTile(newDatabase(otherFile), 2, 3, 2, new byte[] {2});
+    tileProvider.setFiles(ImmutableSet.of(file, otherFile));
+
+    assertThat(tileProvider.getTile(2, 1, 2).data).isEqualTo(new byte[] {1});
+    assertThat(tileProvider.getTile(3, 1, 2).data).isEqualTo(new byte[] {2});
+    assertThat(tileProvider.getTile(0, 1, 2)).isSameInstanceAs(TileProvider.NO_TILE);
+  }
+
+  @Test
+  public void getTile_servesCachedTile() throws Exception {
+    File file = temporaryFolder.newFile("test.mbtiles");
+    SQLiteDatabase database = newDatabase(file);
+    insertTile(database, 2, 2, 2, new byte[] {1, 2, 3});
+    tileProvider.setFiles(ImmutableSet.of(file));
+
+    tileProvider.getTile(2, 1, 2);
+    database.execSQL("DELETE FROM tiles");
+
+    assertThat(tileProvider.getTile(2, 1, 2).data).isEqualTo(new byte[] {1, 2, 3});
+  }
+
+  @Test
+  public void getTile_cachesMissingTile() throws Exception {
+    File file = temporaryFolder.newFile("test.mbtiles");
+    SQLiteDatabase database = newDatabase(file);
+    tileProvider.setFiles(ImmutableSet.of(file));
+
+    tileProvider.getTile(3, 1, 2);
+    insertTile(database, 2, 3, 2, new byte[] {4});
+
+    assertThat(tileProvider.getTile(3, 1, 2)).isSameInstanceAs(TileProvider.NO_TILE);
+  }
+
+  @Test
+  public void setFiles_evictsCachedTilesOfRemovedFiles() throws Exception {
+    File file = temporaryFolder.newFile("test.mbtiles");
+    SQLiteDatabase database = newDatabase(file);
+    insertTile(database, 2, 2, 2, new byte[] {1, 2, 3});
+    tileProvider.setFiles(ImmutableSet.of(file));
+    tileProvider.getTile(2, 1, 2);
+
+    tileProvider.setFiles(ImmutableSet.of());
+    database.execSQL("DELETE FROM tiles");
+    tileProvider.setFiles(ImmutableSet.of(file));
+
+    assertThat(tileProvider.getTile(2, 1, 2)).isSameInstanceAs(TileProvider.NO_TILE);
+  }
+
+  @Test
+  public void getTile_concurrentRequestsShareConnectionsAcrossFiles() throws Exception {
+    // Tiles 4-6 x 2-4 at zoom level 3 lie within the files' bounds. Each file gets one column.
+    List<File> files = new ArrayList<>();
+    for (int x = 4; x <= 6; x++) {
+      File file = temporaryFolder.newFile("test" + x + ".mbtiles");
+      SQLiteDatabase database = newDatabase(file);
+      for (int y = 2; y <= 4; y++) {
+        insertTile(database, 3, x, 7 - y, new byte[] {(byte) x, (byte) y});
+      }
+      files.add(file);
+    }
+    tileProvider.setFiles(ImmutableSet.copyOf(files));
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Tile>> tiles = new ArrayList<>();
+    for (int x = 4; x <= 6; x++) {
+      for (int y = 2; y <= 4; y++) {
+        int column = x;
+        int row = y;
+        tiles.add(executor.submit(() -> tileProvider.getTile(column, row, 3)));
+      }
+    }
+    int i = 0;
+    for (int x = 4; x <= 6; x++) {
+      for (int y = 2; y <= 4; y++) {
+        assertThat(tiles.get(i++).get().data).isEqualTo(new byte[] {(byte) x, (byte) y});
+      }
+    }
+    executor.shutdown();
+
+    assertThat(tileProvider.getConnectionCount()).isAtMost(4);
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.sqlite.SQLiteDatabase;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+import com.google.android.gnd.persistence.local.LocalDatabaseModule;
+import com.google.android.gnd.rx.SchedulersModule;
+import dagger.hilt.android.testing.HiltAndroidRule;
+import dagger.hilt.android.testing.HiltAndroidTest;
+import dagger.hilt.android.testing.HiltTestApplication;
+import dagger.hilt.android.testing.UninstallModules;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@HiltAndroidTest
+@UninstallModules({SchedulersModule.class, LocalDatabaseModule.class})
+@Config(application = HiltTestApplication.class)
+@RunWith(RobolectricTestRunner.class)
+public class MbtilesTileProviderTest {
+
+  @Rule public HiltAndroidRule hiltRule = new HiltAndroidRule(this);
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+  private SQLiteDatabase database;
+  private MbtilesConnectionPool connectionPool;
+  private MbtilesTileProvider tileProvider;
+
+  @Before
+  public void setUp() throws Exception {
+    hiltRule.inject();
+    file = temporaryFolder.newFile("test.mbtiles");
+    database = createDatabase(file);
+    // MBTiles numbers rows from the south, so row 2 at zoom level 2 is tile y = 1.
+    insertTile(database, 2, 2, 2, new byte[] {1, 2, 3});
+    connectionPool = new MbtilesConnectionPool(4);
+    tileProvider = new MbtilesTileProvider(file, connectionPool);
+  }
+
+  /** Creates an MBTiles file with zoom levels 1 to 3 and bounds 0,0,90,45. */
+  static SQLiteDatabase createDatabase(File file) {
+    SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(file, null);
+    database.execSQL("CREATE TABLE metadata (name TEXT, value TEXT)");
+    database.execSQL(
+        "CREATE TABLE tiles"
+            + " (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+    database.execSQL("INSERT INTO metadata VALUES ('minzoom', '1'), ('maxzoom', '3')");
+    database.execSQL("INSERT INTO metadata VALUES ('bounds', '0,0,90,45')");
+    return database;
+  }
+
+  @After
+  public void tearDown() {
+    tileProvider.close();
+    database.close();
+  }
+
+  static void insertTile(SQLiteDatabase database, int zoom, int column, int row, byte[] data) {
+    database.execSQL(
+        "INSERT INTO tiles VALUES (?, ?, ?, ?)", new Object[] {zoom, column, row, data});
+  }
+
+  @Test
+  public void getTile() {
+    Tile tile = tileProvider.getTile(2, 1, 2);
+
+    assertThat(tile.data).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(tile.width).isEqualTo(256);
+  }
+
+  @Test
+  public void getTile_missing() {
+    assertThat(tileProvider.getTile(3, 1, 2)).isSameInstanceAs(TileProvider.NO_TILE);
+  }
+
+  @Test
+  public void getTile_outsideZoomRange() {
+    insertTile(database, 4, 0, 0, new byte[] {1});
+
+    assertThat(tileProvider.getTile(0, 15, 4)).isSameInstanceAs(TileProvider.NO_TILE);
+  }
+
+  @Test
+  public void getTile_consecutiveTilesOnSameConnection() {
+    insertTile(database, 2, 3, 2, new byte[] {4});
+
+    assertThat(tileProvider.getTile(2, 1, 2).data).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(tileProvider.getTile(0, 1, 2)).isSameInstanceAs(TileProvider.NO_TILE);
+    assertThat(tileProvider.getTile(3, 1, 2).data).isEqualTo(new byte[] {4});
+    assertThat(connectionPool.getConnectionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void getTile_concurrentRequestsShareConnectionPool() throws Exception {
+    for (int i = 0; i < 16; i++) {
+      insertTile(database, 3, i / 4, i % 4, new byte[] {(byte) i});
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Tile>> tiles = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      int column = i / 4;
+      int row = i % 4;
+      tiles.add(executor.submit(() -> tileProvider.getTile(column, 7 - row, 3)));
+    }
+    for (int i = 0; i < 16; i++) {
+      assertThat(tiles.get(i).get().data).isEqualTo(new byte[] {(byte) i});
+    }
+    executor.shutdown();
+
+    assertThat(connectionPool.getConnectionCount()).isAtMost(4);
+  }
+
+  @Test
+  public void getTile_doesNotCacheTiles() {
+    tileProvider.getTile(2, 1, 2);
+    database.execSQL("DELETE FROM tiles");
+
+    assertThat(tileProvider.getTile(2, 1, 2)).isSameInstanceAs(TileProvider.NO_TILE);
+  }
+
+  @Test
+  public void getTile_closesIdleConnectionToOtherFileWhenPoolIsFull() throws Exception {
+    File otherFile = temporaryFolder.newFile("other.mbtiles");
+    SQLiteDatabase otherDatabase = createDatabase(otherFile);
+    insertTile(otherDatabase, 2, 2, 2, new byte[] {4});
+    MbtilesConnectionPool singleConnectionPool = new MbtilesConnectionPool(1);
+    MbtilesTileProvider provider = new MbtilesTileProvider(file, singleConnectionPool);
+    MbtilesTileProvider otherProvider = new MbtilesTileProvider(otherFile, singleConnectionPool);
+
+    assertThat(provider.getTile(2, 1, 2).data).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(otherProvider.getTile(2, 1, 2).data).isEqualTo(new byte[] {4});
+    assertThat(provider.getTile(2, 1, 2).data).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(singleConnectionPool.getConnectionCount()).isEqualTo(1);
+
+    provider.close();
+    otherProvider.close();
+    otherDatabase.close();
+  }
+
+  @Test
+  public void close_closesIdleConnections() {
+    tileProvider.getTile(2, 1, 2);
+
+    tileProvider.close();
+
+    assertThat(connectionPool.getConnectionCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void getTile_afterClose() {
+    tileProvider.close();
+
+    assertThat(tileProvider.getTile(2, 1, 2)).isSameInstanceAs(TileProvider.NO_TILE);
+  }
+
+  @Test
+  public void mayContainTile() {
+    assertThat(tileProvider.mayContainTile(2, 1, 2)).isTrue();
+    assertThat(tileProvider.mayContainTile(0, 1, 2)).isFalse();
+    assertThat(tileProvider.mayContainTile(2, 1, 0)).isFalse();
+  }
+}
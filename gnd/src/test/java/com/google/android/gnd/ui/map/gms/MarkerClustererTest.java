@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map.gms;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.gnd.model.AuditInfo;
+import com.google.android.gnd.model.Project;
+import com.google.android.gnd.model.User;
+import com.google.android.gnd.model.feature.Point;
+import com.google.android.gnd.model.feature.PointFeature;
+import com.google.android.gnd.model.layer.Layer;
+import com.google.android.gnd.model.layer.Style;
+import com.google.android.gnd.ui.map.MapPin;
+import com.google.android.gnd.ui.map.gms.MarkerClusterer.Cluster;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+public class MarkerClustererTest {
+
+  private static final User FAKE_USER =
+      User.builder().setId("id").setDisplayName("name").setEmail("email").build();
+
+  private static final Style FAKE_STYLE = Style.builder().setColor("#000000").build();
+
+  private static final Layer FAKE_LAYER =
+      Layer.newBuilder().setId("id").setName("name").setDefaultStyle(FAKE_STYLE).build();
+
+  private static final PointFeature FAKE_FEATURE =
+      PointFeature.newBuilder()
+          .setId("feature id")
+          .setProject(
+              Project.newBuilder()
+                  .setId("project id")
+                  .setTitle("project title")
+                  .setDescription("project description")
+                  .build())
+          .setLayer(FAKE_LAYER)
+          .setPoint(Point.newBuilder().setLatitude(0.0).setLongitude(0.0).build())
+          .setCreated(AuditInfo.now(FAKE_USER))
+          .setLastModified(AuditInfo.now(FAKE_USER))
+          .build();
+
+  private static MapPin pin(String id, double latitude, double longitude) {
+    return MapPin.newBuilder()
+        .setId(id)
+        .setPosition(Point.newBuilder().setLatitude(latitude).setLongitude(longitude).build())
+        .setStyle(FAKE_STYLE)
+        .setFeature(FAKE_FEATURE)
+        .build();
+  }
+
+  @Test
+  public void cluster_empty() {
+    assertThat(MarkerClusterer.cluster(ImmutableList.of(), 10)).isEmpty();
+  }
+
+  @Test
+  public void cluster_groupsPinsInSameCell() {
+    MapPin pin1 = pin("1", 10, 10);
+    MapPin pin2 = pin("2", 20, 30);
+
+    // At zoom level 0 the world is four cells wide, so each cell spans 90 degrees of longitude.
+    ImmutableList<Cluster> clusters = MarkerClusterer.cluster(ImmutableList.of(pin1, pin2), 0);
+
+    assertThat(clusters).hasSize(1);
+    Cluster cluster = clusters.get(0);
+    assertThat(cluster.getPins()).containsExactly(pin1, pin2).inOrder();
+    assertThat(cluster.getPosition().latitude).isWithin(1e-9).of(15);
+    assertThat(cluster.getPosition().longitude).isWithin(1e-9).of(20);
+    assertThat(cluster.getBounds().southwest.latitude).isWithin(1e-9).of(10);
+    assertThat(cluster.getBounds().southwest.longitude).isWithin(1e-9).of(10);
+    assertThat(cluster.getBounds().northeast.latitude).isWithin(1e-9).of(20);
+    assertThat(cluster.getBounds().northeast.longitude).isWithin(1e-9).of(30);
+  }
+
+  @Test
+  public void cluster_separatesPinsInDifferentCells() {
+    MapPin pin1 = pin("1", 10, 10);
+    MapPin pin2 = pin("2", 10, 100);
+    MapPin pin3 = pin("3", 20, 20);
+
+    ImmutableList<Cluster> clusters =
+        MarkerClusterer.cluster(ImmutableList.of(pin1, pin2, pin3), 0);
+
+    assertThat(clusters).hasSize(2);
+    assertThat(clusters.get(0).getPins()).containsExactly(pin1, pin3).inOrder();
+    assertThat(clusters.get(1).getPins()).containsExactly(pin2);
+    assertThat(clusters.get(1).size()).isEqualTo(1);
+  }
+
+  @Test
+  public void cluster_splitsCellsAsZoomIncreases() {
+    ImmutableList<MapPin> pins = ImmutableList.of(pin("1", 10, 10), pin("2", 10, 20));
+
+    assertThat(MarkerClusterer.cluster(pins, 0)).hasSize(1);
+    // At zoom level 4 each cell spans 5.625 degrees of longitude.
+    assertThat(MarkerClusterer.cluster(pins, 4)).hasSize(2);
+  }
+
+  @Test
+  public void cluster_gridIsAnchoredToWorld() {
+    // Nearby pins on either side of a cell boundary aren't clustered, regardless of the viewport.
+    ImmutableList<MapPin> pins = ImmutableList.of(pin("1", 0.1, -0.1), pin("2", 0.1, 0.1));
+
+    assertThat(MarkerClusterer.cluster(pins, 0)).hasSize(2);
+  }
+
+  @Test
+  public void cluster_clampsPolesAndAntimeridian() {
+    MapPin pin1 = pin("1", 90, 180);
+    MapPin pin2 = pin("2", 89, 179);
+    MapPin pin3 = pin("3", -90, -180);
+
+    ImmutableList<Cluster> clusters =
+        MarkerClusterer.cluster(ImmutableList.of(pin1, pin2, pin3), 0);
+
+    assertThat(clusters).hasSize(2);
+    assertThat(clusters.get(0).getPins()).containsExactly(pin1, pin2).inOrder();
+    assertThat(clusters.get(1).getPins()).containsExactly(pin3);
+    assertThat(clusters.get(1).getPosition().latitude).isEqualTo(-90);
+    assertThat(clusters.get(1).getPosition().longitude).isEqualTo(-180);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.ui.map.gms;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.gnd.util.ChangeSet;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java8.util.Optional;
+import org.junit.Test;
+
+public class PendingUpdatesTest {
+
+  private final PendingUpdates<String> pendingUpdates = new PendingUpdates<>();
+
+  private static ChangeSet<String> added(String id, String value) {
+    return ChangeSet.create(ImmutableMap.of(id, value), ImmutableMap.of(), ImmutableSet.of());
+  }
+
+  private static ChangeSet<String> modified(String id, String value) {
+    return ChangeSet.create(ImmutableMap.of(), ImmutableMap.of(id, value), ImmutableSet.of());
+  }
+
+  private static ChangeSet<String> removed(String id) {
+    return ChangeSet.create(ImmutableMap.of(), ImmutableMap.of(), ImmutableSet.of(id));
+  }
+
+  private List<String> drain() {
+    List<String> updates = new ArrayList<>();
+    while (!pendingUpdates.isEmpty()) {
+      Entry<String, Optional<String>> update = pendingUpdates.removeFirst();
+      updates.add(update.getKey() + "=" + update.getValue().orElse("removed"));
+    }
+    return updates;
+  }
+
+  @Test
+  public void isEmpty_initially() {
+    assertThat(pendingUpdates.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void add_keepsOrderOfFirstChange() {
+    pendingUpdates.add(added("a", "a:1"), ImmutableSet.of());
+    pendingUpdates.add(added("b", "b:1"), ImmutableSet.of());
+    pendingUpdates.add(modified("a", "a:2"), ImmutableSet.of());
+
+    assertThat(drain()).containsExactly("a=a:2", "b=b:1").inOrder();
+  }
+
+  @Test
+  public void add_coalescesRemovalOfRenderedObject() {
+    pendingUpdates.add(modified("a", "a:2"), ImmutableSet.of("a"));
+    pendingUpdates.add(removed("a"), ImmutableSet.of("a"));
+
+    assertThat(drain()).containsExactly("a=removed");
+  }
+
+  @Test
+  public void add_dropsRemovalOfUnrenderedObject() {
+    pendingUpdates.add(added("a", "a:1"), ImmutableSet.of());
+    pendingUpdates.add(removed("a"), ImmutableSet.of());
+
+    assertThat(pendingUpdates.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void add_snapshotRemovesObjectsNotInSnapshot() {
+    pendingUpdates.add(added("c", "c:1"), ImmutableSet.of("a", "b"));
+    pendingUpdates.add(ChangeSet.snapshot(ImmutableMap.of("b", "b:2")), ImmutableSet.of("a", "b"));
+
+    assertThat(drain()).containsExactly("b=b:2", "a=removed");
+  }
+
+  @Test
+  public void removeFirst_removesUpdate() {
+    pendingUpdates.add(added("a", "a:1"), ImmutableSet.of());
+
+    Entry<String, Optional<String>> update = pendingUpdates.removeFirst();
+
+    assertThat(update.getKey()).isEqualTo("a");
+    assertThat(update.getValue()).isEqualTo(Optional.of("a:1"));
+    assertThat(pendingUpdates.isEmpty()).isTrue();
+  }
+}
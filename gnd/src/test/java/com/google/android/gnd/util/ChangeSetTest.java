@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.reactivex.Flowable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ChangeSetTest {
+
+  /** Identifies test values by the text before the first colon. */
+  private static String idOf(String value) {
+    return value.split(":")[0];
+  }
+
+  @Test
+  public void diff() {
+    ChangeSet<String> changes =
+        ChangeSet.diff(
+            ImmutableMap.of("a", "a:1", "b", "b:1", "c", "c:1"),
+            ImmutableMap.of("a", "a:1", "b", "b:2", "d", "d:1"));
+
+    assertThat(changes.isSnapshot()).isFalse();
+    assertThat(changes.getAdded()).containsExactly("d", "d:1");
+    assertThat(changes.getModified()).containsExactly("b", "b:2");
+    assertThat(changes.getRemoved()).containsExactly("c");
+  }
+
+  @Test
+  public void diff_emptyIfUnchanged() {
+    assertThat(ChangeSet.diff(ImmutableMap.of("a", "a:1"), ImmutableMap.of("a", "a:1")).isEmpty())
+        .isTrue();
+  }
+
+  @Test
+  public void applyTo() {
+    Map<String, String> objects = new HashMap<>(ImmutableMap.of("a", "a:1", "b", "b:1"));
+
+    ChangeSet.create(ImmutableMap.of("c", "c:1"), ImmutableMap.of("b", "b:2"), ImmutableSet.of("a"))
+        .applyTo(objects);
+
+    assertThat(objects).containsExactly("b", "b:2", "c", "c:1");
+  }
+
+  @Test
+  public void applyTo_snapshotReplacesObjects() {
+    Map<String, String> objects = new HashMap<>(ImmutableMap.of("a", "a:1"));
+
+    ChangeSet.snapshot(ImmutableMap.of("b", "b:1")).applyTo(objects);
+
+    assertThat(objects).containsExactly("b", "b:1");
+  }
+
+  @Test
+  public void map() {
+    ChangeSet<Integer> changes =
+        ChangeSet.create(
+                ImmutableMap.of("a", "a:1"), ImmutableMap.of("b", "b:22"), ImmutableSet.of("c"))
+            .map(String::length);
+
+    assertThat(changes.getAdded()).containsExactly("a", 3);
+    assertThat(changes.getModified()).containsExactly("b", 4);
+    assertThat(changes.getRemoved()).containsExactly("c");
+  }
+
+  @Test
+  public void diffs() {
+    Flowable.<Collection<String>>just(
+            ImmutableList.of("a:1", "b:1"),
+            ImmutableList.of("a:1", "b:1"),
+            ImmutableList.of("a:2", "c:1"))
+        .compose(ChangeSet.diffs(ChangeSetTest::idOf))
+        .test()
+        .assertValues(
+            ChangeSet.snapshot(ImmutableMap.of("a", "a:1", "b", "b:1")),
+            ChangeSet.create(
+                ImmutableMap.of("c", "c:1"), ImmutableMap.of("a", "a:2"), ImmutableSet.of("b")));
+  }
+
+  @Test
+  public void diffs_startsWithSnapshotForEachSubscriber() {
+    Flowable<ChangeSet<String>> changes =
+        Flowable.<Collection<String>>just(ImmutableList.of("a:1"), ImmutableList.of("a:2"))
+            .compose(ChangeSet.diffs(ChangeSetTest::idOf));
+
+    changes.test().assertValueCount(2);
+    changes.test().assertValueAt(0, ChangeSet.snapshot(ImmutableMap.of("a", "a:1")));
+  }
+
+  @Test
+  public void deltas() {
+    Flowable.just(
+            ChangeSet.snapshot(ImmutableMap.of("a", "a:1", "b", "b:1")),
+            ChangeSet.<String>create(
+                ImmutableMap.of("c", "c:1"), ImmutableMap.of(), ImmutableSet.of("a")),
+            ChangeSet.snapshot(ImmutableMap.of("b", "b:2", "c", "c:1", "d", "d:1")))
+        .compose(ChangeSet.deltas())
+        .test()
+        .assertValues(
+            ChangeSet.create(
+                ImmutableMap.of("a", "a:1", "b", "b:1"), ImmutableMap.of(), ImmutableSet.of()),
+            ChangeSet.create(ImmutableMap.of("c", "c:1"), ImmutableMap.of(), ImmutableSet.of("a")),
+            ChangeSet.create(
+                ImmutableMap.of("d", "d:1"), ImmutableMap.of("b", "b:2"), ImmutableSet.of()));
+  }
+
+  @Test
+  public void deltas_skipsUnchangedSnapshots() {
+    Flowable.just(
+            ChangeSet.snapshot(ImmutableMap.of("a", "a:1")),
+            ChangeSet.snapshot(ImmutableMap.of("a", "a:1")),
+            ChangeSet.<String>snapshot(ImmutableMap.of()))
+        .compose(ChangeSet.deltas())
+        .test()
+        .assertValues(
+            ChangeSet.create(ImmutableMap.of("a", "a:1"), ImmutableMap.of(), ImmutableSet.of()),
+            ChangeSet.create(ImmutableMap.of(), ImmutableMap.of(), ImmutableSet.of("a")));
+  }
+
+  @Test
+  public void deltas_startsEmptyForEachSubscriber() {
+    Flowable<ChangeSet<String>> deltas =
+        Flowable.just(ChangeSet.snapshot(ImmutableMap.of("a", "a:1"))).compose(ChangeSet.deltas());
+
+    deltas.test().assertValueCount(1);
+    deltas
+        .test()
+        .assertValue(
+            ChangeSet.create(ImmutableMap.of("a", "a:1"), ImmutableMap.of(), ImmutableSet.of()));
+  }
+}
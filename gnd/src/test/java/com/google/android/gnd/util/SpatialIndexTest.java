@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gnd.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpatialIndexTest {
+
+  private SpatialIndex<String> index;
+
+  @Before
+  public void setUp() {
+    index = new SpatialIndex<>();
+  }
+
+  @Test
+  public void query_returnsIntersectingEntries() {
+    index.put("inside", 1, 1, 2, 2);
+    index.put("overlapping", -1, -1, 0.5, 0.5);
+    index.put("outside", 10, 10, 11, 11);
+    index.put("point", 0.5, 0.5);
+
+    assertThat(index.query(0, 0, 3, 3)).containsExactly("inside", "overlapping", "point");
+  }
+
+  @Test
+  public void query_includesEntriesTouchingEdges() {
+    index.put("box", 1, 1, 2, 2);
+
+    assertThat(index.query(2, 2, 3, 3)).containsExactly("box");
+  }
+
+  @Test
+  public void query_point() {
+    index.put("box", -10, -10, 10, 10);
+    index.put("other", 20, 20, 30, 30);
+
+    assertThat(index.query(5.0, 5.0)).containsExactly("box");
+  }
+
+  @Test
+  public void put_normalizesInvertedCorners() {
+    index.put("box", 2, 2, 1, 1);
+
+    assertThat(index.query(1.5, 1.5)).containsExactly("box");
+  }
+
+  @Test
+  public void put_replacesExistingEntry() {
+    index.put("box", 1, 1, 2, 2);
+    index.put("box", 10, 10, 11, 11);
+
+    assertThat(index.size()).isEqualTo(1);
+    assertThat(index.query(0, 0, 3, 3)).isEmpty();
+    assertThat(index.query(9, 9, 12, 12)).containsExactly("box");
+  }
+
+  @Test
+  public void remove() {
+    index.put("box", 1, 1, 2, 2);
+
+    assertThat(index.remove("box")).isTrue();
+    assertThat(index.remove("box")).isFalse();
+    assertThat(index.contains("box")).isFalse();
+    assertThat(index.query(0, 0, 3, 3)).isEmpty();
+  }
+
+  @Test
+  public void clear() {
+    index.put("box", 1, 1, 2, 2);
+    index.clear();
+
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.query(-90, -180, 90, 180)).isEmpty();
+  }
+
+  @Test
+  public void query_afterNodesSplit() {
+    // Enough points to split nodes several levels deep, plus boxes straddling split lines.
+    for (int lat = -80; lat < 80; lat += 2) {
+      for (int lng = -170; lng < 170; lng += 2) {
+        index.put(lat + "," + lng, lat, lng);
+      }
+    }
+    index.put("straddling", -1, -1, 1, 1);
+    index.put("world", -90, -180, 90, 180);
+
+    assertThat(index.query(9.5, 19.5, 12.5, 22.5))
+        .containsExactly("10,20", "10,22", "12,20", "12,22", "world");
+    assertThat(index.query(0, 0, 0, 0)).containsExactly("0,0", "straddling", "world");
+
+    index.remove("10,20");
+    index.remove("world");
+
+    assertThat(index.query(9.5, 19.5, 12.5, 22.5)).containsExactly("10,22", "12,20", "12,22");
+  }
+
+  @Test
+  public void query_boundsCrossingAntimeridian() {
+    index.put("east", 0, 179, 1, 179.5);
+    index.put("west", 0, -179.5, 1, -179);
+    index.put("greenwich", 0, 0, 1, 1);
+
+    LatLngBounds bounds = new LatLngBounds(new LatLng(-1, 178), new LatLng(2, -178));
+
+    assertThat(index.query(bounds)).containsExactly("east", "west");
+  }
+}